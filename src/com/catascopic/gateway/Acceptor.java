@@ -0,0 +1,19 @@
+package com.catascopic.gateway;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A server that accepts connections until it is closed.
+ */
+public interface Acceptor extends Closeable {
+
+	/**
+	 * Binds the server and accepts connections on the calling thread until
+	 * the server is closed.
+	 */
+	void run() throws IOException;
+
+	boolean isClosed();
+
+}
@@ -0,0 +1,342 @@
+package com.catascopic.gateway;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * A pool of buffers in size classes that are powers of two. Each platform
+ * thread keeps a few free buffers of each class for itself, so a buffer that
+ * is acquired and released on the same thread, as most are, never touches
+ * shared state; the rest are shared in a bounded free list per class.
+ * Virtual threads use only the shared lists, as there may be a great many of
+ * them, each living for one connection, and a cache of their own would
+ * strand buffers with every one that ends. Requests larger than the largest
+ * class get a buffer that is not pooled.
+ * <p>
+ * A buffer must be released exactly once, and must not be used afterwards.
+ * When leak detection is on, each buffer handed out remembers where it was
+ * acquired, releasing a buffer twice or one that is not from the pool
+ * fails, and a buffer that is garbage collected without being released is
+ * reported to {@code System.err} with the stack of its acquisition.
+ * Detection is on for the shared pools if the system property
+ * {@value #LEAK_DETECTION_PROPERTY} is {@code true}.
+ */
+public final class BufferPool {
+
+	public static final String LEAK_DETECTION_PROPERTY =
+			"com.catascopic.gateway.bufferLeakDetection";
+
+	private static final int MIN_SIZE = 0x200;
+	private static final int MAX_SIZE = 0x10000;
+	private static final int MAX_SHARED_PER_CLASS = 256;
+	private static final int MAX_CACHED_PER_CLASS = 8;
+	// Thread.isVirtual, or null on runtimes older than Java 21
+	private static final Method IS_VIRTUAL = isVirtualMethod();
+
+	/**
+	 * Direct buffers, for reading from and writing to channels.
+	 */
+	public static final BufferPool DIRECT = new BufferPool(true,
+			MIN_SIZE, MAX_SIZE, MAX_SHARED_PER_CLASS,
+			Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+
+	/**
+	 * Heap buffers, for code that needs an array, such as reading from and
+	 * writing to streams.
+	 */
+	public static final BufferPool HEAP = new BufferPool(false,
+			MIN_SIZE, MAX_SIZE, MAX_SHARED_PER_CLASS,
+			Boolean.getBoolean(LEAK_DETECTION_PROPERTY));
+
+	private final boolean direct;
+	private final int minShift;
+	private final int maxSize;
+	private final int maxSharedPerClass;
+	private final SharedList[] shared;
+	private final ThreadLocal<Cache[]> caches;
+
+	private final AtomicLong acquired = new AtomicLong();
+	private final AtomicLong released = new AtomicLong();
+	private final AtomicLong allocatedBytes = new AtomicLong();
+	private final AtomicLong leaks = new AtomicLong();
+
+	// null unless leak detection is on; the buffers are weak keys, compared
+	// by identity, and the leaks are kept until they are released or
+	// reported so that they are still reachable when their buffer is
+	// collected
+	private final ConcurrentMap<ByteBuffer, Leak> tracked;
+	private final Set<Leak> unreleased;
+	private final ReferenceQueue<ByteBuffer> collected;
+
+	/**
+	 * @param direct
+	 *            whether to allocate direct buffers
+	 * @param minSize
+	 *            the capacity of the smallest class, a power of two
+	 * @param maxSize
+	 *            the capacity of the largest class, a power of two
+	 * @param maxSharedPerClass
+	 *            how many free buffers of each class to share between
+	 *            threads; any more are left to the garbage collector
+	 * @param leakDetection
+	 *            whether to track the buffers handed out
+	 */
+	public BufferPool(boolean direct, int minSize, int maxSize,
+			int maxSharedPerClass, boolean leakDetection) {
+		if (Integer.bitCount(minSize) != 1 || Integer.bitCount(maxSize) != 1
+				|| minSize > maxSize) {
+			throw new IllegalArgumentException(
+					"sizes: " + minSize + " to " + maxSize);
+		}
+		this.direct = direct;
+		this.minShift = Integer.numberOfTrailingZeros(minSize);
+		this.maxSize = maxSize;
+		this.maxSharedPerClass = maxSharedPerClass;
+		final int classes =
+				Integer.numberOfTrailingZeros(maxSize) - minShift + 1;
+		this.shared = new SharedList[classes];
+		for (int i = 0; i < classes; i++) {
+			shared[i] = new SharedList();
+		}
+		this.caches = new ThreadLocal<Cache[]>() {
+
+			@Override
+			protected Cache[] initialValue() {
+				if (isVirtual(Thread.currentThread())) {
+					return null;
+				}
+				Cache[] cache = new Cache[classes];
+				for (int i = 0; i < classes; i++) {
+					cache[i] = new Cache();
+				}
+				return cache;
+			}
+		};
+		if (leakDetection) {
+			this.tracked = new MapMaker().weakKeys().makeMap();
+			this.unreleased = Collections.newSetFromMap(
+					new ConcurrentHashMap<Leak, Boolean>());
+			this.collected = new ReferenceQueue<>();
+		} else {
+			this.tracked = null;
+			this.unreleased = null;
+			this.collected = null;
+		}
+	}
+
+	/**
+	 * Returns a cleared buffer whose limit is the given size. Its capacity
+	 * may be larger.
+	 */
+	public ByteBuffer acquire(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("size: " + size);
+		}
+		acquired.incrementAndGet();
+		ByteBuffer buffer;
+		if (size > maxSize) {
+			buffer = allocate(size);
+		} else {
+			int index = classIndex(size);
+			Cache[] cache = caches.get();
+			buffer = cache == null ? null : cache[index].buffers.pollFirst();
+			if (buffer == null) {
+				buffer = shared[index].buffers.poll();
+				if (buffer != null) {
+					shared[index].count.decrementAndGet();
+				} else {
+					buffer = allocate(1 << (index + minShift));
+				}
+			}
+		}
+		if (tracked != null) {
+			reportLeaks();
+			Leak leak = new Leak(buffer, collected);
+			unreleased.add(leak);
+			tracked.put(buffer, leak);
+		}
+		buffer.clear().limit(size);
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool.
+	 *
+	 * @throws IllegalStateException
+	 *             if leak detection is on and the buffer was not acquired
+	 *             from this pool, or has already been released
+	 */
+	public void release(ByteBuffer buffer) {
+		if (tracked != null) {
+			Leak leak = tracked.remove(buffer);
+			if (leak == null) {
+				throw new IllegalStateException(
+						"not acquired from this pool or released twice");
+			}
+			leak.clear();
+			unreleased.remove(leak);
+		}
+		released.incrementAndGet();
+		int capacity = buffer.capacity();
+		if (capacity > maxSize || Integer.bitCount(capacity) != 1
+				|| buffer.isDirect() != direct || buffer.isReadOnly()) {
+			// too large to pool, or not one of ours
+			return;
+		}
+		int index = classIndex(capacity);
+		Cache[] cache = caches.get();
+		if (cache != null
+				&& cache[index].buffers.size() < MAX_CACHED_PER_CLASS) {
+			cache[index].buffers.addFirst(buffer);
+		} else if (shared[index].count.incrementAndGet() <= maxSharedPerClass) {
+			shared[index].buffers.add(buffer);
+		} else {
+			shared[index].count.decrementAndGet();
+		}
+	}
+
+	private int classIndex(int size) {
+		if (size <= 1 << minShift) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - minShift;
+	}
+
+	private static Method isVirtualMethod() {
+		try {
+			return Thread.class.getMethod("isVirtual");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (Boolean) IS_VIRTUAL.invoke(thread);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		allocatedBytes.addAndGet(capacity);
+		return direct
+				? ByteBuffer.allocateDirect(capacity)
+				: ByteBuffer.allocate(capacity);
+	}
+
+	private void reportLeaks() {
+		Leak leak;
+		while ((leak = (Leak) collected.poll()) != null) {
+			if (!unreleased.remove(leak)) {
+				// released as it was collected
+				continue;
+			}
+			leaks.incrementAndGet();
+			new IllegalStateException("buffer of " + leak.capacity
+					+ " bytes was never released", leak.acquiredAt)
+					.printStackTrace();
+		}
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Returns the number of buffers that have been acquired and not yet
+	 * released.
+	 */
+	public long outstanding() {
+		return acquired.get() - released.get();
+	}
+
+	/**
+	 * Returns the number of free buffers shared between threads, not
+	 * counting those in the caches of each thread.
+	 */
+	public int shared() {
+		int total = 0;
+		for (SharedList list : shared) {
+			total += list.count.get();
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the total capacity of every buffer this pool has allocated.
+	 */
+	public long allocatedBytes() {
+		return allocatedBytes.get();
+	}
+
+	/**
+	 * Returns the number of buffers that were garbage collected without
+	 * being released, which is only counted while leak detection is on.
+	 */
+	public long leaks() {
+		if (tracked != null) {
+			reportLeaks();
+		}
+		return leaks.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"BufferPool[%s, %d acquired, %d outstanding, %d shared,"
+						+ " %d bytes allocated, %d leaks]",
+				direct ? "direct" : "heap", acquired.get(), outstanding(),
+				shared(), allocatedBytes(), leaks.get());
+	}
+
+	/**
+	 * The free buffers of a class that a platform thread keeps for itself.
+	 */
+	private static final class Cache {
+
+		final ArrayDeque<ByteBuffer> buffers =
+				new ArrayDeque<>(MAX_CACHED_PER_CLASS);
+	}
+
+	/**
+	 * The free buffers of a class that are shared between threads, and how
+	 * many there are, which a concurrent queue cannot tell cheaply.
+	 */
+	private static final class SharedList {
+
+		final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+		final AtomicInteger count = new AtomicInteger();
+	}
+
+	/**
+	 * Where a buffer that has not been released was acquired.
+	 */
+	private static final class Leak extends WeakReference<ByteBuffer> {
+
+		final int capacity;
+		final Throwable acquiredAt = new Throwable("acquired here");
+
+		Leak(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue) {
+			super(buffer, queue);
+			this.capacity = buffer.capacity();
+		}
+	}
+
+}
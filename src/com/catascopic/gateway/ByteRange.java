@@ -0,0 +1,152 @@
+package com.catascopic.gateway;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A range of bytes of some content, as requested by a {@code Range} header.
+ * Both ends are inclusive, as they are in the header.
+ */
+public final class ByteRange {
+
+	private static final String BYTES_UNIT = "bytes";
+	// more ranges than this are more likely an attack than a client
+	private static final int MAX_RANGES = 16;
+
+	private final long first;
+	private final long last;
+
+	ByteRange(long first, long last) {
+		this.first = first;
+		this.last = last;
+	}
+
+	public long first() {
+		return first;
+	}
+
+	public long last() {
+		return last;
+	}
+
+	public long length() {
+		return last - first + 1;
+	}
+
+	/**
+	 * Returns the {@code Content-Range} header of this range of content of
+	 * the given length.
+	 */
+	public String contentRange(long completeLength) {
+		return BYTES_UNIT + ' ' + first + '-' + last + '/' + completeLength;
+	}
+
+	/**
+	 * Returns the {@code Content-Range} header of a
+	 * {@code 416 Range Not Satisfiable} response.
+	 */
+	public static String unsatisfiedRange(long completeLength) {
+		return BYTES_UNIT + " */" + completeLength;
+	}
+
+	/**
+	 * Parses a {@code Range} header against content of the given length.
+	 * Ranges that extend past the end are shortened, and ranges that start
+	 * past it are dropped.
+	 *
+	 * @return the satisfiable ranges, in the order requested, which is empty
+	 *         if there are none, or {@code null} if the header should be
+	 *         ignored because it is malformed, is not in bytes, or asks for
+	 *         too many ranges
+	 */
+	public static List<ByteRange> parse(String header, long length) {
+		int equals = header.indexOf('=');
+		if (equals == -1
+				|| !header.substring(0, equals).trim()
+						.equalsIgnoreCase(BYTES_UNIT)) {
+			return null;
+		}
+		List<ByteRange> ranges = new ArrayList<>();
+		int count = 0;
+		int start = equals + 1;
+		while (start <= header.length()) {
+			int comma = header.indexOf(',', start);
+			int end = comma == -1 ? header.length() : comma;
+			String spec = header.substring(start, end).trim();
+			start = end + 1;
+			if (spec.isEmpty()) {
+				// empty list elements are allowed
+				continue;
+			}
+			if (++count > MAX_RANGES) {
+				return null;
+			}
+			int dash = spec.indexOf('-');
+			if (dash == -1) {
+				return null;
+			}
+			long first;
+			long last;
+			if (dash == 0) {
+				long suffix = parseLong(spec.substring(1));
+				if (suffix < 0) {
+					return null;
+				}
+				if (suffix == 0 || length == 0) {
+					continue;
+				}
+				first = Math.max(length - suffix, 0);
+				last = length - 1;
+			} else {
+				first = parseLong(spec.substring(0, dash));
+				if (first < 0) {
+					return null;
+				}
+				if (dash == spec.length() - 1) {
+					last = length - 1;
+				} else {
+					last = parseLong(spec.substring(dash + 1));
+					if (last < first) {
+						return null;
+					}
+					last = Math.min(last, length - 1);
+				}
+				if (first >= length) {
+					continue;
+				}
+			}
+			ranges.add(new ByteRange(first, last));
+		}
+		if (count == 0) {
+			return null;
+		}
+		return ranges.isEmpty()
+				? Collections.<ByteRange> emptyList()
+				: ranges;
+	}
+
+	/**
+	 * Parses a non-empty string of digits, or returns -1.
+	 */
+	private static long parseLong(String digits) {
+		if (digits.isEmpty() || digits.length() > 18) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < digits.length(); i++) {
+			char c = digits.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return first + "-" + last;
+	}
+
+}
@@ -1,84 +1,751 @@
 package com.catascopic.gateway;
 
+import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
-public abstract class ChannelServer<T> {
+/**
+ * A non-blocking server that spreads its connections over a fixed number of
+ * selector threads. Every callback for a connection runs on the selector
+ * thread that owns it, so per-connection state needs no synchronization, and
+ * callbacks must not block.
+ *
+ * @param <T>
+ *            the per-connection state
+ */
+public abstract class ChannelServer<T> implements Closeable {
 
+	private static final int READ_BUFFER_SIZE = 0x4000;
+	private static final int STREAM_BUFFER_SIZE = 0x4000;
+	// how many buffers a producer may have queued before it waits
+	private static final int MAX_STREAM_BUFFERS = 4;
+	// how often a waiting producer checks that the connection is still open
+	private static final long STREAM_POLL_MILLIS = 1000;
+	// how long to wait before accepting again after accepting failed
+	private static final long ACCEPT_RETRY_MILLIS = 100;
+
+	private final InetSocketAddress address;
+	private final List<SelectorLoop> loops;
+	private ServerSocketChannel server;
+	private volatile boolean closed; // = false
+	// why a selector loop stopped before the server was closed
+	private volatile Throwable failure; // = null
+
+	protected ChannelServer(InetSocketAddress address, int selectorCount)
+			throws IOException {
+		if (selectorCount < 1) {
+			throw new IllegalArgumentException("selectorCount: "
+					+ selectorCount);
+		}
+		this.address = address;
+		this.loops = new ArrayList<>(selectorCount);
+		for (int i = 0; i < selectorCount; i++) {
+			loops.add(new SelectorLoop());
+		}
+	}
+
+	/**
+	 * Binds the server, starts the selector threads and accepts connections
+	 * on the calling thread until the server is closed. A connection that
+	 * fails as it is accepted is closed, and accepting goes on; if accepting
+	 * itself fails, as it does when there are no file descriptors left, it
+	 * is tried again after a pause. If a selector thread fails, the server is
+	 * closed, as the connections it served are lost.
+	 *
+	 * @throws IOException
+	 *             if a selector thread failed
+	 */
 	public void run() throws IOException {
-		Selector selector = Selector.open();
-		ServerSocketChannel server = ServerSocketChannel.open();
-		server.socket().bind(new InetSocketAddress("localhost", 3637));
-		server.register(selector, SelectionKey.OP_ACCEPT);
-		server.configureBlocking(false);
-		for (;;) {
-			selector.select();
-			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
-			while (keys.hasNext()) {
-				SelectionKey key = keys.next();
-				if (key.isValid()) {
-					if (key.isAcceptable()) {
-						accept(server, selector);
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		for (int i = 0; i < loops.size(); i++) {
+			SelectorLoop loop = loops.get(i);
+			Thread thread = new Thread(loop, "selector-" + i);
+			loop.thread = thread;
+			thread.start();
+		}
+		int next = 0;
+		while (!closed) {
+			SocketChannel client;
+			try {
+				client = server.accept();
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (IOException e) {
+				System.err.println("accepting: " + e);
+				pauseAccepting();
+				continue;
+			}
+			if (closed) {
+				// a selector loop failed and closed the server
+				closeQuietly(client);
+				break;
+			}
+			try {
+				client.configureBlocking(false);
+				client.socket().setTcpNoDelay(true);
+			} catch (IOException e) {
+				// the client may have reset the connection already
+				System.err.println("accepting " + client + ": " + e);
+				closeQuietly(client);
+				continue;
+			}
+			loops.get(next).add(client);
+			next = (next + 1) % loops.size();
+		}
+		if (failure != null) {
+			throw new IOException("selector failed", failure);
+		}
+	}
+
+	private void pauseAccepting() throws IOException {
+		try {
+			Thread.sleep(ACCEPT_RETRY_MILLIS);
+		} catch (InterruptedException e) {
+			close();
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Creates the state for a newly accepted connection.
+	 */
+	protected abstract T open(Connection connection) throws IOException;
+
+	/**
+	 * Called with the bytes read from a connection. The buffer is only valid
+	 * for the duration of the call.
+	 */
+	protected abstract void read(Connection connection, T state,
+			ByteBuffer data) throws IOException;
+
+	/**
+	 * Called when every queued write of a connection has been written.
+	 */
+	protected void drained(Connection connection, T state)
+			throws IOException {}
+
+	/**
+	 * Called once when a connection is closed for any reason.
+	 */
+	protected void closed(Connection connection, T state) {}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		for (SelectorLoop loop : loops) {
+			loop.selector.wakeup();
+		}
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Writes content that is produced by code that may block.
+	 */
+	public interface Producer {
+
+		/**
+		 * Writes the content. The stream must not be closed.
+		 */
+		void write(OutputStream out) throws IOException;
+	}
+
+	public final class Connection implements Closeable {
+
+		private final SocketChannel channel;
+		private final SelectorLoop loop;
+		private final SelectionKey key;
+		private final Deque<Pending> outbound = new ArrayDeque<>();
+		private T state;
+		private boolean closeAfterWrites; // = false
+		private boolean readsSuspended; // = false
+		// whether a producer is writing to the connection from another thread
+		private boolean streaming; // = false
+
+		Connection(SocketChannel channel, SelectorLoop loop)
+				throws IOException {
+			this.channel = channel;
+			this.loop = loop;
+			this.key = channel.register(loop.selector, SelectionKey.OP_READ,
+					this);
+		}
+
+		public SocketChannel channel() {
+			return channel;
+		}
+
+		/**
+		 * Runs a task on the selector thread that owns this connection, which
+		 * is the only thread that may write to it. The task runs at once if
+		 * this is that thread. A task that throws closes the connection.
+		 */
+		public void execute(final Runnable task) {
+			if (Thread.currentThread() == loop.thread) {
+				run(task);
+			} else {
+				loop.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						Connection.this.run(task);
 					}
-					if (key.isReadable()) {
-						@SuppressWarnings("unchecked")
-						T attachment = (T) key.attachment();
-						read(key, attachment);
+				});
+			}
+		}
+
+		private void run(Runnable task) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Writes as much of the buffer as the socket will take and queues the
+		 * rest, to be written when the socket becomes writable. The buffer
+		 * must not be modified afterwards.
+		 */
+		public void write(final ByteBuffer buffer) throws IOException {
+			write(new Pending() {
+
+				@Override
+				public boolean writeTo(SocketChannel channel)
+						throws IOException {
+					channel.write(buffer);
+					return !buffer.hasRemaining();
+				}
+
+				@Override
+				public void release() {}
+			});
+		}
+
+		/**
+		 * Writes a head and a body, which may be null, with one gathering
+		 * write, and queues whatever the socket does not take at once. The
+		 * head was acquired from the given pool, and is released to it once
+		 * it has been written or the connection closes. The body must not be
+		 * modified afterwards.
+		 */
+		public void write(BufferPool pool, ByteBuffer head, ByteBuffer body)
+				throws IOException {
+			boolean queued = false;
+			try {
+				if (outbound.isEmpty()) {
+					if (body == null) {
+						channel.write(head);
+					} else {
+						channel.write(new ByteBuffer[] { head, body });
 					}
 				}
-				keys.remove();
+				if (head.hasRemaining()) {
+					write(pooled(pool, head));
+					queued = true;
+				}
+			} finally {
+				if (!queued) {
+					// written, or the write failed
+					pool.release(head);
+				}
+			}
+			if (body != null && body.hasRemaining()) {
+				write(body);
 			}
 		}
-	}
 
-	private void accept(ServerSocketChannel server, Selector selector)
-			throws IOException {
-		SocketChannel client = server.accept();
-		client.configureBlocking(false);
-		client.register(selector, SelectionKey.OP_READ, get());
-		send(client, "Hello!");
+		/**
+		 * Writes a buffer as {@link #write(ByteBuffer)} does, and runs the
+		 * given task once it has been written or the connection closes, or
+		 * if writing it fails. This is for buffers that are shared between
+		 * connections, each writing its own view.
+		 */
+		public void write(final ByteBuffer buffer, final Runnable done)
+				throws IOException {
+			try {
+				write(new Pending() {
+
+					@Override
+					public boolean writeTo(SocketChannel channel)
+							throws IOException {
+						channel.write(buffer);
+						if (buffer.hasRemaining()) {
+							return false;
+						}
+						done.run();
+						return true;
+					}
+
+					@Override
+					public void release() {
+						done.run();
+					}
+				});
+			} catch (IOException e) {
+				done.run();
+				throw e;
+			}
+		}
+
+		private Pending pooled(final BufferPool pool, final ByteBuffer buffer) {
+			return new Pending() {
+
+				@Override
+				public boolean writeTo(SocketChannel channel)
+						throws IOException {
+					channel.write(buffer);
+					if (buffer.hasRemaining()) {
+						return false;
+					}
+					pool.release(buffer);
+					return true;
+				}
+
+				@Override
+				public void release() {
+					pool.release(buffer);
+				}
+			};
+		}
+
+		/**
+		 * Sends a region of a file straight from the file system to the
+		 * socket with {@link FileChannel#transferTo}, queueing whatever the
+		 * socket does not take at once. The file is closed once it has been
+		 * sent or the connection closes.
+		 */
+		public void transfer(final FileChannel file, final long position,
+				final long count) throws IOException {
+			write(new Pending() {
+
+				private long next = position;
+				private final long end = position + count;
+
+				@Override
+				public boolean writeTo(SocketChannel channel)
+						throws IOException {
+					while (next < end) {
+						long transferred =
+								file.transferTo(next, end - next, channel);
+						if (transferred == 0) {
+							if (next >= file.size()) {
+								throw new EOFException("file truncated: "
+										+ next);
+							}
+							return false;
+						}
+						next += transferred;
+					}
+					file.close();
+					return true;
+				}
+
+				@Override
+				public void release() {
+					closeQuietly(file);
+				}
+			});
+		}
+
+		private void write(Pending pending) throws IOException {
+			if (outbound.isEmpty()) {
+				if (pending.writeTo(channel)) {
+					return;
+				}
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+			outbound.add(pending);
+		}
+
+		/**
+		 * Runs a producer on the given executor, so that it may block, and
+		 * queues what it writes in order after everything queued before it.
+		 * The producer waits while the client is slow to read, rather than
+		 * have its content pile up in memory. Until it returns, the
+		 * connection has pending writes; if it fails, the connection is
+		 * closed once what it wrote has been sent.
+		 */
+		public void stream(Executor executor, final Producer producer) {
+			final ProducerStream out = new ProducerStream();
+			streaming = true;
+			try {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						boolean complete = false;
+						try {
+							producer.write(out);
+							out.flush();
+							complete = true;
+						} catch (IOException | RuntimeException e) {
+							// the producer failed, or the connection closed
+						} finally {
+							out.finish(complete);
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// the server is closing
+				streaming = false;
+				close();
+			}
+		}
+
+		public boolean hasPendingWrites() {
+			return !outbound.isEmpty() || streaming;
+		}
+
+		/**
+		 * Closes the connection once every queued write has been written.
+		 */
+		public void closeAfterWrites() throws IOException {
+			if (outbound.isEmpty() && !streaming) {
+				close();
+			} else {
+				closeAfterWrites = true;
+				suspendReads();
+			}
+		}
+
+		/**
+		 * Stops reading from the connection, so that a client that does not
+		 * read its responses cannot make the server buffer more requests.
+		 */
+		public void suspendReads() {
+			if (!readsSuspended && key.isValid()) {
+				readsSuspended = true;
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			}
+		}
+
+		public void resumeReads() {
+			if (readsSuspended && key.isValid() && !closeAfterWrites) {
+				readsSuspended = false;
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			}
+		}
+
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		private void handleRead(ByteBuffer buffer) throws IOException {
+			buffer.clear();
+			int read = channel.read(buffer);
+			if (read == -1) {
+				close();
+				return;
+			}
+			buffer.flip();
+			ChannelServer.this.read(this, state, buffer);
+		}
+
+		private void handleWrite() throws IOException {
+			while (!outbound.isEmpty()) {
+				if (!outbound.peek().writeTo(channel)) {
+					return;
+				}
+				outbound.remove();
+			}
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			if (streaming) {
+				// the producer has more to come
+				return;
+			}
+			if (closeAfterWrites) {
+				close();
+			} else {
+				drained(this, state);
+			}
+		}
+
+		/**
+		 * Called on the selector thread once a producer has returned and
+		 * everything it wrote has been queued.
+		 */
+		private void streamFinished(boolean complete) throws IOException {
+			streaming = false;
+			if (!channel.isOpen()) {
+				return;
+			}
+			if (!complete) {
+				closeAfterWrites();
+			} else if (outbound.isEmpty()) {
+				if (closeAfterWrites) {
+					close();
+				} else {
+					drained(this, state);
+				}
+			}
+		}
+
+		/**
+		 * The stream a producer writes to from its own thread. Each flush,
+		 * and each buffer it fills, is handed to the selector thread to be
+		 * written.
+		 */
+		private final class ProducerStream extends OutputStream {
+
+			private final Semaphore queued = new Semaphore(MAX_STREAM_BUFFERS);
+			private ByteBuffer buffer; // = null
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] { (byte) b }, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				while (len > 0) {
+					if (buffer == null) {
+						buffer = BufferPool.HEAP.acquire(STREAM_BUFFER_SIZE);
+						buffer.clear();
+					}
+					int count = Math.min(len, buffer.remaining());
+					buffer.put(b, off, count);
+					off += count;
+					len -= count;
+					if (!buffer.hasRemaining()) {
+						send();
+					}
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				if (buffer != null && buffer.position() > 0) {
+					send();
+				}
+			}
+
+			private void send() throws IOException {
+				try {
+					while (!queued.tryAcquire(STREAM_POLL_MILLIS,
+							TimeUnit.MILLISECONDS)) {
+						checkOpen();
+					}
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException();
+				}
+				checkOpen();
+				final ByteBuffer full = buffer;
+				buffer = null;
+				full.flip();
+				execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							Connection.this.write(full, new Runnable() {
+
+								@Override
+								public void run() {
+									BufferPool.HEAP.release(full);
+									queued.release();
+								}
+							});
+						} catch (IOException e) {
+							Connection.this.close();
+						}
+					}
+				});
+			}
+
+			private void checkOpen() throws IOException {
+				if (!channel.isOpen()) {
+					throw new ClosedChannelException();
+				}
+			}
+
+			void finish(final boolean complete) {
+				if (buffer != null) {
+					BufferPool.HEAP.release(buffer);
+					buffer = null;
+				}
+				execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							streamFinished(complete);
+						} catch (IOException e) {
+							Connection.this.close();
+						}
+					}
+				});
+			}
+		}
+
+		@Override
+		public void close() {
+			if (!channel.isOpen()) {
+				return;
+			}
+			key.cancel();
+			for (Pending pending : outbound) {
+				pending.release();
+			}
+			outbound.clear();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+			closed(this, state);
+		}
 	}
 
-	private static void send(SocketChannel client, String string) throws IOException {
-		client.write(ByteBuffer.wrap(string.getBytes(StandardCharsets.UTF_8)));
+	/**
+	 * Bytes queued for a connection.
+	 */
+	private interface Pending {
+
+		/**
+		 * @return true if everything has been written
+		 */
+		boolean writeTo(SocketChannel channel) throws IOException;
+
+		void release();
 	}
 
-	private ByteBuffer buf = ByteBuffer.allocate(256);
-
-	protected void read(SelectionKey key, T connection) {
-		SocketChannel ch = (SocketChannel) key.channel();
-		StringBuilder sb = new StringBuilder();
-		
-		buf.clear();
-		int read = 0;
-		while ((read = ch.read(buf)) > 0) {
-			ch.read
-			buf.flip();
-			byte[] bytes = new byte[buf.limit()];
-			buf.get(bytes);
-			sb.append(new String(bytes));
-			buf.clear();
-		}
-		String msg;
-		if (read < 0) {
-			msg = key.attachment() + " left the chat.\n";
-			ch.close();
-		} else {
-			msg = key.attachment() + ": " + sb.toString();
-		}
-
-		System.out.println(msg);
-		broadcast(msg);
+	private final class SelectorLoop implements Runnable {
+
+		private final Selector selector;
+		private final Queue<SocketChannel> pending =
+				new ConcurrentLinkedQueue<>();
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private volatile Thread thread;
+		private final ByteBuffer readBuffer =
+				BufferPool.DIRECT.acquire(READ_BUFFER_SIZE);
+
+		SelectorLoop() throws IOException {
+			this.selector = Selector.open();
+		}
+
+		void add(SocketChannel channel) {
+			pending.add(channel);
+			selector.wakeup();
+		}
+
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!closed) {
+					selector.select();
+					registerPending();
+					runTasks();
+					Iterator<SelectionKey> keys =
+							selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						@SuppressWarnings("unchecked")
+						Connection connection = (Connection) key.attachment();
+						handle(key, connection);
+					}
+				}
+			} catch (IOException | RuntimeException | Error e) {
+				if (!closed) {
+					failure = e;
+					closeQuietly(ChannelServer.this);
+				}
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					@SuppressWarnings("unchecked")
+					Connection connection = (Connection) key.attachment();
+					connection.close();
+				}
+				// accepted after the loop stopped
+				SocketChannel channel;
+				while ((channel = pending.poll()) != null) {
+					closeQuietly(channel);
+				}
+				try {
+					selector.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+				BufferPool.DIRECT.release(readBuffer);
+			}
+		}
+
+		private void registerPending() {
+			SocketChannel channel;
+			while ((channel = pending.poll()) != null) {
+				Connection connection = null;
+				try {
+					connection = new Connection(channel, this);
+					connection.state = open(connection);
+				} catch (IOException | RuntimeException e) {
+					if (connection != null) {
+						connection.close();
+					} else {
+						closeQuietly(channel);
+					}
+				}
+			}
+		}
+
+		private void runTasks() {
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+		}
+
+		private void handle(SelectionKey key, Connection connection) {
+			try {
+				if (key.isValid() && key.isWritable()) {
+					connection.handleWrite();
+				}
+				if (key.isValid() && key.isReadable()) {
+					connection.handleRead(readBuffer);
+				}
+			} catch (IOException | RuntimeException e) {
+				connection.close();
+			}
+		}
 	}
 
-	protected abstract T get();
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
 
 }
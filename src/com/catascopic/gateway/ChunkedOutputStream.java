@@ -0,0 +1,240 @@
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Writes content with the {@code chunked} transfer coding. Data is gathered
+ * in a pooled buffer that has room before it for the size line and after it
+ * for the closing CRLF, so that each chunk goes to the underlying stream in
+ * one write.
+ * <p>
+ * A chunk is sent when the buffer fills or the stream is flushed. A
+ * producer that keeps filling the buffer gets larger chunks, up to 64 KiB,
+ * and one that flushes small amounts, such as a stream of server-sent
+ * events, gets a smaller buffer again. Closing the stream sends the last
+ * chunk and any trailer fields, but does not close the underlying stream.
+ */
+public final class ChunkedOutputStream extends OutputStream {
+
+	/**
+	 * The trailer field that {@link #computeContentDigest()} sends.
+	 */
+	public static final String CONTENT_DIGEST = "Content-Digest";
+
+	// the sizes of the buffer, which are classes of the pool
+	private static final int MIN_BUFFER_SIZE = 0x400;
+	private static final int MAX_BUFFER_SIZE = 0x10000;
+	private static final int INITIAL_BUFFER_SIZE = 0x2000;
+	// up to 8 hex digits and a CRLF
+	private static final int SIZE_LINE_ROOM = 10;
+	private static final int CRLF_LENGTH = 2;
+	private static final byte[] HEX = "0123456789abcdef"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	private final OutputStream out;
+	private ByteBuffer pooled;
+	private byte[] buf;
+	// the most data the buffer holds
+	private int chunkSize;
+	private int count; // = 0
+	private final ResponseHeaders trailers = new ResponseHeaders();
+	private Hasher digest; // = null
+	private boolean closed; // = false
+
+	public ChunkedOutputStream(OutputStream out) {
+		this.out = out;
+		resize(INITIAL_BUFFER_SIZE);
+	}
+
+	/**
+	 * Computes a SHA-256 digest of the content as it is written, and sends it
+	 * as a {@code Content-Digest} trailer field. The field should be declared
+	 * with {@link HttpResponse#addTrailer}.
+	 */
+	public ChunkedOutputStream computeContentDigest() {
+		if (count > 0) {
+			throw new IllegalStateException("content already written");
+		}
+		digest = Hashing.sha256().newHasher();
+		return this;
+	}
+
+	/**
+	 * Sets a trailer field to be sent after the last chunk. Fields should be
+	 * declared with {@link HttpResponse#addTrailer}.
+	 */
+	public ChunkedOutputStream setTrailer(String name, String value) {
+		trailers.set(name, value);
+		return this;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		checkOpen();
+		if (count == chunkSize) {
+			sendChunk();
+			grow();
+		}
+		buf[SIZE_LINE_ROOM + count++] = (byte) b;
+		if (digest != null) {
+			digest.putByte((byte) b);
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkOpen();
+		if (digest != null) {
+			digest.putBytes(b, off, len);
+		}
+		while (len > 0) {
+			if (count == chunkSize) {
+				sendChunk();
+				grow();
+			}
+			int n = Math.min(len, chunkSize - count);
+			System.arraycopy(b, off, buf, SIZE_LINE_ROOM + count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/**
+	 * Reads the rest of a stream straight into the chunk buffer.
+	 *
+	 * @return the number of bytes read
+	 */
+	public long transferFrom(InputStream in) throws IOException {
+		checkOpen();
+		long total = 0;
+		for (;;) {
+			if (count == chunkSize) {
+				sendChunk();
+				grow();
+			}
+			int read =
+					in.read(buf, SIZE_LINE_ROOM + count, chunkSize - count);
+			if (read == -1) {
+				return total;
+			}
+			if (digest != null) {
+				digest.putBytes(buf, SIZE_LINE_ROOM + count, read);
+			}
+			count += read;
+			total += read;
+		}
+	}
+
+	/**
+	 * Sends whatever has been written as a chunk and flushes the underlying
+	 * stream.
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		if (count > 0) {
+			boolean small = count < chunkSize / 4;
+			sendChunk();
+			if (small && buf.length > MIN_BUFFER_SIZE) {
+				// a streaming producer does not need a large buffer
+				resize(buf.length / 2);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Sends the last chunk and the trailer fields. The underlying stream is
+	 * left open.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (count > 0) {
+				sendChunk();
+			}
+			if (digest != null) {
+				String hash = BaseEncoding.base64()
+						.encode(digest.hash().asBytes());
+				trailers.set(CONTENT_DIGEST, "sha-256=:" + hash + ":");
+			}
+			StringBuilder end = new StringBuilder("0\r\n");
+			for (int i = 0; i < trailers.size(); i++) {
+				end.append(trailers.name(i)).append(": ")
+						.append(trailers.value(i)).append("\r\n");
+			}
+			end.append("\r\n");
+			out.write(end.toString().getBytes(StandardCharsets.US_ASCII));
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Gives up without sending the last chunk, so that the client can tell
+	 * that the content is incomplete.
+	 */
+	void abort() {
+		release();
+	}
+
+	private void sendChunk() throws IOException {
+		int start = SIZE_LINE_ROOM - CRLF_LENGTH;
+		buf[start] = '\r';
+		buf[start + 1] = '\n';
+		int size = count;
+		do {
+			buf[--start] = HEX[size & 0xF];
+			size >>>= 4;
+		} while (size != 0);
+		int end = SIZE_LINE_ROOM + count;
+		buf[end] = '\r';
+		buf[end + 1] = '\n';
+		out.write(buf, start, end + CRLF_LENGTH - start);
+		count = 0;
+	}
+
+	private void grow() {
+		if (buf.length < MAX_BUFFER_SIZE) {
+			// the producer fills chunks as fast as they are sent
+			resize(buf.length * 2);
+		}
+	}
+
+	private void resize(int bufferSize) {
+		if (pooled != null) {
+			BufferPool.HEAP.release(pooled);
+		}
+		pooled = BufferPool.HEAP.acquire(bufferSize);
+		buf = pooled.array();
+		chunkSize = bufferSize - SIZE_LINE_ROOM - CRLF_LENGTH;
+	}
+
+	private void release() {
+		if (!closed) {
+			closed = true;
+			BufferPool.HEAP.release(pooled);
+			pooled = null;
+			buf = null;
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("closed");
+		}
+	}
+
+}
@@ -0,0 +1,400 @@
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Caches the content and metadata of static files, keyed by path. The total
+ * size of cached content is bounded, and the least recently used files are
+ * evicted first. A cached file is checked against the file system at most
+ * once per check interval, so between checks it is served without touching
+ * the file system at all.
+ * <p>
+ * Each version of a file also holds its compressed variants, so that a file
+ * is compressed at most once per coding until it changes or is evicted.
+ */
+public class ContentCache {
+
+	public static final long DEFAULT_MAX_WEIGHT = 0x4000000;
+	public static final long DEFAULT_MAX_ENTRY_SIZE = 0x1000000;
+	public static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+
+	// smaller files are read onto the heap, larger ones are mapped
+	private static final long MAP_THRESHOLD = 0x10000;
+	// the weight of an entry without content, roughly its own footprint
+	private static final int METADATA_WEIGHT = 256;
+	// smaller files do not shrink enough to be worth compressing
+	private static final long MIN_COMPRESS_SIZE = 256;
+	// marks a coding that a version of a file cannot be sent in
+	private static final Object NO_VARIANT = new Object();
+	// hashes files too large to cache, one at a time, so that no request
+	// waits for a whole file to be read
+	private static final Executor HASHER = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder().setNameFormat("etag-hasher")
+					.setDaemon(true).build());
+
+	private final Cache<Path, Entry> cache;
+	private final long maxEntrySize;
+	private final HashFunction hash;
+	private final long checkIntervalNanos;
+	private final Ticker ticker = Ticker.systemTicker();
+
+	/**
+	 * The hash an entity tag is made from.
+	 */
+	public enum Hash {
+
+		/** MD5, for tags that match {@link HttpDateTimeFormat#hashMd5}. */
+		@SuppressWarnings("deprecation") // for compatibility, not security
+		MD5(Hashing.md5()),
+		/** A fast, non-cryptographic 64-bit fingerprint. */
+		FINGERPRINT(Hashing.farmHashFingerprint64());
+
+		private final HashFunction function;
+
+		Hash(HashFunction function) {
+			this.function = function;
+		}
+	}
+
+	public ContentCache() {
+		this(DEFAULT_MAX_WEIGHT, DEFAULT_MAX_ENTRY_SIZE,
+				DEFAULT_CHECK_INTERVAL_MILLIS, Hash.FINGERPRINT);
+	}
+
+	/**
+	 * @param maxWeight
+	 *            the maximum total size of cached content, in bytes
+	 * @param maxEntrySize
+	 *            the size above which only the metadata of a file is cached
+	 * @param checkIntervalMillis
+	 *            how long a cached file is trusted before its modified time
+	 *            is checked again
+	 * @param hash
+	 *            the hash of the content that entity tags are made from
+	 */
+	public ContentCache(long maxWeight, long maxEntrySize,
+			long checkIntervalMillis, Hash hash) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maxWeight)
+				.weigher(new Weigher<Path, Entry>() {
+
+					@Override
+					public int weigh(Path key, Entry value) {
+						return value.weight();
+					}
+				})
+				.build();
+		this.maxEntrySize = maxEntrySize;
+		this.hash = hash.function;
+		this.checkIntervalNanos =
+				TimeUnit.MILLISECONDS.toNanos(checkIntervalMillis);
+	}
+
+	/**
+	 * Returns the cached entry for a regular file, loading or reloading it if
+	 * necessary, or {@code null} if there is no regular file at the path.
+	 */
+	public Entry get(Path file) throws IOException {
+		long now = ticker.read();
+		Entry entry = cache.getIfPresent(file);
+		if (entry != null && now - entry.checked < checkIntervalNanos) {
+			return entry;
+		}
+		BasicFileAttributes attributes = readAttributes(file);
+		if (attributes == null || !attributes.isRegularFile()) {
+			if (entry != null) {
+				cache.invalidate(file);
+			}
+			return null;
+		}
+		long modified = attributes.lastModifiedTime().toMillis();
+		if (entry != null && entry.modifiedMillis == modified
+				&& entry.length == attributes.size()) {
+			entry.checked = now;
+			return entry;
+		}
+		entry = load(file, attributes, now);
+		cache.put(file, entry);
+		return entry;
+	}
+
+	/**
+	 * Returns the variant of a cached file in the given coding, or
+	 * {@code null} if there is none. A precompressed sibling, such as
+	 * {@code style.css.gz}, is preferred if it is at least as new as the
+	 * file. Otherwise the cached content of a compressible file is compressed
+	 * and kept with the entry. Which of these applies is decided once per
+	 * version of the file, so a sibling added later is not noticed until the
+	 * file itself changes.
+	 */
+	public Entry variant(Entry entry, ContentEncoding encoding)
+			throws IOException {
+		int index = encoding.ordinal();
+		Object variant = entry.variants.get(index);
+		if (variant instanceof Entry && ((Entry) variant).file != entry.file) {
+			// a precompressed sibling, which has its own entry
+			Entry sibling = (Entry) variant;
+			if (get(sibling.file) != sibling) {
+				variant = null;
+			}
+		}
+		if (variant == null) {
+			variant = loadVariant(entry, encoding);
+			entry.variants.set(index, variant);
+			if (variant != NO_VARIANT && ((Entry) variant).file == entry.file) {
+				// weigh the entry again now that it holds more content
+				cache.asMap().replace(entry.file, entry, entry);
+			}
+		}
+		return variant == NO_VARIANT ? null : (Entry) variant;
+	}
+
+	private Object loadVariant(Entry entry, ContentEncoding encoding)
+			throws IOException {
+		if (!MediaTypes.isCompressible(entry.contentType)) {
+			return NO_VARIANT;
+		}
+		if (encoding.extension() != null) {
+			Entry sibling = get(entry.file.resolveSibling(
+					entry.file.getFileName() + encoding.extension()));
+			if (sibling != null
+					&& sibling.modifiedMillis >= entry.modifiedMillis) {
+				return sibling;
+			}
+		}
+		if (entry.content == null || entry.length < MIN_COMPRESS_SIZE) {
+			return NO_VARIANT;
+		}
+		ByteBuffer encoded = encoding.encode(entry.content.duplicate());
+		if (encoded == null || encoded.remaining() >= entry.length) {
+			return NO_VARIANT;
+		}
+		String etag = entry.etag();
+		return new Entry(this, entry.file, encoded.asReadOnlyBuffer(),
+				encoded.remaining(), entry.modifiedMillis,
+				etag.substring(0, etag.length() - 1) + '-' + encoding.token()
+						+ '"',
+				entry.checked);
+	}
+
+	public void invalidate(Path file) {
+		cache.invalidate(file);
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	private Entry load(Path file, BasicFileAttributes attributes, long now)
+			throws IOException {
+		long size = attributes.size();
+		ByteBuffer content;
+		String etag;
+		if (size < MAP_THRESHOLD) {
+			byte[] bytes = Files.readAllBytes(file);
+			content = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+			size = bytes.length;
+			etag = etag(hash.hashBytes(bytes));
+		} else if (size <= maxEntrySize) {
+			try (FileChannel channel = FileChannel.open(file)) {
+				content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			etag = etag(hash.hashBytes(content.duplicate()));
+		} else {
+			// hashed in the background on first use, see Entry.etag()
+			content = null;
+			etag = null;
+		}
+		return new Entry(this, file, content, size,
+				attributes.lastModifiedTime().toMillis(), etag, now);
+	}
+
+	private static BasicFileAttributes readAttributes(Path file)
+			throws IOException {
+		try {
+			return Files.readAttributes(file, BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	private static String etag(HashCode hashCode) {
+		return '"' + hashCode.toString() + '"';
+	}
+
+	private static String weakEtag(long size, long modifiedMillis) {
+		return "W/\"" + Long.toHexString(size) + '-'
+				+ Long.toHexString(modifiedMillis) + '"';
+	}
+
+	/**
+	 * Hashes a file that is too large to cache, unless it changes while it
+	 * is being read, in which case there is no version to tag.
+	 */
+	private String hashUncached(Entry entry) throws IOException {
+		HashCode hashCode;
+		try (InputStream in = Files.newInputStream(entry.file)) {
+			hashCode = HttpDateTimeFormat.hash(in, hash);
+		}
+		BasicFileAttributes attributes = readAttributes(entry.file);
+		if (attributes == null
+				|| attributes.lastModifiedTime().toMillis() != entry.modifiedMillis
+				|| attributes.size() != entry.length) {
+			invalidate(entry.file);
+			return null;
+		}
+		return etag(hashCode);
+	}
+
+	/**
+	 * A cached file. The content is {@code null} if the file was too large to
+	 * cache.
+	 */
+	public static final class Entry {
+
+		private final ContentCache cache;
+		private final Path file;
+		private final ByteBuffer content;
+		private final long length;
+		private final long modifiedMillis;
+		private final DateTime lastModifiedTime;
+		private final String lastModified;
+		private final MediaType contentType;
+		private final AtomicReferenceArray<Object> variants =
+				new AtomicReferenceArray<>(ContentEncoding.values().length);
+		private volatile String etag;
+		private final AtomicBoolean hashing = new AtomicBoolean();
+		private volatile long checked;
+
+		Entry(ContentCache cache, Path file, ByteBuffer content, long length,
+				long modifiedMillis, String etag, long checked) {
+			this.cache = cache;
+			this.file = file;
+			this.content = content;
+			this.length = length;
+			this.modifiedMillis = modifiedMillis;
+			// If-Modified-Since has a precision of seconds
+			this.lastModifiedTime =
+					new DateTime(modifiedMillis).withMillisOfSecond(0);
+			this.lastModified = HttpDateTimeFormat.print(lastModifiedTime);
+			this.contentType = MediaTypes.forFile(file);
+			this.etag = etag;
+			this.checked = checked;
+		}
+
+		public Path file() {
+			return file;
+		}
+
+		/**
+		 * Returns a read-only view of the content, or {@code null} if the
+		 * content is not cached.
+		 */
+		public ByteBuffer content() {
+			return content == null ? null : content.duplicate();
+		}
+
+		public long length() {
+			return length;
+		}
+
+		/**
+		 * Returns the media type of the file, guessed from its extension.
+		 */
+		public MediaType contentType() {
+			return contentType;
+		}
+
+		public DateTime lastModifiedTime() {
+			return lastModifiedTime;
+		}
+
+		/**
+		 * Returns the last modified time rounded down to the second, as it is
+		 * compared to date headers.
+		 */
+		public long lastModifiedMillis() {
+			return lastModifiedTime.getMillis();
+		}
+
+		/**
+		 * Returns the formatted {@code Last-Modified} header.
+		 */
+		public String lastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * Returns the strong entity tag of this version of the file. A file
+		 * too large to cache is hashed in the background the first time its
+		 * tag is needed, and until the hash is done, or if the file changes
+		 * while it is being hashed, a weak tag made from its size and
+		 * modified time is returned instead.
+		 */
+		public String etag() {
+			String result = etag;
+			if (result != null) {
+				return result;
+			}
+			if (hashing.compareAndSet(false, true)) {
+				HASHER.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						try {
+							etag = cache.hashUncached(Entry.this);
+						} catch (IOException e) {
+							// try again the next time the tag is needed
+							hashing.set(false);
+						}
+					}
+				});
+			}
+			return weakEtag(length, modifiedMillis);
+		}
+
+		private int weight() {
+			long weight = METADATA_WEIGHT;
+			if (content != null) {
+				weight += content.remaining();
+			}
+			for (int i = 0; i < variants.length(); i++) {
+				Object variant = variants.get(i);
+				if (variant instanceof Entry
+						&& ((Entry) variant).file == file) {
+					weight += ((Entry) variant).content.remaining();
+				}
+			}
+			return (int) Math.min(weight, Integer.MAX_VALUE);
+		}
+	}
+
+}
@@ -0,0 +1,180 @@
+package com.catascopic.gateway;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The content codings a static file can be sent in, in order of preference.
+ */
+public enum ContentEncoding {
+
+	/** Brotli, only served from precompressed {@code .br} files. */
+	BR("br", ".br") {
+
+		@Override
+		OutputStream wrap(OutputStream out) {
+			return null;
+		}
+	},
+	GZIP("gzip", ".gz") {
+
+		@Override
+		OutputStream wrap(OutputStream out) throws IOException {
+			return new GZIPOutputStream(out) {
+				{
+					def.setLevel(Deflater.BEST_COMPRESSION);
+				}
+			};
+		}
+	},
+	/** The zlib format, which is what HTTP calls deflate. */
+	DEFLATE("deflate", null) {
+
+		@Override
+		OutputStream wrap(OutputStream out) {
+			// its own deflater, which it ends when it is closed
+			return new DeflaterOutputStream(out) {
+				{
+					def.setLevel(Deflater.BEST_COMPRESSION);
+				}
+			};
+		}
+	};
+
+	private static final String ANY = "*";
+	private static final String QUALITY = "q=";
+
+	private final String token;
+	private final String extension;
+
+	ContentEncoding(String token, String extension) {
+		this.token = token;
+		this.extension = extension;
+	}
+
+	/**
+	 * Returns the value of the {@code Content-Encoding} header.
+	 */
+	public String token() {
+		return token;
+	}
+
+	/**
+	 * Returns the extension of a precompressed sibling of a file, or
+	 * {@code null} if this coding is never precompressed.
+	 */
+	public String extension() {
+		return extension;
+	}
+
+	/**
+	 * Returns a stream that compresses into the given one, or {@code null} if
+	 * this coding cannot be produced on the fly.
+	 */
+	abstract OutputStream wrap(OutputStream out) throws IOException;
+
+	/**
+	 * Compresses the remaining bytes of a buffer, or returns {@code null} if
+	 * this coding cannot be produced on the fly.
+	 */
+	ByteBuffer encode(ByteBuffer content) throws IOException {
+		ByteArrayOutputStream bytes =
+				new ByteArrayOutputStream(content.remaining() / 4);
+		try (OutputStream out = wrap(bytes)) {
+			if (out == null) {
+				return null;
+			}
+			ByteBuffer buffer = BufferPool.HEAP
+					.acquire(Math.min(0x2000, content.remaining()));
+			try {
+				byte[] copy = buffer.array();
+				while (content.hasRemaining()) {
+					int count = Math.min(buffer.limit(), content.remaining());
+					content.get(copy, 0, count);
+					out.write(copy, 0, count);
+				}
+			} finally {
+				BufferPool.HEAP.release(buffer);
+			}
+		}
+		return ByteBuffer.wrap(bytes.toByteArray());
+	}
+
+	/**
+	 * Returns the codings an {@code Accept-Encoding} header accepts, most
+	 * preferred first. Codings with equal quality are in the order of this
+	 * enum. A coding with a quality of zero is never accepted, and {@code *}
+	 * accepts all codings not otherwise mentioned.
+	 */
+	public static List<ContentEncoding> accepted(String acceptEncoding) {
+		final float[] quality = new float[values().length];
+		boolean[] mentioned = new boolean[quality.length];
+		float anyQuality = 0;
+		for (String element : acceptEncoding.split(",")) {
+			int semicolon = element.indexOf(';');
+			String coding = (semicolon == -1
+					? element
+					: element.substring(0, semicolon))
+					.trim().toLowerCase(Locale.ROOT);
+			float q = semicolon == -1
+					? 1
+					: parseQuality(element.substring(semicolon + 1));
+			if (coding.equals(ANY)) {
+				anyQuality = q;
+				continue;
+			}
+			for (ContentEncoding encoding : values()) {
+				if (encoding.token.equals(coding)
+						|| encoding == GZIP && coding.equals("x-gzip")) {
+					quality[encoding.ordinal()] = q;
+					mentioned[encoding.ordinal()] = true;
+				}
+			}
+		}
+		List<ContentEncoding> accepted = new ArrayList<>(quality.length);
+		for (ContentEncoding encoding : values()) {
+			int i = encoding.ordinal();
+			if (!mentioned[i]) {
+				quality[i] = anyQuality;
+			}
+			if (quality[i] > 0) {
+				accepted.add(encoding);
+			}
+		}
+		if (accepted.size() > 1) {
+			// stable, so ties keep the server's order
+			Collections.sort(accepted, new Comparator<ContentEncoding>() {
+
+				@Override
+				public int compare(ContentEncoding a, ContentEncoding b) {
+					return Float.compare(quality[b.ordinal()],
+							quality[a.ordinal()]);
+				}
+			});
+		}
+		return accepted;
+	}
+
+	private static float parseQuality(String parameters) {
+		String parameter = parameters.trim();
+		if (!parameter.regionMatches(true, 0, QUALITY, 0, QUALITY.length())) {
+			return 1;
+		}
+		try {
+			return Float.parseFloat(parameter.substring(QUALITY.length()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.catascopic.gateway;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The value of the {@code Date} header, which is formatted once a second by
+ * a daemon thread and shared by every response, both as a string and as the
+ * bytes that are copied into the head of each response.
+ */
+final class DateHeader implements Runnable {
+
+	private static final long MILLIS_PER_SECOND = 1000;
+	private static final DateHeader INSTANCE = new DateHeader().start();
+
+	private volatile Value current;
+
+	private DateHeader() {
+		current = new Value(System.currentTimeMillis());
+	}
+
+	private DateHeader start() {
+		Thread thread = new Thread(this, "DateHeader");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	/**
+	 * Returns the current date, to the second.
+	 */
+	static String get() {
+		return INSTANCE.current.text;
+	}
+
+	/**
+	 * Returns the ASCII bytes of a date that {@link #get()} returned, if it
+	 * is still the current date, or else {@code null}. The bytes are shared
+	 * and must not be modified.
+	 */
+	static byte[] bytes(String date) {
+		Value value = INSTANCE.current;
+		return value.text == date ? value.bytes : null;
+	}
+
+	@Override
+	public void run() {
+		try {
+			for (;;) {
+				long now = System.currentTimeMillis();
+				// wake just after the next second begins
+				Thread.sleep(MILLIS_PER_SECOND - now % MILLIS_PER_SECOND);
+				current = new Value(System.currentTimeMillis());
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	private static final class Value {
+
+		final byte[] bytes = new byte[HttpDateTimeFormat.LENGTH];
+		final String text;
+
+		Value(long millis) {
+			HttpDateTimeFormat.print(millis, bytes, 0);
+			text = new String(bytes, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+}
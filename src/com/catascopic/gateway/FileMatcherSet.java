@@ -0,0 +1,265 @@
+package com.catascopic.gateway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Any number of {@link FileMatcher} patterns compiled together, which
+ * matches a file name if any of them does. As with {@link FileMatcher},
+ * exact names are compared with regard to case and patterns with a
+ * {@code *} without.
+ * <p>
+ * Exact names are looked up in a hash set. Patterns with a single {@code *}
+ * at either end are looked up in tries, one walked from the start of the
+ * name and one from the end.
+ * The remaining patterns are run together as one automaton, a bit per
+ * pattern position, so that every pattern is tested in one pass over the
+ * name whatever the number of patterns.
+ */
+public final class FileMatcherSet implements Predicate<String> {
+
+	private static final char WILDCARD = '*';
+	private static final int ASCII = 0x80;
+
+	private final Set<String> exact;
+	// literal prefixes, walked forwards
+	private final Trie prefixes;
+	// literal suffixes, walked backwards
+	private final Trie suffixes;
+	private final Automaton automaton;
+
+	private FileMatcherSet(Set<String> exact, Trie prefixes, Trie suffixes,
+			Automaton automaton) {
+		this.exact = exact;
+		this.prefixes = prefixes;
+		this.suffixes = suffixes;
+		this.automaton = automaton;
+	}
+
+	public static FileMatcherSet compile(Iterable<String> patterns) {
+		Set<String> exact = new HashSet<>();
+		Trie prefixes = new Trie();
+		Trie suffixes = new Trie();
+		List<String> others = new ArrayList<>();
+		for (String pattern : patterns) {
+			int first = pattern.indexOf(WILDCARD);
+			int last = pattern.lastIndexOf(WILDCARD);
+			if (first == -1) {
+				exact.add(pattern);
+			} else if (first == pattern.length() - 1) {
+				prefixes.add(pattern.substring(0, first), false).prefix = true;
+			} else if (last == 0 && first == 0) {
+				suffixes.add(pattern.substring(1), true).prefix = true;
+			} else {
+				others.add(pattern);
+			}
+		}
+		return new FileMatcherSet(exact, prefixes, suffixes,
+				others.isEmpty() ? null : new Automaton(others));
+	}
+
+	@Override
+	public boolean apply(String name) {
+		return exact.contains(name)
+				|| prefixes.matchesForwards(name)
+				|| suffixes.matchesBackwards(name)
+				|| automaton != null && automaton.matches(name);
+	}
+
+	private static char fold(char c) {
+		// as String.regionMatches does when ignoring case
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * A trie of folded characters. A node marks the end of a literal prefix
+	 * or suffix.
+	 */
+	private static final class Trie {
+
+		private char[] labels = new char[0];
+		private Trie[] children = new Trie[0];
+		boolean prefix;
+
+		Trie add(String literal, boolean reverse) {
+			Trie node = this;
+			int length = literal.length();
+			for (int i = 0; i < length; i++) {
+				char c = fold(literal.charAt(reverse ? length - 1 - i : i));
+				Trie child = node.child(c);
+				if (child == null) {
+					child = node.insert(c);
+				}
+				node = child;
+			}
+			return node;
+		}
+
+		private Trie child(char c) {
+			int index = Arrays.binarySearch(labels, c);
+			return index < 0 ? null : children[index];
+		}
+
+		private Trie insert(char c) {
+			int index = -Arrays.binarySearch(labels, c) - 1;
+			char[] newLabels = new char[labels.length + 1];
+			Trie[] newChildren = new Trie[children.length + 1];
+			System.arraycopy(labels, 0, newLabels, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			System.arraycopy(labels, index, newLabels, index + 1,
+					labels.length - index);
+			System.arraycopy(children, index, newChildren, index + 1,
+					children.length - index);
+			Trie child = new Trie();
+			newLabels[index] = c;
+			newChildren[index] = child;
+			labels = newLabels;
+			children = newChildren;
+			return child;
+		}
+
+		boolean matchesForwards(String name) {
+			Trie node = this;
+			for (int i = 0; i < name.length(); i++) {
+				if (node.prefix) {
+					return true;
+				}
+				node = node.child(fold(name.charAt(i)));
+				if (node == null) {
+					return false;
+				}
+			}
+			return node.prefix;
+		}
+
+		boolean matchesBackwards(String name) {
+			Trie node = this;
+			for (int i = name.length() - 1; i >= 0; i--) {
+				if (node.prefix) {
+					return true;
+				}
+				node = node.child(fold(name.charAt(i)));
+				if (node == null) {
+					return false;
+				}
+			}
+			return node.prefix;
+		}
+	}
+
+	/**
+	 * The wildcard patterns as one nondeterministic automaton, simulated with
+	 * bit sets. Each pattern has a start state and a state after each of its
+	 * literal characters; a {@code *} makes the state before it loop on any
+	 * character. Reading a character moves every state with the next
+	 * character of its pattern one bit up and keeps every looping state.
+	 */
+	private static final class Automaton {
+
+		private final int words;
+		private final long[] start;
+		private final long[] loops;
+		private final long[] accept;
+		// the states entered by each character
+		private final long[][] ascii = new long[ASCII][];
+		private final Map<Character, long[]> other = new HashMap<>();
+		private final long[] none;
+
+		Automaton(List<String> patterns) {
+			int states = 0;
+			for (String pattern : patterns) {
+				states += literalLength(pattern) + 1;
+			}
+			words = (states + 63) / 64;
+			start = new long[words];
+			loops = new long[words];
+			accept = new long[words];
+			none = new long[words];
+			int state = 0;
+			for (String pattern : patterns) {
+				set(start, state);
+				for (int i = 0; i < pattern.length(); i++) {
+					char c = pattern.charAt(i);
+					if (c == WILDCARD) {
+						set(loops, state);
+					} else {
+						state++;
+						set(entered(fold(c)), state);
+					}
+				}
+				set(accept, state);
+				state++;
+			}
+		}
+
+		private static int literalLength(String pattern) {
+			int length = 0;
+			for (int i = 0; i < pattern.length(); i++) {
+				if (pattern.charAt(i) != WILDCARD) {
+					length++;
+				}
+			}
+			return length;
+		}
+
+		private long[] entered(char c) {
+			long[] states;
+			if (c < ASCII) {
+				states = ascii[c];
+				if (states == null) {
+					states = ascii[c] = new long[words];
+				}
+			} else {
+				states = other.get(c);
+				if (states == null) {
+					states = new long[words];
+					other.put(c, states);
+				}
+			}
+			return states;
+		}
+
+		private long[] lookup(char c) {
+			long[] states = c < ASCII ? ascii[c] : other.get(c);
+			return states == null ? none : states;
+		}
+
+		private static void set(long[] bits, int index) {
+			bits[index >>> 6] |= 1L << index;
+		}
+
+		boolean matches(String name) {
+			long[] current = start.clone();
+			for (int i = 0; i < name.length(); i++) {
+				long[] entered = lookup(fold(name.charAt(i)));
+				long carry = 0;
+				long any = 0;
+				for (int w = 0; w < words; w++) {
+					long bits = current[w];
+					long next = (bits << 1 | carry) & entered[w]
+							| bits & loops[w];
+					carry = bits >>> 63;
+					current[w] = next;
+					any |= next;
+				}
+				if (any == 0) {
+					return false;
+				}
+			}
+			for (int w = 0; w < words; w++) {
+				if ((current[w] & accept[w]) != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,126 @@
+package com.catascopic.gateway;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares a chain of {@link FileMatcher} predicates with a compiled
+ * {@link FileMatcherSet} of the same patterns, at 1, 50 and 500 patterns,
+ * after checking that they match the same names in each case.
+ * <p>
+ * Usage: {@code FileMatcherTest [iterations] [rounds]}
+ */
+public class FileMatcherTest {
+
+	private static final int[] PATTERN_COUNTS = { 1, 50, 500 };
+	private static final String[] NAMES = { "index.html", "post-it.png",
+			"Thumbs.db", ".DS_Store", "notes.txt.bak", "app.min.js",
+			"server.gateway", "README", "style.css", "draft-2019-final.docx",
+			"gateway.json", "photo_0001.JPG" };
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		for (int count : PATTERN_COUNTS) {
+			List<String> patterns = patterns(count);
+			List<Predicate<String>> matchers = new ArrayList<>();
+			for (String pattern : patterns) {
+				matchers.add(FileMatcher.of(pattern));
+			}
+			Predicate<String> chain = Predicates.or(matchers);
+			Predicate<String> compiled = FileMatcherSet.compile(patterns);
+			for (String name : NAMES) {
+				// exact names are compared with regard to case, and the
+				// other patterns without
+				for (String variant : new String[] { name,
+						name.toLowerCase(Locale.ROOT),
+						name.toUpperCase(Locale.ROOT) }) {
+					if (chain.apply(variant) != compiled.apply(variant)) {
+						throw new AssertionError(variant);
+					}
+				}
+			}
+			// warm up
+			for (int i = 0; i < rounds; i++) {
+				time(chain, iterations);
+				time(compiled, iterations);
+			}
+			for (int i = 0; i < rounds; i++) {
+				report("chain", count, time(chain, iterations), iterations);
+				report("compiled", count, time(compiled, iterations),
+						iterations);
+			}
+		}
+	}
+
+	/**
+	 * Returns patterns of the kinds found in hidden files: exact names,
+	 * prefixes, extensions and a few with wildcards in the middle.
+	 */
+	private static List<String> patterns(int count) {
+		String[] fixed = { "*.bak", ".DS_Store", "Thumbs.db", "~*", "*.tmp",
+				"draft*final*", "*.gateway", "gateway.json" };
+		Random random = new Random(count);
+		List<String> patterns = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			if (i < fixed.length) {
+				patterns.add(fixed[i]);
+				continue;
+			}
+			String word = word(random);
+			switch (i % 4) {
+			case 0:
+				patterns.add(word + ".cfg");
+				break;
+			case 1:
+				patterns.add(word + "*");
+				break;
+			case 2:
+				patterns.add("*." + word);
+				break;
+			default:
+				patterns.add(word + "*" + word(random) + "*");
+			}
+		}
+		return patterns;
+	}
+
+	private static String word(Random random) {
+		char[] word = new char[3 + random.nextInt(6)];
+		for (int i = 0; i < word.length; i++) {
+			word[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(word);
+	}
+
+	private static long time(Predicate<String> matcher, int iterations) {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		int matches = 0;
+		for (int i = 0; i < iterations; i++) {
+			for (String name : NAMES) {
+				if (matcher.apply(name)) {
+					matches++;
+				}
+			}
+		}
+		if (matches == 0) {
+			throw new AssertionError();
+		}
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	private static void report(String name, int patterns, long nanos,
+			int iterations) {
+		System.out.printf("%-9s %4d patterns %10.1f ns/name%n", name, patterns,
+				(double) nanos / ((long) iterations * NAMES.length));
+	}
+
+}
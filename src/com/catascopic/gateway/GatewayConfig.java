@@ -0,0 +1,205 @@
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMap.Builder;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Everything read from the configuration files of a served directory, and
+ * the routes built from it, as one immutable snapshot. A new snapshot is
+ * built whenever anything changes, so a request that holds one sees either
+ * all of a change or none of it.
+ * <p>
+ * The configuration files are all optional:
+ * <ul>
+ * <li>{@code gateway.json}, the {@link RouteTable}
+ * <li>{@code alias.json}, an object mapping names to the names they stand
+ * for
+ * <li>{@code hidden.txt}, a {@link FileMatcher} pattern per line of names
+ * that are not served
+ * </ul>
+ * The configuration files themselves are never served.
+ */
+public final class GatewayConfig {
+
+	public static final String ROUTES_FILE = "gateway.json";
+	public static final String ALIAS_FILE = "alias.json";
+	public static final String HIDDEN_FILE = "hidden.txt";
+
+	private static final List<String> FILES =
+			Arrays.asList(ROUTES_FILE, ALIAS_FILE, HIDDEN_FILE);
+	private static final long MISSING = -1;
+
+	private final Path root;
+	private final Map<String, String> aliases;
+	private final Predicate<String> hidden;
+	private final RouteTable routes;
+	private final RouteTrie trie;
+	// the modified time of each of FILES when they were read, or null if
+	// they were not read at all
+	private final long[] modified;
+
+	private GatewayConfig(Path root, Map<String, String> aliases,
+			Predicate<String> hidden, RouteTable routes, RouteTrie trie,
+			long[] modified) {
+		this.root = root;
+		this.aliases = aliases;
+		this.hidden = hidden;
+		this.routes = routes;
+		this.trie = trie;
+		this.modified = modified;
+	}
+
+	/**
+	 * Returns a configuration with no aliases, hidden names or routes, which
+	 * does not read any configuration files.
+	 */
+	public static GatewayConfig empty(Path root) throws IOException {
+		Map<String, String> aliases = ImmutableMap.of();
+		Predicate<String> hidden = Predicates.alwaysFalse();
+		return new GatewayConfig(root, aliases, hidden, RouteTable.EMPTY,
+				RouteTrie.build(root, aliases, hidden), null);
+	}
+
+	/**
+	 * Reads the configuration files of a directory and scans it.
+	 *
+	 * @param files
+	 *            serves the {@code file} routes of {@code gateway.json}
+	 * @throws IllegalArgumentException
+	 *             if a configuration file is invalid
+	 */
+	public static GatewayConfig load(Path root, RegularFileHandler files)
+			throws IOException {
+		// read before the files, so that a change while they are being read
+		// makes this snapshot stale at once
+		long[] modified = new long[FILES.size()];
+		for (int i = 0; i < modified.length; i++) {
+			modified[i] = modifiedTime(root.resolve(FILES.get(i)));
+		}
+		Path routesFile = root.resolve(ROUTES_FILE);
+		RouteTable routes = Files.isRegularFile(routesFile)
+				? RouteTable.load(routesFile, files)
+				: RouteTable.EMPTY;
+		Path aliasFile = root.resolve(ALIAS_FILE);
+		Map<String, String> aliases = Files.isRegularFile(aliasFile)
+				? readAlias(aliasFile)
+				: ImmutableMap.<String, String> of();
+		Path hiddenFile = root.resolve(HIDDEN_FILE);
+		Predicate<String> hidden = Predicates.in(ImmutableSet.copyOf(FILES));
+		if (Files.isRegularFile(hiddenFile)) {
+			hidden = Predicates.or(hidden, readHidden(hiddenFile));
+		}
+		return new GatewayConfig(root, aliases, hidden, routes,
+				RouteTrie.build(root, aliases, hidden), modified);
+	}
+
+	/**
+	 * Returns a snapshot that is the same but for its routing trie.
+	 */
+	public GatewayConfig withTrie(RouteTrie trie) {
+		return new GatewayConfig(root, aliases, hidden, routes, trie,
+				modified);
+	}
+
+	/**
+	 * Returns whether any of the configuration files has been created,
+	 * changed or deleted since this snapshot read them.
+	 */
+	public boolean isStale() throws IOException {
+		if (modified == null) {
+			return false;
+		}
+		for (int i = 0; i < modified.length; i++) {
+			if (modifiedTime(root.resolve(FILES.get(i))) != modified[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether this configuration was read from files, rather than
+	 * being {@link #empty(Path)}.
+	 */
+	public boolean isLoaded() {
+		return modified != null;
+	}
+
+	public Path root() {
+		return root;
+	}
+
+	public Map<String, String> aliases() {
+		return aliases;
+	}
+
+	public Predicate<String> hidden() {
+		return hidden;
+	}
+
+	public RouteTable routes() {
+		return routes;
+	}
+
+	public RouteTrie trie() {
+		return trie;
+	}
+
+	private static long modifiedTime(Path file) throws IOException {
+		try {
+			return Files.getLastModifiedTime(file).toMillis();
+		} catch (NoSuchFileException e) {
+			return MISSING;
+		}
+	}
+
+	private static Predicate<String> readHidden(Path path) throws IOException {
+		List<String> patterns = new ArrayList<>();
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+			if (!line.trim().isEmpty()) {
+				patterns.add(line.trim());
+			}
+		}
+		// a name is hidden if any pattern matches it
+		return FileMatcherSet.compile(patterns);
+	}
+
+	private static Map<String, String> readAlias(Path aliasPath)
+			throws IOException {
+		try (Reader reader = Files.newBufferedReader(aliasPath,
+				StandardCharsets.UTF_8)) {
+			return readMap(reader);
+		} catch (IllegalStateException e) {
+			throw new IllegalArgumentException(aliasPath + ": "
+					+ e.getMessage(), e);
+		}
+	}
+
+	private static Map<String, String> readMap(Reader reader)
+			throws IOException {
+		JsonReader json = new JsonReader(reader);
+		Builder<String, String> builder = ImmutableMap.builder();
+		json.beginObject();
+		while (json.hasNext()) {
+			builder.put(json.nextName(), json.nextString());
+		}
+		json.endObject();
+		return builder.build();
+	}
+
+}
@@ -1,67 +1,202 @@
-package com.catascopic.gateway;
-
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Iterator;
-import java.util.List;
-
-import com.google.common.collect.Lists;
-
-public class GatewayServer {
-
-	private static final String HTML_EXTENSION = ".html";
-	private static final String GATEWAY_EXTENSION = ".gateway";
-
-	private void handleDirectory(Path dir, Iterator<String> path) {
-		String part = path.next();
-		// part = MoreObjects.firstNonNull(aliases.get(part), part);
-
-		// if (hidden.apply(part)) {
-		// defaultHandle();
-		// return;
-		// }
-
-		Path local = dir.resolve(part);
-
-		if (path.hasNext() && Files.isDirectory(local)) {
-			handleDirectory(local, path);
-			return;
-		}
-
-		if (!path.hasNext()) {
-			if (Files.isRegularFile(local)) {
-				handleFile(local);
-				return;
-			}
-			Path html = dir.resolve(part + HTML_EXTENSION);
-			if (Files.isRegularFile(html)) {
-				handleFile(html);
-				return;
-			}
-		}
-
-		Path gateway = dir.resolve(part + GATEWAY_EXTENSION);
-		if (Files.isRegularFile(gateway)) {
-			handleGateway(gateway, Lists.newArrayList(path));
-			return;
-		}
-
-		defaultHandle();
-	}
-
-	private void handleFile(Path localPath) {
-		// TODO Auto-generated method stub
-
-	}
-
-	private void handleGateway(Path localPath, List<String> remaining) {
-		// TODO Auto-generated method stub
-
-	}
-
-	private void defaultHandle() {
-		// TODO Auto-generated method stub
-
-	}
-
-}
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.collect.Lists;
+
+public class GatewayServer implements Handler {
+
+	private static final int DEFAULT_PORT = 8080;
+	private static final int DEFAULT_THREADS = 200;
+
+	/**
+	 * How connections are run.
+	 */
+	public enum Mode {
+
+		/** A virtual thread per connection. Requires Java 21. */
+		VIRTUAL,
+		/** A bounded pool of platform threads. */
+		PLATFORM,
+		/** Non-blocking connections spread over selector threads. */
+		SELECTOR;
+
+		/**
+		 * @param threads
+		 *            the size of the thread pool in {@link #PLATFORM} mode,
+		 *            or the number of selectors in {@link #SELECTOR} mode
+		 */
+		public Acceptor create(InetSocketAddress address, int threads,
+				Handler handler) throws IOException {
+			switch (this) {
+			case VIRTUAL:
+				return new Server(address, Server.virtualThreadExecutor(),
+						handler);
+			case PLATFORM:
+				return new Server(address,
+						Server.platformThreadExecutor(threads), handler);
+			case SELECTOR:
+				return new HttpChannelServer(address, threads, handler);
+			default:
+				throw new AssertionError(this);
+			}
+		}
+
+		/**
+		 * Returns {@link #VIRTUAL} if the runtime supports virtual threads,
+		 * or else {@link #PLATFORM}.
+		 */
+		public static Mode preferred() {
+			return Server.supportsVirtualThreads() ? VIRTUAL : PLATFORM;
+		}
+	}
+
+	private final Path root;
+	private final RegularFileHandler fileHandler;
+	// replaced as a whole, so a request never sees half of a change
+	private final AtomicReference<GatewayConfig> config;
+
+	/**
+	 * Creates a server for a directory without reading its configuration
+	 * files.
+	 */
+	public GatewayServer(Path root) throws IOException {
+		this(GatewayConfig.empty(root), new RegularFileHandler());
+	}
+
+	/**
+	 * @param fileHandler
+	 *            serves the files of the root, and should be the one the
+	 *            configuration was loaded with
+	 */
+	public GatewayServer(GatewayConfig config,
+			RegularFileHandler fileHandler) {
+		this.root = config.root();
+		this.fileHandler = fileHandler;
+		this.config = new AtomicReference<>(config);
+	}
+
+	/**
+	 * Creates a server for a directory with the configuration files in it.
+	 *
+	 * @see GatewayConfig
+	 */
+	public static GatewayServer forDirectory(Path root) throws IOException {
+		RegularFileHandler fileHandler = new RegularFileHandler();
+		return new GatewayServer(GatewayConfig.load(root, fileHandler),
+				fileHandler);
+	}
+
+	/**
+	 * Usage: {@code GatewayServer [root] [port] [virtual|platform|selector]
+	 * [threads]}
+	 * <p>
+	 * By default the current directory is served on port 8080 with a virtual
+	 * thread per connection, or with a pool of platform threads on runtimes
+	 * older than Java 21.
+	 */
+	public static void main(String[] args) throws IOException {
+		Path root = Paths.get(args.length > 0 ? args[0] : ".");
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+		Mode mode = args.length > 2
+				? Mode.valueOf(args[2].toUpperCase())
+				: Mode.preferred();
+		int threads = args.length > 3
+				? Integer.parseInt(args[3])
+				: mode == Mode.SELECTOR
+						? Runtime.getRuntime().availableProcessors()
+						: DEFAULT_THREADS;
+		mode.create(new InetSocketAddress(port), threads,
+				forDirectory(root).watch()).run();
+	}
+
+	@Override
+	public HttpResponse get(Iterator<String> path, HttpRequest request)
+			throws IOException {
+		GatewayConfig config = this.config.get();
+		Handler handler = config.routes().route(request.path());
+		if (handler != null) {
+			return handler.get(path, request);
+		}
+		// ".." is never in the trie, so nothing outside of the root is served
+		RouteTrie.Route route = config.trie().lookup(path);
+		if (route == null) {
+			return defaultHandle(config, request);
+		}
+		if (route.isGateway()) {
+			return handleGateway(config, route.file(),
+					Lists.newArrayList(path), request);
+		}
+		return handleFile(route.file(), request);
+	}
+
+	/**
+	 * Starts rebuilding the routes in the background whenever files are
+	 * added to or removed from the root, and reloading the configuration
+	 * whenever one of its files changes. If the new configuration is
+	 * invalid, the last valid one stays in use.
+	 */
+	public GatewayServer watch() throws IOException {
+		new TreeWatcher(root, new TreeWatcher.Listener() {
+
+			@Override
+			public void changed(Path dir) {
+				GatewayConfig current = config.get();
+				try {
+					if (dir.equals(root) && current.isStale()) {
+						config.set(reload(current));
+					} else {
+						config.set(current.withTrie(
+								current.trie().rebuild(dir)));
+					}
+				} catch (IOException | IllegalArgumentException e) {
+					System.err.println("keeping the current configuration: "
+							+ e);
+				}
+			}
+
+			@Override
+			public void overflowed() {
+				try {
+					config.set(reload(config.get()));
+				} catch (IOException | IllegalArgumentException e) {
+					System.err.println("keeping the current configuration: "
+							+ e);
+				}
+			}
+		}).start("config-watcher");
+		return this;
+	}
+
+	private GatewayConfig reload(GatewayConfig current) throws IOException {
+		return current.isLoaded()
+				? GatewayConfig.load(root, fileHandler)
+				: GatewayConfig.empty(root);
+	}
+
+	private HttpResponse handleFile(Path localPath, HttpRequest request)
+			throws IOException {
+		return fileHandler.get(localPath, request);
+	}
+
+	private HttpResponse handleGateway(GatewayConfig config, Path localPath,
+			List<String> remaining, HttpRequest request) throws IOException {
+		// TODO Auto-generated method stub
+		return defaultHandle(config, request);
+	}
+
+	private HttpResponse defaultHandle(GatewayConfig config,
+			HttpRequest request) throws IOException {
+		Handler handler = config.routes().defaultHandler();
+		return handler != null
+				? handler.get(null, request)
+				: _404Handler.INSTANCE.get(null, request);
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.net.HttpHeaders;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * An HTTP/1.1 server on {@link ChannelServer}. Requests are parsed
+ * incrementally as bytes arrive on the selector thread of their connection,
+ * but handlers, which may read files or otherwise block, run on threads of
+ * their own, as do the producers of chunked content, so that a slow handler
+ * holds up only its own connection. A connection's requests are answered
+ * one at a time and in order; no more of it is read while a handler runs.
+ */
+public class HttpChannelServer extends ChannelServer<RequestParser>
+		implements Acceptor {
+
+	private static final String CLOSE = "close";
+
+	private final Handler handler;
+	private final ExecutorService workers = workerExecutor();
+
+	public HttpChannelServer(InetSocketAddress address, int selectorCount,
+			Handler handler) throws IOException {
+		super(address, selectorCount);
+		this.handler = handler;
+	}
+
+	/**
+	 * Returns an executor that runs each handler and producer on a virtual
+	 * thread, or on a pooled platform thread if the runtime has none.
+	 */
+	private static ExecutorService workerExecutor() {
+		try {
+			return Server.virtualThreadExecutor();
+		} catch (IllegalStateException e) {
+			return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+					.setNameFormat("worker-%d").setDaemon(true).build());
+		}
+	}
+
+	@Override
+	protected RequestParser open(Connection connection) {
+		return new RequestParser();
+	}
+
+	@Override
+	protected void read(Connection connection, RequestParser parser,
+			ByteBuffer data) throws IOException {
+		parser.feed(data);
+		handleRequests(connection, parser);
+	}
+
+	@Override
+	protected void drained(Connection connection, RequestParser parser)
+			throws IOException {
+		// pipelined requests may be waiting in the parser
+		handleRequests(connection, parser);
+	}
+
+	/**
+	 * Starts answering the next request in the parser, if it is complete
+	 * and the connection has no response waiting to be written, or else
+	 * reads more.
+	 */
+	private void handleRequests(Connection connection, RequestParser parser)
+			throws IOException {
+		if (!connection.isOpen()) {
+			return;
+		}
+		if (connection.hasPendingWrites()) {
+			// answer the rest once the client has caught up
+			connection.suspendReads();
+			return;
+		}
+		HttpRequest request;
+		try {
+			request = parser.next();
+		} catch (HttpSyntaxException e) {
+			send(connection,
+					HttpResponse.plainText(e.status())
+							.setHeader(HttpHeaders.CONNECTION, CLOSE),
+					HttpMethod.GET);
+			connection.closeAfterWrites();
+			return;
+		}
+		if (request == null) {
+			connection.resumeReads();
+			return;
+		}
+		dispatch(connection, parser, request);
+	}
+
+	/**
+	 * Runs the handler on a worker thread and sends its response from the
+	 * selector thread.
+	 */
+	private void dispatch(final Connection connection,
+			final RequestParser parser, final HttpRequest request) {
+		connection.suspendReads();
+		try {
+			workers.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					final HttpResponse response =
+							Server.respond(handler, request);
+					connection.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							try {
+								respond(connection, parser, request,
+										response);
+							} catch (IOException e) {
+								connection.close();
+							}
+						}
+					});
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the server is closing
+			connection.close();
+		}
+	}
+
+	private void respond(Connection connection, RequestParser parser,
+			HttpRequest request, HttpResponse response) throws IOException {
+		if (!connection.isOpen()) {
+			return;
+		}
+		if (request.keepAlive()) {
+			send(connection, response, request.method());
+			handleRequests(connection, parser);
+		} else {
+			send(connection, response.setHeader(HttpHeaders.CONNECTION,
+					CLOSE), request.method());
+			connection.closeAfterWrites();
+		}
+	}
+
+	private void send(Connection connection, HttpResponse response,
+			HttpMethod method) throws IOException {
+		response.write(connection, workers, method != HttpMethod.HEAD);
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		workers.shutdownNow();
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.catascopic.gateway;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import com.google.common.net.HttpHeaders;
+
+/**
+ * Reads and answers requests on a blocking connection until the client or
+ * the server ends it. Requests are answered in the order they arrive, so
+ * pipelined requests need no special handling beyond skipping any content a
+ * handler did not read. Responses to pipelined requests are flushed together
+ * once no further request is buffered.
+ */
+public class HttpConnection implements Runnable {
+
+	public static final int DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+	public static final int DEFAULT_MAX_REQUESTS = 1000;
+
+	private static final int OUTPUT_BUFFER_SIZE = 0x2000;
+	private static final String CLOSE = "close";
+	private static final String KEEP_ALIVE = "keep-alive";
+	private static final String HTTP1_0 = "HTTP/1.0";
+
+	private final Socket socket;
+	private final Handler handler;
+	private int idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private int maxRequests = DEFAULT_MAX_REQUESTS;
+
+	public HttpConnection(Socket socket, Handler handler) {
+		this.socket = socket;
+		this.handler = handler;
+	}
+
+	/**
+	 * Sets how long to wait for the next request, or for more of a request
+	 * in progress, before closing the connection. Zero waits forever.
+	 */
+	public HttpConnection setIdleTimeout(int millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("idle timeout: " + millis);
+		}
+		this.idleTimeoutMillis = millis;
+		return this;
+	}
+
+	/**
+	 * Sets the number of requests after which the connection is closed.
+	 */
+	public HttpConnection setMaxRequests(int maxRequests) {
+		if (maxRequests < 1) {
+			throw new IllegalArgumentException("max requests: " + maxRequests);
+		}
+		this.maxRequests = maxRequests;
+		return this;
+	}
+
+	@Override
+	public void run() {
+		try (Socket closeOnExit = socket) {
+			serve();
+		} catch (IOException e) {
+			// the connection is gone or timed out
+		}
+	}
+
+	private void serve() throws IOException {
+		socket.setSoTimeout(idleTimeoutMillis);
+		HttpReader reader = new HttpReader(socket.getInputStream());
+		OutputStream out = new BufferedOutputStream(socket.getOutputStream(),
+				OUTPUT_BUFFER_SIZE);
+		for (int count = 1;; count++) {
+			HttpRequest request;
+			try {
+				request = HttpRequest.read(reader);
+			} catch (EOFException | SocketTimeoutException e) {
+				break;
+			} catch (HttpSyntaxException e) {
+				HttpResponse.plainText(e.status())
+						.setHeader(HttpHeaders.CONNECTION, CLOSE)
+						.send(out);
+				break;
+			}
+			boolean keepAlive = request.keepAlive() && count < maxRequests;
+			HttpResponse response = Server.respond(handler, request);
+			if (!keepAlive) {
+				response.setHeader(HttpHeaders.CONNECTION, CLOSE);
+			} else if (HTTP1_0.equals(request.httpVersion())) {
+				response.setHeader(HttpHeaders.CONNECTION, KEEP_ALIVE);
+			}
+			response.write(out, socket.getChannel(),
+					request.method() != HttpMethod.HEAD);
+			if (!keepAlive) {
+				break;
+			}
+			if (request.hasContent()) {
+				// skip whatever the handler did not read
+				request.content().close();
+			}
+			if (!reader.hasBufferedBytes()) {
+				out.flush();
+			}
+		}
+		out.flush();
+	}
+
+}
@@ -1,124 +1,393 @@
-package com.catascopic.gateway;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Locale;
-
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
-
-import com.google.common.base.Optional;
-import com.google.common.base.Supplier;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
-import com.google.common.io.ByteSource;
-
-public class HttpDateTimeFormat {
-
-	private static final String HTTP_1_1 = "HTTP/1.1";
-
-	private static final DateTimeFormatter FORMAT =
-			DateTimeFormat.forPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'")
-					.withZoneUTC().withLocale(Locale.US);
-
-	private static final int BUFFER_SIZE = 0x1000;
-
-	public static String print(DateTime time) {
-		return FORMAT.print(time);
-	}
-
-	public static DateTime parse(String time) {
-		return FORMAT.parseDateTime(time);
-	}
-
-	public static String hashMd5(Path path) throws IOException {
-		try (InputStream in = Files.newInputStream(path)) {
-			return hashMd5(in);
-		}
-	}
-
-	/**
-	 * Returns the last modified time of the file as a DateTime rounded down to
-	 * the second. This provides interoperability with the
-	 * {@code If-Modified-Since} header, which does not retain the precision of
-	 * milliseconds.
-	 * 
-	 * @param file
-	 *            the location of the file
-	 * @return the last modified time of the file
-	 * @throws IOException
-	 *             if an I/O error occurs
-	 */
-	public static DateTime getLastModifiedTime(Path file) throws IOException {
-		return new DateTime(Files.getLastModifiedTime(file).toMillis())
-				.withMillisOfSecond(0);
-	}
-
-	public static String hashMd5(InputStream in) throws IOException {
-		byte[] buffer = new byte[BUFFER_SIZE];
-		Hasher hasher = Hashing.md5().newHasher();
-		for (;;) {
-			int r = in.read(buffer);
-			if (r == -1) {
-				break;
-			}
-			hasher.putBytes(buffer, 0, r);
-		}
-		return hasher.hash().toString();
-	}
-
-	public static ByteSource pathAsByteSource(final Path file) {
-		return new ByteSource() {
-
-			@Override
-			public InputStream openStream() throws IOException {
-				return Files.newInputStream(file);
-			}
-
-			@Override
-			public Optional<Long> sizeIfKnown() {
-				try {
-					return Optional.of(Files.size(file));
-				} catch (IOException e) {
-					return Optional.absent();
-				}
-			}
-
-			@Override
-			public long size() throws IOException {
-				return Files.size(file);
-			}
-
-			@Override
-			public byte[] read() throws IOException {
-				return Files.readAllBytes(file);
-			}
-		};
-	}
-
-	public static <T> Supplier<T> forName(String className) {
-		final Class<T> clazz;
-		try {
-			@SuppressWarnings("unchecked")
-			Class<T> cast = (Class<T>) Class.forName(className);
-			clazz = cast;
-		} catch (ClassNotFoundException e) {
-			throw new IllegalArgumentException(e);
-		}
-		return new Supplier<T>() {
-
-			@Override
-			public T get() {
-				try {
-					return clazz.newInstance();
-				} catch (InstantiationException | IllegalAccessException e) {
-					throw new IllegalArgumentException(e);
-				}
-			}
-		};
-	}
-
-}
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+
+public class HttpDateTimeFormat {
+
+	private static final String HTTP_1_1 = "HTTP/1.1";
+
+	private static final int BUFFER_SIZE = 0x1000;
+
+	/**
+	 * The length of a date as it is printed, such as
+	 * {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+	 */
+	public static final int LENGTH = 29;
+
+	/**
+	 * Returned by the {@code parseMillis} methods for a date that is not
+	 * valid.
+	 */
+	public static final long INVALID = Long.MIN_VALUE;
+
+	private static final long MILLIS_PER_SECOND = 1000;
+	private static final long MILLIS_PER_DAY = 86400 * MILLIS_PER_SECOND;
+	private static final int RFC_1123_LENGTH = LENGTH;
+	private static final int ASCTIME_LENGTH = 24;
+	private static final String DAYS = "SunMonTueWedThuFriSat";
+	private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+
+	public static String print(DateTime time) {
+		return print(time.getMillis());
+	}
+
+	/**
+	 * Prints a time as an IMF-fixdate, the preferred format of HTTP dates.
+	 */
+	public static String print(long millis) {
+		byte[] bytes = new byte[LENGTH];
+		print(millis, bytes, 0);
+		return new String(bytes, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Prints a time as an IMF-fixdate into {@link #LENGTH} bytes of an array.
+	 */
+	public static void print(long millis, byte[] dst, int offset) {
+		long days = Math.floorDiv(millis, MILLIS_PER_DAY);
+		int seconds = (int) (Math.floorMod(millis, MILLIS_PER_DAY)
+				/ MILLIS_PER_SECOND);
+		// civil date from days, after Howard Hinnant
+		long z = days + 719468;
+		long era = Math.floorDiv(z, 146097);
+		int dayOfEra = (int) (z - era * 146097);
+		// an era is a whole number of weeks, and began on a Wednesday
+		int dayOfWeek = (dayOfEra + 3) % 7;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524
+				- dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra
+				- (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+		int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		if (year < 0 || year > 9999) {
+			throw new IllegalArgumentException("year " + year);
+		}
+		int i = offset;
+		i = putName(dst, i, DAYS, dayOfWeek);
+		dst[i++] = ',';
+		dst[i++] = ' ';
+		i = putDigits(dst, i, day, 2);
+		dst[i++] = ' ';
+		i = putName(dst, i, MONTHS, month - 1);
+		dst[i++] = ' ';
+		i = putDigits(dst, i, (int) year, 4);
+		dst[i++] = ' ';
+		i = putDigits(dst, i, seconds / 3600, 2);
+		dst[i++] = ':';
+		i = putDigits(dst, i, seconds / 60 % 60, 2);
+		dst[i++] = ':';
+		i = putDigits(dst, i, seconds % 60, 2);
+		dst[i++] = ' ';
+		dst[i++] = 'G';
+		dst[i++] = 'M';
+		dst[i] = 'T';
+	}
+
+	private static int putName(byte[] dst, int i, String names, int index) {
+		for (int j = index * 3; j < index * 3 + 3; j++) {
+			dst[i++] = (byte) names.charAt(j);
+		}
+		return i;
+	}
+
+	private static int putDigits(byte[] dst, int i, int value, int width) {
+		for (int j = i + width - 1; j >= i; j--) {
+			dst[j] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		return i + width;
+	}
+
+	/**
+	 * Parses a date in any of the formats that HTTP allows.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the date is not valid
+	 */
+	public static DateTime parse(String time) {
+		long millis = parseMillis(time);
+		if (millis == INVALID) {
+			throw new IllegalArgumentException(time);
+		}
+		return new DateTime(millis, DateTimeZone.UTC);
+	}
+
+	/**
+	 * Parses a date in any of the formats that HTTP allows: an IMF-fixdate
+	 * ({@code Sun, 06 Nov 1994 08:49:37 GMT}), the obsolete RFC 850 format
+	 * ({@code Sunday, 06-Nov-94 08:49:37 GMT}) or the format of ANSI C's
+	 * {@code asctime()} ({@code Sun Nov  6 08:49:37 1994}).
+	 *
+	 * @return the time in milliseconds, or {@link #INVALID}
+	 */
+	public static long parseMillis(String time) {
+		return parseMillis(null, time, 0, time.length());
+	}
+
+	/**
+	 * Parses a date from ASCII bytes, as {@link #parseMillis(String)} does.
+	 */
+	public static long parseMillis(byte[] buf, int from, int to) {
+		return parseMillis(buf, null, from, to);
+	}
+
+	// reads from the bytes if there are any, or else from the string
+	private static long parseMillis(byte[] b, String s, int from, int to) {
+		int length = to - from;
+		if (length == RFC_1123_LENGTH && matches(b, s, from + 3, ", ")) {
+			// Sun, 06 Nov 1994 08:49:37 GMT
+			if (!matches(b, s, from + 7, " ") || !matches(b, s, from + 11, " ")
+					|| !matches(b, s, from + 16, " ")
+					|| !matches(b, s, from + 25, " GMT")) {
+				return INVALID;
+			}
+			return toMillis(b, s,
+					digits(b, s, from + 12, 4),
+					month(b, s, from + 8),
+					digits(b, s, from + 5, 2),
+					from + 17);
+		}
+		if (length == ASCTIME_LENGTH && matches(b, s, from + 3, " ")) {
+			// Sun Nov  6 08:49:37 1994
+			if (!matches(b, s, from + 7, " ") || !matches(b, s, from + 10, " ")
+					|| !matches(b, s, from + 19, " ")) {
+				return INVALID;
+			}
+			int day = matches(b, s, from + 8, " ")
+					? digits(b, s, from + 9, 1)
+					: digits(b, s, from + 8, 2);
+			return toMillis(b, s,
+					digits(b, s, from + 20, 4),
+					month(b, s, from + 4),
+					day,
+					from + 11);
+		}
+		// the name of the day is 6 to 9 letters long
+		int comma = to - 24;
+		if (comma >= from + 6 && comma <= from + 9
+				&& matches(b, s, comma, ", ")) {
+			// Sunday, 06-Nov-94 08:49:37 GMT
+			if (!matches(b, s, comma + 4, "-") || !matches(b, s, comma + 8, "-")
+					|| !matches(b, s, comma + 11, " ")
+					|| !matches(b, s, comma + 20, " GMT")) {
+				return INVALID;
+			}
+			int year = digits(b, s, comma + 9, 2);
+			if (year != -1) {
+				// two digit years are taken to be within 1970 to 2069
+				year += year < 70 ? 2000 : 1900;
+			}
+			return toMillis(b, s,
+					year,
+					month(b, s, comma + 5),
+					digits(b, s, comma + 2, 2),
+					comma + 12);
+		}
+		return INVALID;
+	}
+
+	/**
+	 * Returns the time of a date given where its {@code HH:mm:ss} starts, or
+	 * {@code INVALID}.
+	 */
+	private static long toMillis(byte[] b, String s, int year, int month,
+			int day, int time) {
+		int hour = digits(b, s, time, 2);
+		int minute = digits(b, s, time + 3, 2);
+		int second = digits(b, s, time + 6, 2);
+		if (year == -1 || month == -1 || day < 1
+				|| day > daysInMonth(year, month)
+				|| hour == -1 || minute == -1 || second == -1
+				|| hour > 23 || minute > 59 || second > 60
+				|| !matches(b, s, time + 2, ":")
+				|| !matches(b, s, time + 5, ":")) {
+			return INVALID;
+		}
+		// days from civil date, after Howard Hinnant
+		int y = month <= 2 ? year - 1 : year;
+		int era = Math.floorDiv(y, 400);
+		int yearOfEra = y - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5
+				+ day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100
+				+ dayOfYear;
+		long days = era * 146097L + dayOfEra - 719468;
+		return days * MILLIS_PER_DAY
+				+ (hour * 3600 + minute * 60 + second) * MILLIS_PER_SECOND;
+	}
+
+	private static boolean matches(byte[] b, String s, int i, String literal) {
+		for (int j = 0; j < literal.length(); j++) {
+			if (at(b, s, i + j) != literal.charAt(j)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			boolean leap = year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+			return leap ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/**
+	 * Returns the month, from 1, of the name at the given index, or -1.
+	 */
+	private static int month(byte[] b, String s, int i) {
+		int c0 = at(b, s, i);
+		int c1 = at(b, s, i + 1);
+		int c2 = at(b, s, i + 2);
+		for (int m = 0; m < 12; m++) {
+			if (MONTHS.charAt(m * 3) == c0 && MONTHS.charAt(m * 3 + 1) == c1
+					&& MONTHS.charAt(m * 3 + 2) == c2) {
+				return m + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the value of a number of decimal digits, or -1.
+	 */
+	private static int digits(byte[] b, String s, int i, int count) {
+		int value = 0;
+		for (int j = i; j < i + count; j++) {
+			int digit = at(b, s, j) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static int at(byte[] b, String s, int i) {
+		return b != null ? b[i] & 0xFF : s.charAt(i);
+	}
+
+	public static String hashMd5(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			return hashMd5(in);
+		}
+	}
+
+	/**
+	 * Returns the last modified time of the file as a DateTime rounded down to
+	 * the second. This provides interoperability with the
+	 * {@code If-Modified-Since} header, which does not retain the precision of
+	 * milliseconds.
+	 * 
+	 * @param file
+	 *            the location of the file
+	 * @return the last modified time of the file
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static DateTime getLastModifiedTime(Path file) throws IOException {
+		return new DateTime(Files.getLastModifiedTime(file).toMillis())
+				.withMillisOfSecond(0);
+	}
+
+	public static String hashMd5(InputStream in) throws IOException {
+		return hash(in, Hashing.md5()).toString();
+	}
+
+	public static HashCode hash(InputStream in, HashFunction function)
+			throws IOException {
+		ByteBuffer pooled = BufferPool.HEAP.acquire(BUFFER_SIZE);
+		try {
+			byte[] buffer = pooled.array();
+			Hasher hasher = function.newHasher();
+			for (;;) {
+				int r = in.read(buffer, 0, BUFFER_SIZE);
+				if (r == -1) {
+					break;
+				}
+				hasher.putBytes(buffer, 0, r);
+			}
+			return hasher.hash();
+		} finally {
+			BufferPool.HEAP.release(pooled);
+		}
+	}
+
+	public static ByteSource pathAsByteSource(final Path file) {
+		return new ByteSource() {
+
+			@Override
+			public InputStream openStream() throws IOException {
+				return Files.newInputStream(file);
+			}
+
+			@Override
+			public Optional<Long> sizeIfKnown() {
+				try {
+					return Optional.of(Files.size(file));
+				} catch (IOException e) {
+					return Optional.absent();
+				}
+			}
+
+			@Override
+			public long size() throws IOException {
+				return Files.size(file);
+			}
+
+			@Override
+			public byte[] read() throws IOException {
+				return Files.readAllBytes(file);
+			}
+		};
+	}
+
+	public static <T> Supplier<T> forName(String className) {
+		final Class<T> clazz;
+		try {
+			@SuppressWarnings("unchecked")
+			Class<T> cast = (Class<T>) Class.forName(className);
+			clazz = cast;
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException(e);
+		}
+		return new Supplier<T>() {
+
+			@Override
+			public T get() {
+				try {
+					return clazz.newInstance();
+				} catch (InstantiationException | IllegalAccessException e) {
+					throw new IllegalArgumentException(e);
+				}
+			}
+		};
+	}
+
+}
@@ -1,15 +1,15 @@
-package com.catascopic.gateway;
-
-public enum HttpMethod {
-
-	GET,
-	HEAD,
-	POST,
-	PUT,
-	DELETE,
-	TRACE,
-	OPTIONS,
-	CONNECT,
-	PATCH;
-
-}
+package com.catascopic.gateway;
+
+public enum HttpMethod {
+
+	GET,
+	HEAD,
+	POST,
+	PUT,
+	DELETE,
+	TRACE,
+	OPTIONS,
+	CONNECT,
+	PATCH;
+
+}
@@ -1,191 +1,353 @@
-package com.catascopic.gateway;
-
-import java.io.EOFException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.Map;
-
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMap.Builder;
-import com.google.common.io.ByteStreams;
-
-/**
- * Reads HTTP content from an InputStream.
- */
-public class HttpReader {
-
-	private InputStream in;
-
-	public HttpReader(InputStream in) {
-		this.in = in;
-	}
-
-	public String readLine() throws IOException {
-		StringBuilder builder = new StringBuilder();
-		for (;;) {
-			int b = in.read();
-			switch (b) {
-			case '\r':
-				if (in.read() != '\n') {
-					throw new IOException();
-				}
-				return builder.toString();
-			case -1:
-				throw new EOFException();
-			default:
-				builder.append((char) b);
-			}
-		}
-	}
-	
-	public Map<String, String> parseHeaders() throws IOException {
-		Builder<String, String> builder = ImmutableMap.builder();
-		for (;;) {
-			String line = readLine();
-			if (line.isEmpty()) {
-				break;
-			}
-			int separator = line.indexOf(':');
-			builder.put(line.substring(0, separator),
-					line.substring(separator + 1).trim());
-		}
-		return builder.build();
-	}
-
-	public InputStream streamContent(int count) {
-		return new ContentInputStream(count);
-	}
-
-	public InputStream streamChunked() throws IOException {
-		return new ChunkedInputStream();
-	}
-
-	public class ContentInputStream extends InputStream {
-
-		private long remaining;
-
-		ContentInputStream(long limit) {
-			this.remaining = limit;
-		}
-
-		@Override
-		public int available() throws IOException {
-			return (int) Math.min(in.available(), remaining);
-		}
-
-		@Override
-		public int read() throws IOException {
-			if (remaining == 0) {
-				return -1;
-			}
-			int result = in.read();
-			if (result != -1) {
-				remaining--;
-			}
-			return result;
-		}
-
-		@Override
-		public int read(byte[] b, int off, int len) throws IOException {
-			if (remaining == 0) {
-				return -1;
-			}
-			int result = in.read(b, off, (int) Math.min(len, remaining));
-			if (result != -1) {
-				remaining -= result;
-			}
-			return result;
-		}
-
-		@Override
-		public long skip(long n) throws IOException {
-			long skipped = in.skip(Math.min(n, remaining));
-			remaining -= skipped;
-			return skipped;
-		}
-
-		@Override
-		public void close() throws IOException {
-			ByteStreams.skipFully(in, remaining);
-			remaining = 0;
-		}
-	}
-
-	private class ChunkedInputStream extends InputStream {
-
-		private long remaining;
-		private boolean end; // = false
-
-		public ChunkedInputStream() throws IOException {
-			this.remaining = Integer.parseInt(readLine(), 16);
-		}
-
-		@Override
-		public int read() throws IOException {
-			if (end) {
-				return -1;
-			}
-			if (remaining == 0) {
-				nextChunk();
-				return read();
-			}
-			remaining--;
-			return in.read();
-		}
-
-		@Override
-		public int read(byte[] b, int off, int len) throws IOException {
-			if (len == 0) {
-				return 0;
-			}
-			if (end) {
-				return -1;
-			}
-			if (remaining == 0) {
-				nextChunk();
-				return read(b, off, len);
-			}
-			int read = in.read(b, off, (int) Math.min(len, remaining));
-			remaining -= read;
-			return read;
-		}
-
-		@Override
-		public long skip(long n) throws IOException {
-			long skipped = in.skip(Math.min(n, remaining));
-			remaining -= skipped;
-			return skipped;
-		}
-
-		@Override
-		public int available() throws IOException {
-			return (int) Math.min(in.available(), remaining);
-		}
-
-		@Override
-		public void close() throws IOException {
-			while (!end) {
-				ByteStreams.skipFully(in, remaining);
-				nextChunk();
-			}
-		}
-
-		private void nextChunk() throws IOException {
-			readCrlf();
-			remaining = Integer.parseInt(readLine(), 16);
-			if (remaining == 0) {
-				readCrlf();
-				end = true;
-			}
-		}
-
-		private void readCrlf() throws IOException {
-			int cr = in.read();
-			int lf = in.read();
-			if (cr != '\r' || lf != '\n') {
-				throw new IOException();
-			}
-		}
-	}
-
-}
+package com.catascopic.gateway;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMap.Builder;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Reads HTTP content from an InputStream.
+ * <p>
+ * Bytes are read from the stream in bulk into a buffer that is reused for the
+ * life of the reader, so a reader must be kept for the whole connection:
+ * bytes of the next request may already be buffered when a request ends.
+ */
+public class HttpReader {
+
+	private static final int DEFAULT_BUFFER_SIZE = 0x2000;
+	private static final int DEFAULT_MAX_HEAD_SIZE = 0x10000;
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+
+	private final InputStream in;
+	private final int maxHeadSize;
+	private final RequestHead head = new RequestHead();
+
+	private byte[] buf;
+	private int pos;
+	private int limit;
+
+	public HttpReader(InputStream in) {
+		this(in, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_HEAD_SIZE);
+	}
+
+	public HttpReader(InputStream in, int bufferSize, int maxHeadSize) {
+		this.in = in;
+		this.buf = new byte[bufferSize];
+		this.maxHeadSize = Math.max(bufferSize, maxHeadSize);
+	}
+
+	public String readLine() throws IOException {
+		int scanned = 0;
+		for (;;) {
+			int lf = RequestHead.indexOf(buf, pos + scanned, limit, LF);
+			if (lf != -1) {
+				if (lf == pos || buf[lf - 1] != CR) {
+					throw new IOException();
+				}
+				String line = new String(buf, pos, lf - 1 - pos,
+						StandardCharsets.ISO_8859_1);
+				pos = lf + 1;
+				return line;
+			}
+			scanned = limit - pos;
+			if (!fill()) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * Reads the request line and header fields of the next request in a
+	 * single scan of the buffer. Empty lines before the request line are
+	 * skipped. The returned head is owned by this reader and is overwritten
+	 * by the next call.
+	 *
+	 * @throws EOFException
+	 *             if the stream ends before a complete head is read
+	 * @throws HttpSyntaxException
+	 *             if the head is malformed
+	 */
+	public RequestHead readHead() throws IOException, HttpSyntaxException {
+		head.reset();
+		// offsets are relative to pos, which moves if the buffer is compacted
+		int lineStart = 0;
+		int scanned = 0;
+		for (;;) {
+			int lf = RequestHead.indexOf(buf, pos + scanned, limit, LF);
+			if (lf == -1) {
+				scanned = limit - pos;
+				if (!fill()) {
+					throw new EOFException();
+				}
+				continue;
+			}
+			int lineEnd = lf - 1 - pos;
+			if (lineEnd < lineStart || buf[lf - 1] != CR) {
+				throw new HttpSyntaxException();
+			}
+			scanned = lf + 1 - pos;
+			if (lineEnd > lineStart) {
+				head.addLine(buf, pos, lineStart, lineEnd);
+			} else if (head.fieldCount() == 0 && lineStart == 0) {
+				// leading empty line
+				pos += scanned;
+				scanned = 0;
+				continue;
+			} else {
+				head.finish(buf, pos, pos + scanned);
+				pos += scanned;
+				return head;
+			}
+			lineStart = scanned;
+		}
+	}
+
+	/**
+	 * Returns whether bytes that have not been read yet are already buffered,
+	 * as they are when requests are pipelined.
+	 */
+	public boolean hasBufferedBytes() {
+		return pos < limit;
+	}
+
+	public Map<String, String> parseHeaders() throws IOException {
+		Builder<String, String> builder = ImmutableMap.builder();
+		for (;;) {
+			String line = readLine();
+			if (line.isEmpty()) {
+				break;
+			}
+			int separator = line.indexOf(':');
+			builder.put(line.substring(0, separator),
+					line.substring(separator + 1).trim());
+		}
+		return builder.build();
+	}
+
+	public InputStream streamContent(int count) {
+		return new ContentInputStream(count);
+	}
+
+	public InputStream streamChunked() throws IOException {
+		return new ChunkedInputStream();
+	}
+
+	/**
+	 * Reads more bytes from the stream into the buffer. Unread bytes are moved
+	 * to the start of the buffer if there is no room after them, and the
+	 * buffer grows up to the maximum head size if they fill it.
+	 *
+	 * @return false if the stream has ended
+	 */
+	private boolean fill() throws IOException {
+		if (pos == limit) {
+			pos = 0;
+			limit = 0;
+		} else if (limit == buf.length) {
+			if (pos > 0) {
+				System.arraycopy(buf, pos, buf, 0, limit - pos);
+				limit -= pos;
+				pos = 0;
+			} else if (buf.length < maxHeadSize) {
+				buf = Arrays.copyOf(buf,
+						Math.min(buf.length * 2, maxHeadSize));
+			} else {
+				throw new IOException("request head too large");
+			}
+		}
+		int read = in.read(buf, limit, buf.length - limit);
+		if (read == -1) {
+			return false;
+		}
+		limit += read;
+		return true;
+	}
+
+	private int readByte() throws IOException {
+		if (pos == limit && !fill()) {
+			return -1;
+		}
+		return buf[pos++] & 0xFF;
+	}
+
+	private int readBytes(byte[] b, int off, int len) throws IOException {
+		if (pos == limit) {
+			if (len >= buf.length) {
+				// nothing to gain from copying through the buffer
+				return in.read(b, off, len);
+			}
+			if (!fill()) {
+				return -1;
+			}
+		}
+		int count = Math.min(len, limit - pos);
+		System.arraycopy(buf, pos, b, off, count);
+		pos += count;
+		return count;
+	}
+
+	private long skipBytes(long n) throws IOException {
+		int buffered = limit - pos;
+		if (buffered > 0) {
+			int count = (int) Math.min(n, buffered);
+			pos += count;
+			return count;
+		}
+		return in.skip(n);
+	}
+
+	private int availableBytes() throws IOException {
+		return limit - pos + in.available();
+	}
+
+	public class ContentInputStream extends InputStream {
+
+		private long remaining;
+
+		ContentInputStream(long limit) {
+			this.remaining = limit;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(availableBytes(), remaining);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			int result = readByte();
+			if (result != -1) {
+				remaining--;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining == 0) {
+				return -1;
+			}
+			int result = readBytes(b, off, (int) Math.min(len, remaining));
+			if (result != -1) {
+				remaining -= result;
+			}
+			return result;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = skipBytes(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public void close() throws IOException {
+			ByteStreams.skipFully(this, remaining);
+		}
+	}
+
+	private class ChunkedInputStream extends InputStream {
+
+		private long remaining;
+		private boolean end; // = false
+
+		public ChunkedInputStream() throws IOException {
+			this.remaining = readChunkSize();
+			if (remaining == 0) {
+				readCrlf();
+				end = true;
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (end) {
+				return -1;
+			}
+			if (remaining == 0) {
+				nextChunk();
+				return read();
+			}
+			remaining--;
+			return readByte();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (end) {
+				return -1;
+			}
+			if (remaining == 0) {
+				nextChunk();
+				return read(b, off, len);
+			}
+			int read = readBytes(b, off, (int) Math.min(len, remaining));
+			if (read == -1) {
+				throw new EOFException();
+			}
+			remaining -= read;
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = skipBytes(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(availableBytes(), remaining);
+		}
+
+		@Override
+		public void close() throws IOException {
+			while (!end) {
+				ByteStreams.skipFully(this, remaining);
+				nextChunk();
+			}
+		}
+
+		private void nextChunk() throws IOException {
+			readCrlf();
+			remaining = readChunkSize();
+			if (remaining == 0) {
+				readCrlf();
+				end = true;
+			}
+		}
+
+		private long readChunkSize() throws IOException {
+			String line = readLine();
+			int extension = line.indexOf(';');
+			return Long.parseLong(extension == -1
+					? line
+					: line.substring(0, extension).trim(), 16);
+		}
+
+		private void readCrlf() throws IOException {
+			int cr = readByte();
+			int lf = readByte();
+			if (cr != CR || lf != LF) {
+				throw new IOException();
+			}
+		}
+	}
+
+}
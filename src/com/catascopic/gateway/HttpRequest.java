@@ -1,161 +1,311 @@
-package com.catascopic.gateway;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-
-import org.joda.time.DateTime;
-
-import com.google.common.base.Splitter;
-import com.google.common.collect.Multimap;
-import com.google.common.io.ByteStreams;
-import com.google.common.net.HttpHeaders;
-
-public class HttpRequest {
-
-	private static final String CHUNKED = "Chunked";
-	private static final String HTTP1_1 = "HTTP/1.1";
-
-	private HttpMethod method;
-	private String requestUri;
-	private String path;
-	private String query;
-	private String httpVersion;
-	private Map<String, String> headers;
-	private Map<String, String> cookies; // = null
-	private Map<String, String> trailers; // = null
-	private InputStream content;
-
-	private HttpReader reader;
-
-	private HttpRequest(HttpReader reader) throws IOException,
-			HttpSyntaxException {
-		parseRequestLine(reader.readLine());
-		headers = reader.parseHeaders();
-		Integer contentLength = contentLength();
-		if (contentLength != null) {
-			content = reader.streamContent(contentLength);
-		} else if (CHUNKED.equals(headers.get(HttpHeaders.TRANSFER_ENCODING))) {
-			content = reader.streamChunked();
-		}
-	}
-
-	private void parseRequestLine(String requestLine)
-			throws HttpSyntaxException {
-		List<String> requestParts = Splitter.on(' ').splitToList(requestLine);
-		method = HttpMethod.valueOf(requestParts.get(0));
-		requestUri = requestParts.get(1);
-		if (requestParts.get(2).equals(HTTP1_1)) {
-			throw new HttpSyntaxException();
-		}
-		int queryIndex = requestUri.indexOf('?');
-		if (queryIndex == -1) {
-			path = requestUri;
-			query = "";
-		} else {
-			path = requestUri.substring(0, queryIndex);
-			query = requestLine.substring(queryIndex + 1);
-		}
-	}
-
-	public HttpMethod method() {
-		return method;
-	}
-
-	public String requestUri() {
-		return requestUri;
-	}
-
-	public String path() {
-		return path;
-	}
-
-	public String query() {
-		return query;
-	}
-
-	public List<String> parsePath() {
-		return UriParser.parse(path);
-	}
-
-	public Map<String, String> parseQuery() {
-		return UriParser.toMap(query);
-	}
-
-	public Multimap<String, String> parseQueryAsMultimap() {
-		return UriParser.toMultimap(query);
-	}
-
-	public String httpVersion() {
-		return HTTP1_1;
-	}
-
-	public String getHeader(String key) {
-		return headers.get(key);
-	}
-
-	public DateTime getHeaderAsDateTime(String key) {
-		String value = headers.get(key);
-		return value == null ? null : HttpDateTimeFormat.parse(value);
-	}
-
-	public Map<String, String> headers() {
-		return headers;
-	}
-
-	public Map<String, String> cookies() {
-		if (cookies == null) {
-			String cookie = getHeader(HttpHeaders.COOKIE);
-			cookies = cookie == null
-					? Collections.<String, String> emptyMap()
-					: Splitter.on(';').trimResults()
-							.withKeyValueSeparator('=').split(cookie);
-		}
-		return cookies;
-	}
-
-	public Map<String, String> trailers() {
-		return trailers;
-	}
-
-	public boolean hasContent() {
-		return content != null;
-	}
-
-	public InputStream content() {
-		return content;
-	}
-
-	public String readContent(Charset charset) throws IOException {
-		Integer length = contentLength();
-		if (length == null) {
-			throw new IllegalStateException();
-		}
-		byte[] payload = new byte[length];
-		ByteStreams.readFully(content, payload);
-		return new String(payload, charset);
-	}
-
-	public String readContent() throws IOException {
-		return readContent(StandardCharsets.UTF_8);
-	}
-
-	public Integer contentLength() {
-		return getAsInteger(HttpHeaders.CONTENT_LENGTH);
-	}
-
-	private Integer getAsInteger(String header) {
-		String value = headers.get(header);
-		return value == null ? null : Integer.parseInt(value);
-	}
-
-	@Override
-	public String toString() {
-		return String.format("%s %s %s", method, requestUri, httpVersion);
-	}
-
-}
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+
+public class HttpRequest {
+
+	private static final String CHUNKED = "Chunked";
+	private static final String HTTP1 = "HTTP/1.";
+	private static final String HTTP1_0 = "HTTP/1.0";
+	private static final String CLOSE = "close";
+	private static final String KEEP_ALIVE = "keep-alive";
+	// more digits than this might not fit in a long
+	private static final int MAX_LENGTH_DIGITS = 18;
+
+	private HttpMethod method;
+	private String requestUri;
+	private String path;
+	private String query;
+	private QueryString queryString; // = null
+	private String httpVersion;
+	private RequestHeaders headers;
+	private Map<String, String> cookies; // = null
+	private Map<String, String> trailers; // = null
+	private InputStream content;
+
+	private HttpReader reader;
+
+	private HttpRequest(RequestHead head) throws HttpSyntaxException {
+		parseRequestLine(head);
+		headers = head.headers();
+	}
+
+	/**
+	 * Reads the next request from a connection. The same reader must be used
+	 * for every request on the connection.
+	 *
+	 * @throws HttpSyntaxException
+	 *             if the request is malformed, or the length of its content
+	 *             is not certain: see {@link #isChunked} and
+	 *             {@link #contentLength}
+	 */
+	public static HttpRequest read(HttpReader reader) throws IOException,
+			HttpSyntaxException {
+		HttpRequest request = new HttpRequest(reader.readHead());
+		List<String> contentLength =
+				request.headers.getAll(HttpHeaders.CONTENT_LENGTH);
+		if (isChunked(request.headers.getAll(HttpHeaders.TRANSFER_ENCODING),
+				contentLength)) {
+			request.content = reader.streamChunked();
+		} else if (!contentLength.isEmpty()) {
+			long length = contentLength(contentLength);
+			if (length > Integer.MAX_VALUE) {
+				throw new HttpSyntaxException();
+			}
+			request.content = reader.streamContent((int) length);
+		}
+		return request;
+	}
+
+	/**
+	 * Returns whether the content of a request is chunked, given the values
+	 * of its {@code Transfer-Encoding} and {@code Content-Length} fields.
+	 *
+	 * @throws HttpSyntaxException
+	 *             if there is more than one {@code Transfer-Encoding}, it
+	 *             names a coding other than {@code chunked}, or there is a
+	 *             {@code Content-Length} as well, any of which a proxy in
+	 *             front of this server could frame differently (RFC 7230
+	 *             section 3.3.3)
+	 */
+	static boolean isChunked(List<String> transferEncoding,
+			List<String> contentLength) throws HttpSyntaxException {
+		if (transferEncoding.isEmpty()) {
+			return false;
+		}
+		if (transferEncoding.size() > 1 || !contentLength.isEmpty()
+				|| !CHUNKED.equalsIgnoreCase(transferEncoding.get(0))) {
+			throw new HttpSyntaxException();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the length given by the values of the {@code Content-Length}
+	 * fields of a request, of which there must be at least one.
+	 *
+	 * @throws HttpSyntaxException
+	 *             if a value is invalid, or the values differ (RFC 7230
+	 *             section 3.3.2)
+	 */
+	static long contentLength(List<String> values) throws HttpSyntaxException {
+		long length = parseContentLength(values.get(0));
+		for (int i = 1; i < values.size(); i++) {
+			if (parseContentLength(values.get(i)) != length) {
+				throw new HttpSyntaxException();
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Parses the value of a {@code Content-Length}, which must be nothing but
+	 * digits (RFC 7230 section 3.3.2).
+	 */
+	static long parseContentLength(String value) throws HttpSyntaxException {
+		if (value.isEmpty() || value.length() > MAX_LENGTH_DIGITS) {
+			throw new HttpSyntaxException();
+		}
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				throw new HttpSyntaxException();
+			}
+		}
+		return Long.parseLong(value);
+	}
+
+	/**
+	 * Creates a request from a head whose content has already been read.
+	 */
+	static HttpRequest fromHead(RequestHead head, InputStream content)
+			throws HttpSyntaxException {
+		HttpRequest request = new HttpRequest(head);
+		request.content = content;
+		return request;
+	}
+
+	private void parseRequestLine(RequestHead head)
+			throws HttpSyntaxException {
+		try {
+			method = HttpMethod.valueOf(head.method());
+		} catch (IllegalArgumentException e) {
+			throw new HttpSyntaxException();
+		}
+		requestUri = head.target();
+		httpVersion = head.version();
+		if (!httpVersion.startsWith(HTTP1)) {
+			throw new HttpSyntaxException();
+		}
+		int queryIndex = requestUri.indexOf('?');
+		if (queryIndex == -1) {
+			path = requestUri;
+			query = "";
+		} else {
+			path = requestUri.substring(0, queryIndex);
+			query = requestUri.substring(queryIndex + 1);
+		}
+	}
+
+	public HttpMethod method() {
+		return method;
+	}
+
+	public String requestUri() {
+		return requestUri;
+	}
+
+	public String path() {
+		return path;
+	}
+
+	public String query() {
+		return query;
+	}
+
+	public List<String> parsePath() {
+		return UriParser.parse(path);
+	}
+
+	/**
+	 * Returns the decoded segments of the path, decoding each only when it is
+	 * reached, so that routing needs no list of them.
+	 */
+	public Iterator<String> pathSegments() {
+		return UriParser.segments(path);
+	}
+
+	/**
+	 * Returns the parameters of the query, which are split once and decoded
+	 * only as they are read.
+	 */
+	public QueryString queryString() {
+		if (queryString == null) {
+			queryString = new QueryString(query);
+		}
+		return queryString;
+	}
+
+	public Map<String, String> parseQuery() {
+		return UriParser.toMap(queryString());
+	}
+
+	public Multimap<String, String> parseQueryAsMultimap() {
+		return UriParser.toMultimap(queryString());
+	}
+
+	public String httpVersion() {
+		return httpVersion;
+	}
+
+	/**
+	 * Returns whether the client expects the connection to stay open after
+	 * this request, which is the default from HTTP/1.1 on.
+	 */
+	public boolean keepAlive() {
+		String connection = getHeader(HttpHeaders.CONNECTION);
+		if (HTTP1_0.equals(httpVersion)) {
+			return KEEP_ALIVE.equalsIgnoreCase(connection);
+		}
+		return !CLOSE.equalsIgnoreCase(connection);
+	}
+
+	/**
+	 * Returns the value of the first header with the given name, ignoring
+	 * case, or {@code null} if there is none.
+	 */
+	public String getHeader(String key) {
+		return headers.get(key);
+	}
+
+	/**
+	 * Returns the values of every header with the given name, ignoring case.
+	 */
+	public List<String> getHeaders(String key) {
+		return headers.getAll(key);
+	}
+
+	public DateTime getHeaderAsDateTime(String key) {
+		String value = headers.get(key);
+		return value == null ? null : HttpDateTimeFormat.parse(value);
+	}
+
+	public RequestHeaders headers() {
+		return headers;
+	}
+
+	/**
+	 * Returns the time of a date header in milliseconds, or
+	 * {@link HttpDateTimeFormat#INVALID} if it is missing or not a valid
+	 * date.
+	 */
+	public long getDateHeader(String key) {
+		return headers.getDate(key);
+	}
+
+	public Map<String, String> cookies() {
+		if (cookies == null) {
+			String cookie = getHeader(HttpHeaders.COOKIE);
+			cookies = cookie == null
+					? Collections.<String, String> emptyMap()
+					: Splitter.on(';').trimResults()
+							.withKeyValueSeparator('=').split(cookie);
+		}
+		return cookies;
+	}
+
+	public Map<String, String> trailers() {
+		return trailers;
+	}
+
+	public boolean hasContent() {
+		return content != null;
+	}
+
+	public InputStream content() {
+		return content;
+	}
+
+	public String readContent(Charset charset) throws IOException {
+		Integer length = contentLength();
+		if (length == null) {
+			throw new IllegalStateException();
+		}
+		byte[] payload = new byte[length];
+		ByteStreams.readFully(content, payload);
+		return new String(payload, charset);
+	}
+
+	public String readContent() throws IOException {
+		return readContent(StandardCharsets.UTF_8);
+	}
+
+	public Integer contentLength() {
+		return getAsInteger(HttpHeaders.CONTENT_LENGTH);
+	}
+
+	private Integer getAsInteger(String header) {
+		String value = headers.get(header);
+		return value == null ? null : Integer.parseInt(value);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s %s", method, requestUri, httpVersion);
+	}
+
+}
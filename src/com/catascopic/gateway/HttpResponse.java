@@ -1,180 +1,654 @@
-package com.catascopic.gateway;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.TreeMap;
-
-import org.joda.time.DateTime;
-
-import com.google.common.io.ByteSource;
-import com.google.common.io.ByteStreams;
-import com.google.common.net.HttpHeaders;
-import com.google.common.net.MediaType;
-
-public class HttpResponse {
-
-	private HttpStatus status;
-	private Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
-	private Content content = NO_CONTENT;
-	private List<String> cookies = new ArrayList<>();
-	private static final String VERSION = "HTTP/1.1";
-
-	HttpResponse() {
-		setHeader(HttpHeaders.DATE, HttpDateTimeFormat.print(DateTime.now()));
-	}
-
-	public HttpResponse setStatus(HttpStatus status) {
-		this.status = status;
-		return this;
-	}
-
-	public HttpResponse setHeader(String key, String value) {
-		headers.put(key, value);
-		return this;
-	}
-
-	public HttpResponse setExpires(DateTime expires) {
-		return setHeader(HttpHeaders.EXPIRES, HttpDateTimeFormat.print(expires));
-	}
-
-	public HttpResponse setContentType(MediaType contentType) {
-		return setHeader(HttpHeaders.CONTENT_TYPE, contentType.toString());
-	}
-
-	public HttpResponse setLastModified(DateTime time) {
-		return setHeader(HttpHeaders.LAST_MODIFIED, HttpDateTimeFormat.print(time));
-	}
-
-	public HttpResponse setContent(String content) {
-		return setContent(content, StandardCharsets.UTF_8);
-	}
-
-	public HttpResponse setContent(String content, Charset charset) {
-		return setContent(content.getBytes(charset));
-	}
-
-	public HttpResponse setContent(final byte[] bytes) {
-		setHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(bytes.length));
-		content = new Content() {
-
-			@Override
-			public void write(OutputStream out) throws IOException {
-				out.write(bytes);
-			}
-		};
-		return this;
-	}
-
-	public HttpResponse setContent(final Path file) throws IOException {
-		setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(Files.size(file)));
-		content = new Content() {
-
-			@Override
-			public void write(OutputStream out) throws IOException {
-				try (InputStream in = Files.newInputStream(file)) {
-					ByteStreams.copy(in, out);
-				}
-			}
-		};
-		return this;
-	}
-
-	public HttpResponse setContentAndLastModified(Path file) throws IOException {
-		return setLastModified(new DateTime(Files.getLastModifiedTime(file).toMillis()))
-				.setContent(file);
-	}
-
-	public HttpResponse setChunkedContent(ByteSource byteSource) {
-		setHeader(HttpHeaders.TRANSFER_ENCODING, "Chunked");
-		content = new ChunkedContent(byteSource, 8192);
-		return this;
-	}
-
-	public HttpResponse addCookie(CookieBuilder cookie) {
-		cookies.add(cookie.toString());
-		return this;
-	}
-
-	private static final String CRLF = "\r\n";
-
-	void send(OutputStream out) throws IOException {
-		StringBuilder builder = new StringBuilder();
-		builder.append(VERSION).append(' ')
-				.append(status.code()).append(' ')
-				.append(status.title()).append(CRLF);
-		for (Entry<String, String> header : headers.entrySet()) {
-			appendHeader(builder, header.getKey(), header.getValue());
-		}
-		for (String cookie : cookies) {
-			appendHeader(builder, HttpHeaders.SET_COOKIE, cookie);
-		}
-		builder.append(CRLF);
-		writeAscii(out, builder.toString());
-		content.write(out);
-		out.flush();
-	}
-
-	private static void appendHeader(StringBuilder builder, String key, String value) {
-		builder.append(key).append(": ").append(value).append(CRLF);
-	}
-
-	private static void writeAscii(OutputStream out, String text) throws IOException {
-		out.write(text.getBytes(StandardCharsets.US_ASCII));
-	}
-
-	@Override
-	public String toString() {
-		return VERSION + " " + status;
-	}
-
-	private interface Content {
-
-		void write(OutputStream out) throws IOException;
-	}
-
-	private static class ChunkedContent implements Content {
-
-		private ByteSource byteSource;
-		private int bufferSize;
-
-		public ChunkedContent(ByteSource byteSource, int bufferSize) {
-			this.byteSource = byteSource;
-			this.bufferSize = bufferSize;
-		}
-
-		@Override
-		public void write(OutputStream out) throws IOException {
-			try (InputStream in = byteSource.openStream()) {
-				byte[] buf = new byte[bufferSize];
-				for (;;) {
-					int count = in.read(buf);
-					if (count == -1) {
-						break;
-					}
-					writeAscii(out, count + CRLF);
-					out.write(buf, 0, count);
-					writeAscii(out, CRLF);
-				}
-				writeAscii(out, "0" + CRLF + CRLF);
-			}
-		}
-	}
-
-	private static final Content NO_CONTENT = new Content() {
-
-		@Override
-		public void write(OutputStream out) {
-			// Do nothing
-		}
-	};
-
-}
+package com.catascopic.gateway;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.joda.time.DateTime;
+
+import com.google.common.io.ByteSource;
+import com.google.common.net.HttpHeaders;
+import com.google.common.net.MediaType;
+
+public class HttpResponse {
+
+	private HttpStatus status;
+	private final ResponseHeaders headers = new ResponseHeaders();
+	private Content content = NO_CONTENT;
+	private static final String VERSION = "HTTP/1.1";
+	// smaller content is copied with the head, which saves a write
+	private static final long DIRECT_THRESHOLD = 0x10000;
+	// smaller buffers are copied into the output stream of a blocking
+	// connection rather than written with the head in one gathering write
+	private static final long GATHER_THRESHOLD = 0x2000;
+	private static final String MULTIPART_BYTERANGES = "multipart/byteranges";
+	private static final String CHUNKED = "chunked";
+
+	HttpResponse() {
+		setHeader(HttpHeaders.DATE, DateHeader.get());
+	}
+
+	/**
+	 * Creates a response whose content is the status line of the given status
+	 * as plain text.
+	 */
+	static HttpResponse plainText(HttpStatus status) {
+		return new HttpResponse().setStatus(status)
+				.setContent(status.toString())
+				.setContentType(MediaType.PLAIN_TEXT_UTF_8);
+	}
+
+	public HttpResponse setStatus(HttpStatus status) {
+		this.status = status;
+		return this;
+	}
+
+	/**
+	 * Sets a header, replacing any with the same name. Headers are sent in
+	 * the order they were first set.
+	 */
+	public HttpResponse setHeader(String key, String value) {
+		headers.set(key, value);
+		return this;
+	}
+
+	/**
+	 * Adds a header, keeping any with the same name.
+	 */
+	public HttpResponse addHeader(String key, String value) {
+		headers.add(key, value);
+		return this;
+	}
+
+	public String getHeader(String key) {
+		return headers.get(key);
+	}
+
+	public HttpResponse setExpires(DateTime expires) {
+		return setHeader(HttpHeaders.EXPIRES, HttpDateTimeFormat.print(expires));
+	}
+
+	public HttpResponse setContentType(MediaType contentType) {
+		return setHeader(HttpHeaders.CONTENT_TYPE, contentType.toString());
+	}
+
+	public HttpResponse setLastModified(DateTime time) {
+		return setHeader(HttpHeaders.LAST_MODIFIED, HttpDateTimeFormat.print(time));
+	}
+
+	public HttpResponse setContent(String content) {
+		return setContent(content, StandardCharsets.UTF_8);
+	}
+
+	public HttpResponse setContent(String content, Charset charset) {
+		return setContent(content.getBytes(charset));
+	}
+
+	/**
+	 * Sets the content to an array, which must not be modified afterwards.
+	 */
+	public HttpResponse setContent(byte[] bytes) {
+		setHeader(HttpHeaders.CONTENT_LENGTH, Integer.toString(bytes.length));
+		content = new BufferContent(ByteBuffer.wrap(bytes));
+		return this;
+	}
+
+	public HttpResponse setContent(Path file) throws IOException {
+		long size = Files.size(file);
+		setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(size));
+		content = new FileContent(file, 0, size);
+		return this;
+	}
+
+	/**
+	 * Sets the content to part of a file.
+	 */
+	public HttpResponse setContent(Path file, long position, long count) {
+		setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(count));
+		content = new FileContent(file, position, count);
+		return this;
+	}
+
+	/**
+	 * Sets the content to the remaining bytes of the buffer, which must not be
+	 * modified afterwards. The buffer may be direct or a mapped file.
+	 */
+	public HttpResponse setContent(ByteBuffer buffer) {
+		setHeader(HttpHeaders.CONTENT_LENGTH,
+				Integer.toString(buffer.remaining()));
+		content = new BufferContent(buffer);
+		return this;
+	}
+
+	public HttpResponse setContentAndLastModified(Path file) throws IOException {
+		return setLastModified(new DateTime(Files.getLastModifiedTime(file).toMillis()))
+				.setContent(file);
+	}
+
+	/**
+	 * Narrows the content, which must have been set from a file or a buffer,
+	 * to the given ranges of it and sets the status to
+	 * {@code 206 Partial Content}. A single range is sent as it is; several
+	 * are sent as {@code multipart/byteranges}, each part with the content
+	 * type of the whole.
+	 */
+	public HttpResponse setRanges(List<ByteRange> ranges) {
+		checkState(content instanceof DirectContent,
+				"content is not a file or buffer");
+		checkArgument(!ranges.isEmpty(), "no ranges");
+		DirectContent whole = (DirectContent) content;
+		long length = whole.size();
+		for (ByteRange range : ranges) {
+			checkArgument(range.last() < length, "%s past %s", range, length);
+		}
+		setStatus(HttpStatus._206_PARTIAL_CONTENT);
+		if (ranges.size() == 1) {
+			ByteRange range = ranges.get(0);
+			setHeader(HttpHeaders.CONTENT_RANGE, range.contentRange(length));
+			setHeader(HttpHeaders.CONTENT_LENGTH,
+					Long.toString(range.length()));
+			content = whole.region(range.first(), range.length());
+			return this;
+		}
+		String boundary = Long.toHexString(
+				ThreadLocalRandom.current().nextLong());
+		String contentType = headers.remove(HttpHeaders.CONTENT_TYPE);
+		List<DirectContent> parts = new ArrayList<>(ranges.size() * 2 + 1);
+		for (ByteRange range : ranges) {
+			StringBuilder partHead = new StringBuilder();
+			partHead.append(CRLF).append("--").append(boundary).append(CRLF);
+			if (contentType != null) {
+				appendHeader(partHead, HttpHeaders.CONTENT_TYPE, contentType);
+			}
+			appendHeader(partHead, HttpHeaders.CONTENT_RANGE,
+					range.contentRange(length));
+			partHead.append(CRLF);
+			parts.add(asciiContent(partHead.toString()));
+			parts.add(whole.region(range.first(), range.length()));
+		}
+		parts.add(asciiContent(CRLF + "--" + boundary + "--" + CRLF));
+		MultipartContent multipart = new MultipartContent(parts);
+		setHeader(HttpHeaders.CONTENT_TYPE,
+				MULTIPART_BYTERANGES + "; boundary=" + boundary);
+		setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(multipart.size()));
+		content = multipart;
+		return this;
+	}
+
+	private static DirectContent asciiContent(String text) {
+		return new BufferContent(
+				ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+	}
+
+	/**
+	 * Sets the content to be written as it is read from a source, with the
+	 * {@code chunked} transfer coding.
+	 */
+	public HttpResponse setChunkedContent(final ByteSource byteSource) {
+		return setChunkedContent(new StreamingContent() {
+
+			@Override
+			public void write(ChunkedOutputStream out) throws IOException {
+				try (InputStream in = byteSource.openStream()) {
+					out.transferFrom(in);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sets the content to be written by a producer, with the {@code chunked}
+	 * transfer coding. On a blocking connection, flushing the stream sends
+	 * what has been written so far, as a stream of server-sent events needs.
+	 */
+	public HttpResponse setChunkedContent(StreamingContent producer) {
+		setHeader(HttpHeaders.TRANSFER_ENCODING, CHUNKED);
+		headers.remove(HttpHeaders.CONTENT_LENGTH);
+		content = new ChunkedContent(producer);
+		return this;
+	}
+
+	/**
+	 * Declares a trailer field that the chunked content will send, in the
+	 * {@code Trailer} header.
+	 */
+	public HttpResponse addTrailer(String name) {
+		String declared = headers.get(HttpHeaders.TRAILER);
+		return setHeader(HttpHeaders.TRAILER,
+				declared == null ? name : declared + ", " + name);
+	}
+
+	public HttpResponse addCookie(CookieBuilder cookie) {
+		return addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+	}
+
+	private static final String CRLF = "\r\n";
+
+	void send(OutputStream out) throws IOException {
+		write(out, true);
+		out.flush();
+	}
+
+	/**
+	 * Writes the response without flushing, so that responses to pipelined
+	 * requests can go out together.
+	 *
+	 * @param withContent
+	 *            false to write only the head, as for a {@code HEAD} request
+	 */
+	void write(OutputStream out, boolean withContent) throws IOException {
+		write(out, null, withContent);
+	}
+
+	/**
+	 * Writes the response to a socket. If the socket has a channel, large
+	 * files are sent straight from the file system to the socket with
+	 * {@link FileChannel#transferTo}.
+	 *
+	 * @param channel
+	 *            the channel of the socket that {@code out} writes to, or
+	 *            null if it has none
+	 */
+	void write(OutputStream out, WritableByteChannel channel,
+			boolean withContent) throws IOException {
+		ByteBuffer buffer = withContent
+				? gatherableContent(GATHER_THRESHOLD)
+				: null;
+		if (buffer != null && channel instanceof GatheringByteChannel) {
+			// send the head and the content in one call
+			out.flush();
+			ByteBuffer head = encodeHead(BufferPool.DIRECT);
+			try {
+				ByteBuffer[] buffers = { head, buffer };
+				while (buffer.hasRemaining() || head.hasRemaining()) {
+					((GatheringByteChannel) channel).write(buffers);
+				}
+			} finally {
+				BufferPool.DIRECT.release(head);
+			}
+			return;
+		}
+		ByteBuffer head = encodeHead(BufferPool.HEAP);
+		try {
+			out.write(head.array(), head.arrayOffset(), head.remaining());
+		} finally {
+			BufferPool.HEAP.release(head);
+		}
+		if (!withContent) {
+			return;
+		}
+		DirectContent direct = directContent();
+		if (channel != null && direct != null) {
+			out.flush();
+			direct.write(channel);
+		} else {
+			content.write(out);
+		}
+	}
+
+	/**
+	 * Queues the response on a non-blocking connection. The head goes out in
+	 * one gathering write with content that is in memory, and files are sent
+	 * with {@link FileChannel#transferTo}. Chunked content is written by its
+	 * producer on the given executor, as it may block.
+	 */
+	void write(ChannelServer<?>.Connection connection, Executor producers,
+			boolean withContent) throws IOException {
+		ByteBuffer buffer = withContent ? gatherableContent(0) : null;
+		// the connection releases the head, even if the write fails
+		connection.write(BufferPool.DIRECT, encodeHead(BufferPool.DIRECT),
+				buffer);
+		if (!withContent || content == NO_CONTENT || buffer != null) {
+			return;
+		}
+		if (content instanceof DirectContent) {
+			((DirectContent) content).queue(connection);
+			return;
+		}
+		final Content producer = content;
+		connection.stream(producers, new ChannelServer.Producer() {
+
+			@Override
+			public void write(OutputStream out) throws IOException {
+				producer.write(out);
+			}
+		});
+	}
+
+	/**
+	 * Encodes the status line and headers into a buffer from the given pool,
+	 * which the caller must release.
+	 */
+	private ByteBuffer encodeHead(BufferPool pool) {
+		if (content == NO_CONTENT && mayHaveContent()
+				&& !headers.contains(HttpHeaders.CONTENT_LENGTH)
+				&& !headers.contains(HttpHeaders.TRANSFER_ENCODING)) {
+			// otherwise a persistent connection cannot tell where it ends
+			setHeader(HttpHeaders.CONTENT_LENGTH, "0");
+		}
+		ByteBuffer head = pool.acquire(headers.encodedLength(status));
+		headers.encode(status, head);
+		head.flip();
+		return head;
+	}
+
+	/**
+	 * Returns the content if it is a buffer in memory of at least the given
+	 * size but too small to be worth a separate write, otherwise null.
+	 */
+	private ByteBuffer gatherableContent(long minSize) {
+		if (content instanceof BufferContent) {
+			long size = ((BufferContent) content).size();
+			if (size >= minSize && size < DIRECT_THRESHOLD) {
+				return ((BufferContent) content).buffer.duplicate();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the content if it can be written straight to a channel and is
+	 * large enough for that to be worth a separate write, otherwise null.
+	 */
+	DirectContent directContent() {
+		if (content instanceof DirectContent) {
+			DirectContent direct = (DirectContent) content;
+			if (direct.size() >= DIRECT_THRESHOLD) {
+				return direct;
+			}
+		}
+		return null;
+	}
+
+	private static void transferFully(FileChannel in, long position,
+			long count, WritableByteChannel out) throws IOException {
+		long end = position + count;
+		while (position < end) {
+			long transferred = in.transferTo(position, end - position, out);
+			if (transferred == 0 && position >= in.size()) {
+				throw new EOFException("file truncated: " + position);
+			}
+			position += transferred;
+		}
+	}
+
+	private boolean mayHaveContent() {
+		return !status.code().startsWith("1")
+				&& status != HttpStatus._204_NO_CONTENT
+				&& status != HttpStatus._304_NOT_MODIFIED;
+	}
+
+	private static void appendHeader(StringBuilder builder, String key,
+			String value) {
+		builder.append(key).append(": ").append(value).append(CRLF);
+	}
+
+	@Override
+	public String toString() {
+		return VERSION + " " + status;
+	}
+
+	interface Content {
+
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Writes content of a length that is not known in advance.
+	 */
+	public interface StreamingContent {
+
+		/**
+		 * Writes the content. The stream must not be closed; trailer fields
+		 * may be set on it.
+		 */
+		void write(ChunkedOutputStream out) throws IOException;
+	}
+
+	private static class ChunkedContent implements Content {
+
+		private final StreamingContent producer;
+
+		ChunkedContent(StreamingContent producer) {
+			this.producer = producer;
+		}
+
+		@Override
+		public void write(OutputStream out) throws IOException {
+			ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+			boolean complete = false;
+			try {
+				producer.write(chunked);
+				complete = true;
+			} finally {
+				if (complete) {
+					chunked.close();
+				} else {
+					// leave the content unterminated, so that the client can
+					// tell it is incomplete
+					chunked.abort();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Content that can be written to a channel without copying it through
+	 * the heap.
+	 */
+	interface DirectContent extends Content {
+
+		long size();
+
+		/**
+		 * Writes the content to a blocking channel.
+		 */
+		void write(WritableByteChannel channel) throws IOException;
+
+		/**
+		 * Queues the content on a non-blocking connection.
+		 */
+		void queue(ChannelServer<?>.Connection connection) throws IOException;
+
+		/**
+		 * Returns the given part of the content.
+		 */
+		DirectContent region(long position, long count);
+	}
+
+	private static class FileContent implements DirectContent {
+
+		private final Path file;
+		private final long position;
+		private final long size;
+
+		FileContent(Path file, long position, long size) {
+			this.file = file;
+			this.position = position;
+			this.size = size;
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public void write(OutputStream out) throws IOException {
+			try (FileChannel in = FileChannel.open(file)) {
+				transferFully(in, position, size, Channels.newChannel(out));
+			}
+		}
+
+		@Override
+		public void write(WritableByteChannel channel) throws IOException {
+			try (FileChannel in = FileChannel.open(file)) {
+				transferFully(in, position, size, channel);
+			}
+		}
+
+		@Override
+		public void queue(ChannelServer<?>.Connection connection)
+				throws IOException {
+			connection.transfer(FileChannel.open(file), position, size);
+		}
+
+		@Override
+		public DirectContent region(long position, long count) {
+			return new FileContent(file, this.position + position, count);
+		}
+	}
+
+	private static class BufferContent implements DirectContent {
+
+		private static final int COPY_BUFFER_SIZE = 0x2000;
+
+		private final ByteBuffer buffer;
+
+		BufferContent(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public long size() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public void write(OutputStream out) throws IOException {
+			if (buffer.hasArray()) {
+				out.write(buffer.array(),
+						buffer.arrayOffset() + buffer.position(),
+						buffer.remaining());
+				return;
+			}
+			ByteBuffer source = buffer.duplicate();
+			ByteBuffer pooled = BufferPool.HEAP.acquire(
+					Math.min(COPY_BUFFER_SIZE, source.remaining()));
+			try {
+				byte[] copy = pooled.array();
+				while (source.hasRemaining()) {
+					int count = Math.min(pooled.limit(), source.remaining());
+					source.get(copy, 0, count);
+					out.write(copy, 0, count);
+				}
+			} finally {
+				BufferPool.HEAP.release(pooled);
+			}
+		}
+
+		@Override
+		public void write(WritableByteChannel channel) throws IOException {
+			ByteBuffer source = buffer.duplicate();
+			while (source.hasRemaining()) {
+				channel.write(source);
+			}
+		}
+
+		@Override
+		public void queue(ChannelServer<?>.Connection connection)
+				throws IOException {
+			connection.write(buffer.duplicate());
+		}
+
+		@Override
+		public DirectContent region(long position, long count) {
+			ByteBuffer region = buffer.duplicate();
+			int start = buffer.position() + (int) position;
+			region.limit(start + (int) count).position(start);
+			return new BufferContent(region.slice());
+		}
+	}
+
+	/**
+	 * The parts of a {@code multipart/byteranges} body, in order.
+	 */
+	private static class MultipartContent implements DirectContent {
+
+		private final List<DirectContent> parts;
+		private final long size;
+
+		MultipartContent(List<DirectContent> parts) {
+			this.parts = parts;
+			long total = 0;
+			for (DirectContent part : parts) {
+				total += part.size();
+			}
+			this.size = total;
+		}
+
+		@Override
+		public long size() {
+			return size;
+		}
+
+		@Override
+		public void write(OutputStream out) throws IOException {
+			for (DirectContent part : parts) {
+				part.write(out);
+			}
+		}
+
+		@Override
+		public void write(WritableByteChannel channel) throws IOException {
+			for (DirectContent part : parts) {
+				part.write(channel);
+			}
+		}
+
+		@Override
+		public void queue(ChannelServer<?>.Connection connection)
+				throws IOException {
+			for (DirectContent part : parts) {
+				part.queue(connection);
+			}
+		}
+
+		@Override
+		public DirectContent region(long position, long count) {
+			List<DirectContent> region = new ArrayList<>();
+			for (DirectContent part : parts) {
+				if (count == 0) {
+					break;
+				}
+				long partSize = part.size();
+				if (position >= partSize) {
+					position -= partSize;
+					continue;
+				}
+				long length = Math.min(partSize - position, count);
+				region.add(position == 0 && length == partSize
+						? part : part.region(position, length));
+				position = 0;
+				count -= length;
+			}
+			return new MultipartContent(region);
+		}
+	}
+
+	private static final Content NO_CONTENT = new Content() {
+
+		@Override
+		public void write(OutputStream out) {
+			// Do nothing
+		}
+	};
+
+}
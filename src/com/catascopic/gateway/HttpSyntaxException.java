@@ -2,4 +2,27 @@ package com.catascopic.gateway;
 
 public class HttpSyntaxException extends Exception {
 
+	private final HttpStatus status;
+
+	public HttpSyntaxException() {
+		this(HttpStatus._400_BAD_REQUEST);
+	}
+
+	/**
+	 * @param status
+	 *            the status to answer the request with
+	 */
+	public HttpSyntaxException(HttpStatus status) {
+		this.status = status;
+	}
+
+	/**
+	 * Returns the status to answer the request with, which is
+	 * {@code 400 Bad Request} unless the request was refused for a more
+	 * specific reason.
+	 */
+	public HttpStatus status() {
+		return status;
+	}
+
 }
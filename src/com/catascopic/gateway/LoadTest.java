@@ -0,0 +1,196 @@
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+
+/**
+ * Opens many keep-alive connections to a {@link GatewayServer} in each
+ * {@link GatewayServer.Mode} and reports how many of them were served while
+ * all of them were open, and the latency of their requests.
+ * <p>
+ * Usage: {@code LoadTest [connections] [requests] [threads] [modes...]}
+ */
+public class LoadTest {
+
+	private static final int FIRST_PORT = 18080;
+	private static final int TIMEOUT_MILLIS = 5000;
+	private static final long CLIENT_STACK_SIZE = 0x10000;
+	private static final byte[] REQUEST = ("GET /index.html HTTP/1.1\r\n"
+			+ "Host: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+	public static void main(String[] args) throws Exception {
+		int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		GatewayServer.Mode[] modes = GatewayServer.Mode.values();
+		if (args.length > 3) {
+			modes = new GatewayServer.Mode[args.length - 3];
+			for (int i = 3; i < args.length; i++) {
+				modes[i - 3] = GatewayServer.Mode.valueOf(args[i].toUpperCase());
+			}
+		}
+		System.out.printf("%-9s %12s %9s %9s %9s %9s%n", "mode", "concurrent",
+				"failures", "p50 ms", "p99 ms", "max ms");
+		for (GatewayServer.Mode mode : modes) {
+			int port = FIRST_PORT + mode.ordinal();
+			int selectors = Runtime.getRuntime().availableProcessors();
+			final Acceptor server;
+			try {
+				server = mode.create(new InetSocketAddress("127.0.0.1", port),
+						mode == GatewayServer.Mode.SELECTOR ? selectors : threads,
+						new GatewayServer(Paths.get(".")));
+			} catch (IllegalStateException e) {
+				System.out.printf("%-9s %s%n", mode, e.getMessage());
+				continue;
+			}
+			Thread acceptor = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						server.run();
+					} catch (IOException e) {
+						if (!server.isClosed()) {
+							e.printStackTrace();
+						}
+					}
+				}
+			});
+			acceptor.start();
+			Thread.sleep(200);
+			try {
+				run(mode, port, connections, requests);
+			} finally {
+				server.close();
+				acceptor.join();
+			}
+		}
+	}
+
+	private static void run(GatewayServer.Mode mode, final int port,
+			int connections, final int requests) throws InterruptedException {
+		final CountDownLatch opened = new CountDownLatch(connections);
+		final CountDownLatch served = new CountDownLatch(connections);
+		final CountDownLatch finished = new CountDownLatch(connections);
+		final AtomicInteger failures = new AtomicInteger();
+		final long[][] latencies = new long[connections][];
+		for (int i = 0; i < connections; i++) {
+			final int client = i;
+			Thread thread = new Thread(null, new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						latencies[client] = connect(port, requests, opened,
+								served);
+					} catch (IOException | InterruptedException e) {
+						failures.incrementAndGet();
+					} finally {
+						finished.countDown();
+					}
+				}
+			}, "client-" + i, CLIENT_STACK_SIZE);
+			thread.start();
+		}
+		finished.await();
+
+		int concurrent = 0;
+		int count = 0;
+		for (long[] clientLatencies : latencies) {
+			if (clientLatencies != null) {
+				concurrent++;
+				count += clientLatencies.length;
+			}
+		}
+		long[] all = new long[count];
+		int index = 0;
+		for (long[] clientLatencies : latencies) {
+			if (clientLatencies != null) {
+				System.arraycopy(clientLatencies, 0, all, index,
+						clientLatencies.length);
+				index += clientLatencies.length;
+			}
+		}
+		Arrays.sort(all);
+		System.out.printf("%-9s %12d %9d %9.2f %9.2f %9.2f%n", mode,
+				concurrent, failures.get(), millis(percentile(all, 50)),
+				millis(percentile(all, 99)),
+				millis(all.length == 0 ? 0 : all[all.length - 1]));
+	}
+
+	/**
+	 * Opens a connection, waits until every client has opened its own, and
+	 * sends requests one at a time on it. The connection is then held open
+	 * until every client has been served or has failed, so that a server
+	 * that cannot serve all connections at once makes the rest time out.
+	 */
+	private static long[] connect(int port, int requests,
+			CountDownLatch opened, CountDownLatch served)
+			throws IOException, InterruptedException {
+		try (Socket socket = new Socket()) {
+			try {
+				socket.connect(new InetSocketAddress("127.0.0.1", port),
+						TIMEOUT_MILLIS);
+			} finally {
+				opened.countDown();
+			}
+			socket.setSoTimeout(TIMEOUT_MILLIS);
+			socket.setTcpNoDelay(true);
+			opened.await();
+			OutputStream out = socket.getOutputStream();
+			HttpReader reader = new HttpReader(socket.getInputStream());
+			long[] latencies = new long[requests];
+			try {
+				for (int i = 0; i < requests; i++) {
+					long start = System.nanoTime();
+					out.write(REQUEST);
+					out.flush();
+					readResponse(reader);
+					latencies[i] = System.nanoTime() - start;
+				}
+			} finally {
+				served.countDown();
+			}
+			served.await();
+			return latencies;
+		}
+	}
+
+	private static void readResponse(HttpReader reader) throws IOException {
+		reader.readLine();
+		Map<String, String> headers = reader.parseHeaders();
+		String length = headers.get(HttpHeaders.CONTENT_LENGTH);
+		if (length != null) {
+			try (InputStream content =
+					reader.streamContent(Integer.parseInt(length))) {
+				ByteStreams.exhaust(content);
+			}
+		}
+	}
+
+	private static long percentile(long[] sorted, int percentile) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(index, 0)];
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.catascopic.gateway;
+
+import java.nio.file.Path;
+import java.util.Locale;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.MediaType;
+
+/**
+ * Guesses the media types of static files from their extensions.
+ */
+final class MediaTypes {
+
+	private static final ImmutableMap<String, MediaType> BY_EXTENSION =
+			ImmutableMap.<String, MediaType> builder()
+					.put("html", MediaType.HTML_UTF_8)
+					.put("htm", MediaType.HTML_UTF_8)
+					.put("css", MediaType.CSS_UTF_8)
+					.put("js", MediaType.JAVASCRIPT_UTF_8)
+					.put("mjs", MediaType.JAVASCRIPT_UTF_8)
+					.put("json", MediaType.JSON_UTF_8)
+					.put("map", MediaType.JSON_UTF_8)
+					.put("xml", MediaType.XML_UTF_8)
+					.put("txt", MediaType.PLAIN_TEXT_UTF_8)
+					.put("csv", MediaType.CSV_UTF_8)
+					.put("svg", MediaType.SVG_UTF_8)
+					.put("ico", MediaType.ICO)
+					.put("png", MediaType.PNG)
+					.put("gif", MediaType.GIF)
+					.put("jpg", MediaType.JPEG)
+					.put("jpeg", MediaType.JPEG)
+					.put("webp", MediaType.WEBP)
+					.put("woff", MediaType.WOFF)
+					.put("woff2", MediaType.WOFF2)
+					.put("ttf", MediaType.create("font", "ttf"))
+					.put("otf", MediaType.create("font", "otf"))
+					.put("wasm", MediaType.create("application", "wasm"))
+					.put("pdf", MediaType.PDF)
+					.put("zip", MediaType.ZIP)
+					.put("gz", MediaType.GZIP)
+					.put("mp3", MediaType.MPEG_AUDIO)
+					.put("mp4", MediaType.MP4_VIDEO)
+					.put("webm", MediaType.WEBM_VIDEO)
+					.build();
+
+	private MediaTypes() {}
+
+	/**
+	 * Returns the media type of a file, or {@code application/octet-stream}
+	 * if the extension is not known.
+	 */
+	static MediaType forFile(Path file) {
+		String name = file.getFileName().toString();
+		int dot = name.lastIndexOf('.');
+		if (dot != -1) {
+			MediaType type = BY_EXTENSION.get(
+					name.substring(dot + 1).toLowerCase(Locale.ROOT));
+			if (type != null) {
+				return type;
+			}
+		}
+		return MediaType.OCTET_STREAM;
+	}
+
+	/**
+	 * Returns whether content of a media type is worth compressing. Images,
+	 * audio, video, archives and WOFF fonts are compressed already.
+	 */
+	static boolean isCompressible(MediaType type) {
+		String subtype = type.subtype();
+		switch (type.type()) {
+		case "text":
+			return true;
+		case "application":
+			return subtype.equals("javascript") || subtype.equals("wasm")
+					|| subtype.endsWith("json") || subtype.endsWith("xml");
+		case "image":
+			return subtype.equals("svg+xml")
+					|| subtype.equals("vnd.microsoft.icon");
+		case "font":
+			return subtype.equals("ttf") || subtype.equals("otf");
+		default:
+			return false;
+		}
+	}
+
+}
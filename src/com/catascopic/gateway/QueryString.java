@@ -0,0 +1,203 @@
+package com.catascopic.gateway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A view of the parameters of a query string. The string is split into
+ * parameters once, recording where each name and value starts and ends, and
+ * a name or value is only decoded when it is asked for. Parameters can also
+ * be read through their offsets into {@link #raw()} without decoding or
+ * copying anything.
+ * <p>
+ * Parameters past the maximum count, or past the maximum length of the
+ * query, are ignored, and {@link #isTruncated()} reports that some were.
+ */
+public final class QueryString {
+
+	public static final int DEFAULT_MAX_PARAMETERS = 256;
+	public static final int DEFAULT_MAX_LENGTH = 0x10000;
+
+	private static final int FIELDS = 4;
+	private static final int INITIAL_CAPACITY = 8;
+
+	private final String raw;
+	// nameStart, nameEnd, valueStart, valueEnd for each parameter
+	private final int[] offsets;
+	private final int size;
+	private final boolean truncated;
+
+	public QueryString(String raw) {
+		this(raw, DEFAULT_MAX_PARAMETERS, DEFAULT_MAX_LENGTH);
+	}
+
+	public QueryString(String raw, int maxParameters, int maxLength) {
+		this.raw = raw;
+		int end = Math.min(raw.length(), maxLength);
+		boolean truncated = end < raw.length();
+		int[] offsets = new int[INITIAL_CAPACITY * FIELDS];
+		int size = 0;
+		int start = 0;
+		while (start < end) {
+			int next = raw.indexOf('&', start);
+			if (next == -1) {
+				next = raw.length();
+			}
+			if (next > end) {
+				// cut off by the maximum length
+				break;
+			}
+			if (next > start) {
+				if (size == maxParameters) {
+					truncated = true;
+					break;
+				}
+				if ((size + 1) * FIELDS > offsets.length) {
+					offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				}
+				int equals = raw.indexOf('=', start);
+				if (equals == -1 || equals > next) {
+					equals = next;
+				}
+				int i = size * FIELDS;
+				offsets[i] = start;
+				offsets[i + 1] = equals;
+				offsets[i + 2] = Math.min(equals + 1, next);
+				offsets[i + 3] = next;
+				size++;
+			}
+			start = next + 1;
+		}
+		this.offsets = offsets;
+		this.size = size;
+		this.truncated = truncated;
+	}
+
+	/**
+	 * Returns the query string as it was received.
+	 */
+	public String raw() {
+		return raw;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns whether some parameters were ignored because of the limits.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public int nameStart(int index) {
+		return offset(index, 0);
+	}
+
+	public int nameEnd(int index) {
+		return offset(index, 1);
+	}
+
+	public int valueStart(int index) {
+		return offset(index, 2);
+	}
+
+	public int valueEnd(int index) {
+		return offset(index, 3);
+	}
+
+	/**
+	 * Returns the decoded name of a parameter.
+	 */
+	public String name(int index) {
+		return UriParser.decode(raw, nameStart(index), nameEnd(index), true);
+	}
+
+	/**
+	 * Returns the decoded value of a parameter, which is empty if it had no
+	 * {@code =}.
+	 */
+	public String value(int index) {
+		return UriParser.decode(raw, valueStart(index), valueEnd(index), true);
+	}
+
+	/**
+	 * Returns the index of the first parameter with the given name, or -1.
+	 */
+	public int indexOf(String name) {
+		return indexOf(name, 0);
+	}
+
+	private int indexOf(String name, int from) {
+		for (int index = from; index < size; index++) {
+			if (nameEquals(index, name)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the decoded value of the first parameter with the given name,
+	 * or {@code null} if there is none.
+	 */
+	public String get(String name) {
+		int index = indexOf(name);
+		return index == -1 ? null : value(index);
+	}
+
+	/**
+	 * Returns the decoded values of every parameter with the given name, in
+	 * order.
+	 */
+	public List<String> getAll(String name) {
+		int index = indexOf(name);
+		if (index == -1) {
+			return Collections.emptyList();
+		}
+		List<String> values = new ArrayList<>(2);
+		do {
+			values.add(value(index));
+			index = indexOf(name, index + 1);
+		} while (index != -1);
+		return values;
+	}
+
+	/**
+	 * Returns whether the decoded name of a parameter equals the given name.
+	 * Names without escapes are compared in place.
+	 */
+	public boolean nameEquals(int index, String name) {
+		int start = nameStart(index);
+		int end = nameEnd(index);
+		for (int i = start; i < end; i++) {
+			char c = raw.charAt(i);
+			if (c == '%' || c == '+' || c > 0x7F) {
+				return UriParser.decode(raw, start, end, true).equals(name);
+			}
+		}
+		return end - start == name.length()
+				&& raw.regionMatches(start, name, 0, name.length());
+	}
+
+	private int offset(int index, int field) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(
+					"parameter " + index + " of " + size);
+		}
+		return offsets[index * FIELDS + field];
+	}
+
+	@Override
+	public String toString() {
+		return raw;
+	}
+
+}
@@ -1,28 +1,166 @@
-package com.catascopic.gateway;
-
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-
-import org.joda.time.DateTime;
-
-import com.google.common.net.HttpHeaders;
-
-public class RegularFileHandler extends Handler {
-
-	@Override
-	public void get(Path file, HttpRequest request, HttpResponse response) throws IOException {
-		if (!Files.exists(file)) {
-			_404Handler.INSTANCE.get(file, request, response);
-			return;
-		}
-		DateTime modifiedTime = HttpDateTimeFormat.getLastModifiedTime(file);
-		DateTime ifModifiedSince = request.getHeaderAsDateTime(HttpHeaders.IF_MODIFIED_SINCE);
-		if (ifModifiedSince != null && !modifiedTime.isAfter(ifModifiedSince)) {
-			response.setStatus(HttpStatus._304_NOT_MODIFIED);
-			return;
-		}
-		response.setStatus(HttpStatus._200_OK).setContentAndLastModified(file);
-	}
-
-}
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.google.common.net.HttpHeaders;
+
+public class RegularFileHandler {
+
+	private static final String WEAK_PREFIX = "W/";
+	private static final String BYTES = "bytes";
+
+	private final ContentCache cache;
+
+	public RegularFileHandler() {
+		this(new ContentCache());
+	}
+
+	public RegularFileHandler(ContentCache cache) {
+		this.cache = cache;
+	}
+
+	public HttpResponse get(Path file, HttpRequest request) throws IOException {
+		ContentCache.Entry entry = cache.get(file);
+		if (entry == null) {
+			return _404Handler.INSTANCE.get(null, request);
+		}
+		HttpResponse response = new HttpResponse()
+				.setHeader(HttpHeaders.LAST_MODIFIED, entry.lastModified());
+		// the representation sent, which is the file or a compressed variant
+		ContentCache.Entry selected = entry;
+		if (MediaTypes.isCompressible(entry.contentType())) {
+			response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+			String acceptEncoding =
+					request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+			if (acceptEncoding != null) {
+				for (ContentEncoding encoding
+						: ContentEncoding.accepted(acceptEncoding)) {
+					ContentCache.Entry variant = cache.variant(entry, encoding);
+					if (variant != null) {
+						selected = variant;
+						response.setHeader(HttpHeaders.CONTENT_ENCODING,
+								encoding.token());
+						break;
+					}
+				}
+			}
+		}
+		String etag = selected.etag();
+		response.setHeader(HttpHeaders.ETAG, etag);
+		String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch != null) {
+			// If-Modified-Since is ignored when If-None-Match is present
+			if (matches(ifNoneMatch, etag)) {
+				return response.setStatus(isSafe(request.method())
+						? HttpStatus._304_NOT_MODIFIED
+						: HttpStatus._412_PRECONDITION_FAILED);
+			}
+		} else {
+			long ifModifiedSince =
+					request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+			if (ifModifiedSince != HttpDateTimeFormat.INVALID
+					&& entry.lastModifiedMillis() <= ifModifiedSince) {
+				return response.setStatus(HttpStatus._304_NOT_MODIFIED);
+			}
+		}
+		response.setStatus(HttpStatus._200_OK)
+				.setHeader(HttpHeaders.ACCEPT_RANGES, BYTES)
+				.setContentType(entry.contentType());
+		ByteBuffer content = selected.content();
+		if (content == null) {
+			response.setContent(selected.file(), 0, selected.length());
+		} else {
+			response.setContent(content);
+		}
+		String range = request.getHeader(HttpHeaders.RANGE);
+		if (range != null && request.method() == HttpMethod.GET
+				&& ifRange(request, entry, etag)) {
+			List<ByteRange> ranges =
+					ByteRange.parse(range, selected.length());
+			if (ranges != null) {
+				if (ranges.isEmpty()) {
+					return HttpResponse
+							.plainText(HttpStatus._416_RANGE_NOT_SATISFIABLE)
+							.setHeader(HttpHeaders.CONTENT_RANGE,
+									ByteRange.unsatisfiedRange(
+											selected.length()));
+				}
+				response.setRanges(ranges);
+			}
+		}
+		return response;
+	}
+
+	/**
+	 * Returns whether a {@code Range} header applies, which it does unless an
+	 * {@code If-Range} header names a different version of the file. Entity
+	 * tags are compared strongly, and dates must match exactly.
+	 */
+	private static boolean ifRange(HttpRequest request,
+			ContentCache.Entry entry, String etag) {
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if (ifRange == null) {
+			return true;
+		}
+		if (ifRange.startsWith("\"") || ifRange.startsWith(WEAK_PREFIX)) {
+			return !etag.startsWith(WEAK_PREFIX) && ifRange.equals(etag);
+		}
+		return HttpDateTimeFormat.parseMillis(ifRange)
+				== entry.lastModifiedMillis();
+	}
+
+	private static boolean isSafe(HttpMethod method) {
+		return method == HttpMethod.GET || method == HttpMethod.HEAD;
+	}
+
+	/**
+	 * Returns whether an {@code If-None-Match} header matches an entity tag.
+	 * The header is either {@code *} or a list of entity tags, which are
+	 * compared weakly, ignoring any {@code W/} prefix.
+	 */
+	static boolean matches(String ifNoneMatch, String etag) {
+		int tagStart = etag.startsWith(WEAK_PREFIX) ? WEAK_PREFIX.length() : 0;
+		int tagLength = etag.length() - tagStart;
+		int length = ifNoneMatch.length();
+		int i = 0;
+		for (;;) {
+			while (i < length && isListSeparator(ifNoneMatch.charAt(i))) {
+				i++;
+			}
+			if (i == length) {
+				return false;
+			}
+			if (ifNoneMatch.charAt(i) == '*') {
+				return true;
+			}
+			if (ifNoneMatch.startsWith(WEAK_PREFIX, i)) {
+				i += WEAK_PREFIX.length();
+			}
+			if (i == length || ifNoneMatch.charAt(i) != '"') {
+				// not an entity tag; skip to the next element
+				while (i < length && ifNoneMatch.charAt(i) != ',') {
+					i++;
+				}
+				continue;
+			}
+			int end = ifNoneMatch.indexOf('"', i + 1);
+			if (end == -1) {
+				return false;
+			}
+			end++;
+			if (end - i == tagLength
+					&& ifNoneMatch.regionMatches(i, etag, tagStart, tagLength)) {
+				return true;
+			}
+			i = end;
+		}
+	}
+
+	private static boolean isListSeparator(char c) {
+		return c == ',' || c == ' ' || c == '\t';
+	}
+
+}
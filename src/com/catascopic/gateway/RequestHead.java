@@ -0,0 +1,274 @@
+package com.catascopic.gateway;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The request line and header fields of an HTTP request, stored as offsets
+ * into the buffer of the {@link HttpReader} that read them. A head is reused
+ * by its reader and is only valid until the next read from that reader.
+ */
+public final class RequestHead {
+
+	private static final int FIELD_WIDTH = 4;
+	private static final int NAME_START = 0;
+	private static final int NAME_END = 1;
+	private static final int VALUE_START = 2;
+	private static final int VALUE_END = 3;
+
+	private byte[] buf;
+	private int start;
+	private int end;
+
+	private int methodEnd;
+	private int targetStart;
+	private int targetEnd;
+	private int versionStart;
+	private int requestLineEnd;
+
+	private int[] fields = new int[16 * FIELD_WIDTH];
+	// the well-known name of each field, or null
+	private String[] names = new String[16];
+	private int fieldCount;
+
+	RequestHead() {}
+
+	void reset() {
+		buf = null;
+		fieldCount = 0;
+		requestLineEnd = -1;
+	}
+
+	/**
+	 * Records a line of the head. Offsets are relative to the start of the
+	 * head, which is at {@code base} in the buffer, and exclude the CRLF.
+	 */
+	void addLine(byte[] buf, int base, int lineStart, int lineEnd)
+			throws HttpSyntaxException {
+		if (requestLineEnd == -1) {
+			parseRequestLine(buf, base, lineStart, lineEnd);
+		} else {
+			addField(buf, base, lineStart, lineEnd);
+		}
+	}
+
+	void finish(byte[] buf, int start, int end) throws HttpSyntaxException {
+		if (requestLineEnd == -1) {
+			throw new HttpSyntaxException();
+		}
+		this.buf = buf;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Follows the head to where its bytes have been moved, as every offset is
+	 * relative to its start.
+	 */
+	void moved(byte[] buf, int start) {
+		this.end = start + (end - this.start);
+		this.buf = buf;
+		this.start = start;
+	}
+
+	private void parseRequestLine(byte[] buf, int base, int from, int to)
+			throws HttpSyntaxException {
+		int firstSpace = indexOf(buf, base + from, base + to, (byte) ' ') - base;
+		int lastSpace = lastIndexOf(buf, base + from, base + to, (byte) ' ') - base;
+		if (firstSpace <= from || lastSpace <= firstSpace + 1
+				|| lastSpace == to - 1) {
+			throw new HttpSyntaxException();
+		}
+		methodEnd = firstSpace;
+		targetStart = firstSpace + 1;
+		targetEnd = lastSpace;
+		versionStart = lastSpace + 1;
+		requestLineEnd = to;
+	}
+
+	private void addField(byte[] buf, int base, int from, int to)
+			throws HttpSyntaxException {
+		byte first = buf[base + from];
+		if (first == ' ' || first == '\t') {
+			// obsolete line folding
+			throw new HttpSyntaxException();
+		}
+		int colon = indexOf(buf, base + from, base + to, (byte) ':') - base;
+		if (colon <= from || isWhitespace(buf[base + colon - 1])) {
+			throw new HttpSyntaxException();
+		}
+		int valueStart = colon + 1;
+		while (valueStart < to && isWhitespace(buf[base + valueStart])) {
+			valueStart++;
+		}
+		int valueEnd = to;
+		while (valueEnd > valueStart && isWhitespace(buf[base + valueEnd - 1])) {
+			valueEnd--;
+		}
+		int index = fieldCount * FIELD_WIDTH;
+		if (index == fields.length) {
+			fields = Arrays.copyOf(fields, fields.length * 2);
+			names = Arrays.copyOf(names, names.length * 2);
+		}
+		fields[index + NAME_START] = from;
+		fields[index + NAME_END] = colon;
+		fields[index + VALUE_START] = valueStart;
+		fields[index + VALUE_END] = valueEnd;
+		names[fieldCount] = RequestHeaders.intern(buf, base + from, base + colon);
+		fieldCount++;
+	}
+
+	public byte[] buffer() {
+		return buf;
+	}
+
+	public int start() {
+		return start;
+	}
+
+	public int end() {
+		return end;
+	}
+
+	public String method() {
+		return ascii(start, start + methodEnd);
+	}
+
+	public String target() {
+		return ascii(start + targetStart, start + targetEnd);
+	}
+
+	public int targetStart() {
+		return start + targetStart;
+	}
+
+	public int targetEnd() {
+		return start + targetEnd;
+	}
+
+	public String version() {
+		return ascii(start + versionStart, start + requestLineEnd);
+	}
+
+	public String requestLine() {
+		return ascii(start, start + requestLineEnd);
+	}
+
+	public int fieldCount() {
+		return fieldCount;
+	}
+
+	public int nameStart(int field) {
+		return start + fields[field * FIELD_WIDTH + NAME_START];
+	}
+
+	public int nameEnd(int field) {
+		return start + fields[field * FIELD_WIDTH + NAME_END];
+	}
+
+	public int valueStart(int field) {
+		return start + fields[field * FIELD_WIDTH + VALUE_START];
+	}
+
+	public int valueEnd(int field) {
+		return start + fields[field * FIELD_WIDTH + VALUE_END];
+	}
+
+	public String name(int field) {
+		return ascii(nameStart(field), nameEnd(field));
+	}
+
+	public String value(int field) {
+		return ascii(valueStart(field), valueEnd(field));
+	}
+
+	/**
+	 * Returns the {@link com.google.common.net.HttpHeaders} constant for the
+	 * name of a field, or {@code null} if it is not a well-known name.
+	 */
+	String knownName(int field) {
+		return names[field];
+	}
+
+	/**
+	 * Compares the name of a field to the given name, ignoring ASCII case,
+	 * without allocating.
+	 */
+	public boolean nameEquals(int field, String name) {
+		return RequestHeaders.nameEquals(names[field], buf, nameStart(field),
+				nameEnd(field), name);
+	}
+
+	/**
+	 * Returns the value of the first field with the given name, or
+	 * {@code null} if there is none.
+	 */
+	public String get(String name) {
+		for (int i = 0; i < fieldCount; i++) {
+			if (nameEquals(i, name)) {
+				return value(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the values of every field with the given name, in the order
+	 * they were received.
+	 */
+	public List<String> getAll(String name) {
+		List<String> values = Collections.emptyList();
+		for (int i = 0; i < fieldCount; i++) {
+			if (nameEquals(i, name)) {
+				if (values.isEmpty()) {
+					values = new ArrayList<>(2);
+				}
+				values.add(value(i));
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Copies the header fields, which unlike the head stay valid after the
+	 * next read.
+	 */
+	public RequestHeaders headers() {
+		return RequestHeaders.copyOf(this);
+	}
+
+	private String ascii(int from, int to) {
+		return new String(buf, from, to - from, StandardCharsets.ISO_8859_1);
+	}
+
+	static int indexOf(byte[] buf, int from, int to, byte b) {
+		for (int i = from; i < to; i++) {
+			if (buf[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(byte[] buf, int from, int to, byte b) {
+		for (int i = to - 1; i >= from; i--) {
+			if (buf[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	@Override
+	public String toString() {
+		return buf == null ? "RequestHead[]" : requestLine();
+	}
+
+}
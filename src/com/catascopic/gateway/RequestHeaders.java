@@ -0,0 +1,283 @@
+package com.catascopic.gateway;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.net.HttpHeaders;
+
+/**
+ * The header fields of a request, as a copy of the bytes they were received
+ * in and the offsets of each name and value. Names are compared without
+ * regard to case, and a name may appear more than once.
+ * <p>
+ * Well-known names are replaced by the {@link HttpHeaders} constant for them
+ * when the head is read, so that looking up a field by one of those
+ * constants is an identity comparison. Values are only turned into strings
+ * when they are asked for.
+ */
+public final class RequestHeaders {
+
+	private static final int FIELD_WIDTH = 4;
+	private static final int NAME_START = 0;
+	private static final int NAME_END = 1;
+	private static final int VALUE_START = 2;
+	private static final int VALUE_END = 3;
+
+	private static final String[] KNOWN = {
+			HttpHeaders.ACCEPT,
+			HttpHeaders.ACCEPT_CHARSET,
+			HttpHeaders.ACCEPT_ENCODING,
+			HttpHeaders.ACCEPT_LANGUAGE,
+			HttpHeaders.AUTHORIZATION,
+			HttpHeaders.CACHE_CONTROL,
+			HttpHeaders.CONNECTION,
+			HttpHeaders.CONTENT_LENGTH,
+			HttpHeaders.CONTENT_TYPE,
+			HttpHeaders.COOKIE,
+			HttpHeaders.DNT,
+			HttpHeaders.EXPECT,
+			HttpHeaders.HOST,
+			HttpHeaders.IF_MATCH,
+			HttpHeaders.IF_MODIFIED_SINCE,
+			HttpHeaders.IF_NONE_MATCH,
+			HttpHeaders.IF_RANGE,
+			HttpHeaders.IF_UNMODIFIED_SINCE,
+			HttpHeaders.ORIGIN,
+			HttpHeaders.PRAGMA,
+			HttpHeaders.RANGE,
+			HttpHeaders.REFERER,
+			HttpHeaders.SEC_WEBSOCKET_EXTENSIONS,
+			HttpHeaders.SEC_WEBSOCKET_KEY,
+			HttpHeaders.SEC_WEBSOCKET_PROTOCOL,
+			HttpHeaders.SEC_WEBSOCKET_VERSION,
+			HttpHeaders.TE,
+			HttpHeaders.TRAILER,
+			HttpHeaders.TRANSFER_ENCODING,
+			HttpHeaders.UPGRADE,
+			HttpHeaders.UPGRADE_INSECURE_REQUESTS,
+			HttpHeaders.USER_AGENT,
+			HttpHeaders.VIA,
+			HttpHeaders.X_FORWARDED_FOR,
+			HttpHeaders.X_FORWARDED_HOST,
+			HttpHeaders.X_FORWARDED_PROTO,
+			HttpHeaders.X_REQUESTED_WITH,
+	};
+
+	// the known names of each length
+	private static final String[][] KNOWN_BY_LENGTH;
+
+	static {
+		int maxLength = 0;
+		for (String name : KNOWN) {
+			maxLength = Math.max(maxLength, name.length());
+		}
+		KNOWN_BY_LENGTH = new String[maxLength + 1][0];
+		for (String name : KNOWN) {
+			String[] names = KNOWN_BY_LENGTH[name.length()];
+			names = Arrays.copyOf(names, names.length + 1);
+			names[names.length - 1] = name;
+			KNOWN_BY_LENGTH[name.length()] = names;
+		}
+	}
+
+	private final byte[] buf;
+	private final int[] fields;
+	// the known name of each field, or null
+	private final String[] names;
+	private final int size;
+
+	private RequestHeaders(byte[] buf, int[] fields, String[] names, int size) {
+		this.buf = buf;
+		this.fields = fields;
+		this.names = names;
+		this.size = size;
+	}
+
+	/**
+	 * Copies the fields of a head, which is only valid until its reader reads
+	 * again.
+	 */
+	static RequestHeaders copyOf(RequestHead head) {
+		int size = head.fieldCount();
+		if (size == 0) {
+			return new RequestHeaders(new byte[0], new int[0], new String[0], 0);
+		}
+		int from = head.nameStart(0);
+		int to = head.valueEnd(size - 1);
+		byte[] buf = Arrays.copyOfRange(head.buffer(), from, to);
+		int[] fields = new int[size * FIELD_WIDTH];
+		String[] names = new String[size];
+		for (int i = 0; i < size; i++) {
+			int index = i * FIELD_WIDTH;
+			fields[index + NAME_START] = head.nameStart(i) - from;
+			fields[index + NAME_END] = head.nameEnd(i) - from;
+			fields[index + VALUE_START] = head.valueStart(i) - from;
+			fields[index + VALUE_END] = head.valueEnd(i) - from;
+			names[i] = head.knownName(i);
+		}
+		return new RequestHeaders(buf, fields, names, size);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the name of a field, which is spelled as the
+	 * {@link HttpHeaders} constant if it is a well-known name.
+	 */
+	public String name(int field) {
+		String name = names[checkIndex(field)];
+		return name != null ? name : ascii(field, NAME_START, NAME_END);
+	}
+
+	public String value(int field) {
+		return ascii(checkIndex(field), VALUE_START, VALUE_END);
+	}
+
+	public boolean nameEquals(int field, String name) {
+		int index = checkIndex(field) * FIELD_WIDTH;
+		return nameEquals(names[field], buf, fields[index + NAME_START],
+				fields[index + NAME_END], name);
+	}
+
+	/**
+	 * Returns the value of the first field with the given name, or
+	 * {@code null} if there is none.
+	 */
+	public String get(String name) {
+		int field = indexOf(name, 0);
+		return field == -1 ? null : value(field);
+	}
+
+	/**
+	 * Returns the values of every field with the given name, in the order
+	 * they were received.
+	 */
+	public List<String> getAll(String name) {
+		int field = indexOf(name, 0);
+		if (field == -1) {
+			return Collections.emptyList();
+		}
+		List<String> values = new ArrayList<>(2);
+		do {
+			values.add(value(field));
+			field = indexOf(name, field + 1);
+		} while (field != -1);
+		return values;
+	}
+
+	/**
+	 * Returns the time of the first field with the given name, parsed from
+	 * its bytes, or {@link HttpDateTimeFormat#INVALID} if there is no such
+	 * field or it is not a valid date.
+	 */
+	public long getDate(String name) {
+		int field = indexOf(name, 0);
+		if (field == -1) {
+			return HttpDateTimeFormat.INVALID;
+		}
+		int index = field * FIELD_WIDTH;
+		return HttpDateTimeFormat.parseMillis(buf, fields[index + VALUE_START],
+				fields[index + VALUE_END]);
+	}
+
+	public boolean contains(String name) {
+		return indexOf(name, 0) != -1;
+	}
+
+	private int indexOf(String name, int from) {
+		for (int i = from; i < size; i++) {
+			int index = i * FIELD_WIDTH;
+			if (nameEquals(names[i], buf, fields[index + NAME_START],
+					fields[index + NAME_END], name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private String ascii(int field, int start, int end) {
+		int index = field * FIELD_WIDTH;
+		int from = fields[index + start];
+		return new String(buf, from, fields[index + end] - from,
+				StandardCharsets.ISO_8859_1);
+	}
+
+	private int checkIndex(int field) {
+		if (field < 0 || field >= size) {
+			throw new IndexOutOfBoundsException(
+					"field " + field + " of " + size);
+		}
+		return field;
+	}
+
+	/**
+	 * Returns the {@link HttpHeaders} constant that the given bytes spell,
+	 * ignoring case, or {@code null} if they are not a well-known name.
+	 */
+	static String intern(byte[] buf, int from, int to) {
+		int length = to - from;
+		if (length >= KNOWN_BY_LENGTH.length) {
+			return null;
+		}
+		for (String name : KNOWN_BY_LENGTH[length]) {
+			if (regionMatches(buf, from, to, name)) {
+				return name;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Compares a field name, whose known name is given if it has one, to the
+	 * given name without regard to case.
+	 */
+	static boolean nameEquals(String known, byte[] buf, int from, int to,
+			String name) {
+		if (known == name) {
+			return true;
+		}
+		if (known != null) {
+			return known.length() == name.length()
+					&& known.equalsIgnoreCase(name);
+		}
+		return regionMatches(buf, from, to, name);
+	}
+
+	/**
+	 * Compares bytes to a name, ignoring ASCII case, without allocating.
+	 */
+	static boolean regionMatches(byte[] buf, int from, int to, String name) {
+		int length = to - from;
+		if (length != name.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (toLowerCase(buf[from + i]) != toLowerCase(name.charAt(i))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int toLowerCase(int c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(name(i)).append('=').append(value(i));
+		}
+		return builder.append('}').toString();
+	}
+
+}
@@ -0,0 +1,280 @@
+package com.catascopic.gateway;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.net.HttpHeaders;
+
+/**
+ * Parses requests from bytes that arrive in arbitrary pieces, as they do from
+ * a non-blocking channel. Bytes are appended with {@link #feed(ByteBuffer)},
+ * and {@link #next()} resumes scanning where it left off. Bytes past the end
+ * of a request are kept for the next one, so pipelined requests are returned
+ * in order.
+ * <p>
+ * A chunked body is decoded as its bytes arrive, in place in the buffer, so
+ * that the decoded body ends up where a body with a length would be.
+ */
+final class RequestParser {
+
+	private static final int INITIAL_BUFFER_SIZE = 0x400;
+	private static final int DEFAULT_MAX_HEAD_SIZE = 0x10000;
+	private static final int DEFAULT_MAX_CONTENT_LENGTH = 0x100000;
+
+	private static final byte CR = '\r';
+	private static final byte LF = '\n';
+	// more hex digits than this might not fit in a long
+	private static final int MAX_CHUNK_SIZE_DIGITS = 15;
+
+	// what the next bytes of a chunked body are
+	private static final int CHUNK_SIZE = 0;
+	private static final int CHUNK_DATA = 1;
+	private static final int CHUNK_END = 2;
+	private static final int TRAILER = 3;
+
+	private final int maxHeadSize;
+	private final int maxContentLength;
+	private final RequestHead head = new RequestHead();
+
+	private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+	// start of the current request
+	private int pos;
+	private int limit;
+
+	// relative to pos
+	private int scanned;
+	private int lineStart;
+	private int headLength = -1;
+	private int contentLength;
+
+	// the state of a chunked body, if the request has one
+	private boolean chunked; // = false
+	private int chunkState;
+	private long chunkRemaining;
+	// relative to pos, how far the raw body has been decoded
+	private int bodyScanned;
+
+	RequestParser() {
+		this(DEFAULT_MAX_HEAD_SIZE, DEFAULT_MAX_CONTENT_LENGTH);
+	}
+
+	RequestParser(int maxHeadSize, int maxContentLength) {
+		this.maxHeadSize = maxHeadSize;
+		this.maxContentLength = maxContentLength;
+		head.reset();
+	}
+
+	/**
+	 * Appends all remaining bytes of the buffer.
+	 */
+	void feed(ByteBuffer data) {
+		int count = data.remaining();
+		if (buf.length - limit < count) {
+			System.arraycopy(buf, pos, buf, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+			if (buf.length - limit < count) {
+				buf = Arrays.copyOf(buf,
+						Math.max(buf.length * 2, limit + count));
+			}
+			if (headLength != -1) {
+				// the head of a request that awaits its body
+				head.moved(buf, pos);
+			}
+		}
+		data.get(buf, limit, count);
+		limit += count;
+	}
+
+	boolean hasBufferedBytes() {
+		return limit > pos;
+	}
+
+	/**
+	 * Returns the next complete request, or {@code null} if more bytes are
+	 * needed.
+	 *
+	 * @throws HttpSyntaxException
+	 *             if the request is malformed, or its content is larger than
+	 *             the largest allowed, for which the status is
+	 *             {@code 413 Payload Too Large}
+	 */
+	HttpRequest next() throws HttpSyntaxException {
+		if (headLength == -1 && !scanHead()) {
+			if (limit - pos > maxHeadSize) {
+				throw new HttpSyntaxException();
+			}
+			return null;
+		}
+		int length;
+		if (chunked) {
+			if (!scanChunks()) {
+				return null;
+			}
+			length = bodyScanned;
+		} else {
+			length = headLength + contentLength;
+			if (limit - pos < length) {
+				return null;
+			}
+		}
+		// the body is copied because the buffer is reused for the next request
+		HttpRequest request = HttpRequest.fromHead(head, contentLength == 0
+				? null
+				: new ByteArrayInputStream(Arrays.copyOfRange(buf,
+						pos + headLength, pos + headLength + contentLength)));
+		pos += length;
+		if (pos == limit) {
+			pos = 0;
+			limit = 0;
+		}
+		scanned = 0;
+		lineStart = 0;
+		headLength = -1;
+		contentLength = 0;
+		chunked = false;
+		head.reset();
+		return request;
+	}
+
+	private boolean scanHead() throws HttpSyntaxException {
+		for (;;) {
+			int lf = RequestHead.indexOf(buf, pos + scanned, limit, LF);
+			if (lf == -1) {
+				scanned = limit - pos;
+				return false;
+			}
+			int lineEnd = lf - 1 - pos;
+			if (lineEnd < lineStart || buf[lf - 1] != CR) {
+				throw new HttpSyntaxException();
+			}
+			scanned = lf + 1 - pos;
+			if (lineEnd > lineStart) {
+				head.addLine(buf, pos, lineStart, lineEnd);
+			} else if (lineStart == 0) {
+				// leading empty line
+				pos += scanned;
+				scanned = 0;
+				continue;
+			} else {
+				head.finish(buf, pos, pos + scanned);
+				headLength = scanned;
+				startContent();
+				return true;
+			}
+			lineStart = scanned;
+		}
+	}
+
+	private void startContent() throws HttpSyntaxException {
+		List<String> values = head.getAll(HttpHeaders.CONTENT_LENGTH);
+		if (HttpRequest.isChunked(head.getAll(HttpHeaders.TRANSFER_ENCODING),
+				values)) {
+			chunked = true;
+			chunkState = CHUNK_SIZE;
+			bodyScanned = headLength;
+			return;
+		}
+		if (values.isEmpty()) {
+			return;
+		}
+		long length = HttpRequest.contentLength(values);
+		if (length > maxContentLength) {
+			throw new HttpSyntaxException(HttpStatus._413_PAYLOAD_TOO_LARGE);
+		}
+		contentLength = (int) length;
+	}
+
+	/**
+	 * Decodes as much of a chunked body as has arrived, moving the data of
+	 * each chunk down to follow the data before it.
+	 *
+	 * @return whether the body and its trailer are complete
+	 */
+	private boolean scanChunks() throws HttpSyntaxException {
+		for (;;) {
+			if (chunkState == CHUNK_DATA) {
+				int count = (int) Math.min(chunkRemaining,
+						limit - pos - bodyScanned);
+				System.arraycopy(buf, pos + bodyScanned, buf,
+						pos + headLength + contentLength, count);
+				bodyScanned += count;
+				contentLength += count;
+				chunkRemaining -= count;
+				if (chunkRemaining > 0) {
+					return false;
+				}
+				chunkState = CHUNK_END;
+				continue;
+			}
+			int lineStart = pos + bodyScanned;
+			int lf = RequestHead.indexOf(buf, lineStart, limit, LF);
+			// the sizes, extensions and trailer of the chunks may take no
+			// more room than a head
+			int framing = (lf == -1 ? limit - pos : lf + 1 - pos)
+					- headLength - contentLength;
+			if (framing > maxHeadSize) {
+				throw new HttpSyntaxException();
+			}
+			if (lf == -1) {
+				return false;
+			}
+			if (lf == lineStart || buf[lf - 1] != CR) {
+				throw new HttpSyntaxException();
+			}
+			int lineEnd = lf - 1;
+			bodyScanned = lf + 1 - pos;
+			switch (chunkState) {
+			case CHUNK_SIZE:
+				chunkRemaining = chunkSize(lineStart, lineEnd);
+				if (chunkRemaining == 0) {
+					chunkState = TRAILER;
+				} else if (contentLength + chunkRemaining > maxContentLength) {
+					throw new HttpSyntaxException(
+							HttpStatus._413_PAYLOAD_TOO_LARGE);
+				} else {
+					chunkState = CHUNK_DATA;
+				}
+				break;
+			case CHUNK_END:
+				if (lineEnd != lineStart) {
+					throw new HttpSyntaxException();
+				}
+				chunkState = CHUNK_SIZE;
+				break;
+			default:
+				// trailer fields are not kept; an empty line ends them
+				if (lineEnd == lineStart) {
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Parses the hex size at the start of a chunk size line, before any
+	 * extensions.
+	 */
+	private long chunkSize(int from, int to) throws HttpSyntaxException {
+		long size = 0;
+		int i = from;
+		for (; i < to; i++) {
+			int digit = Character.digit(buf[i], 16);
+			if (digit == -1) {
+				break;
+			}
+			if (i - from == MAX_CHUNK_SIZE_DIGITS) {
+				throw new HttpSyntaxException();
+			}
+			size = size << 4 | digit;
+		}
+		if (i == from || i < to && buf[i] != ';' && buf[i] != ' '
+				&& buf[i] != '\t') {
+			throw new HttpSyntaxException();
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,247 @@
+package com.catascopic.gateway;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.io.ByteStreams;
+
+/**
+ * Checks that {@link RequestParser} returns pipelined requests intact however
+ * their bytes are split between reads, including a body that arrives after
+ * its head and makes the parser compact and grow its buffer, and a chunked
+ * body, which it decodes as it arrives. Checks that it and
+ * {@link HttpRequest#read} refuse requests that could be framed in more than
+ * one way, and that it refuses bodies that are too large with a
+ * {@code 413}. Then measures how fast it parses a pipeline of small
+ * requests.
+ * <p>
+ * Usage: {@code RequestParserTest [iterations] [rounds]}
+ */
+public class RequestParserTest {
+
+	private static final int BODY_LENGTH = 1500;
+	private static final int PIPELINE_LENGTH = 64;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		checkSplitBody();
+		checkChunkedBody();
+		checkAmbiguousFraming();
+		checkTooLarge();
+		byte[] pipeline = pipeline();
+
+		// warm up
+		for (int i = 0; i < rounds; i++) {
+			parse(pipeline, iterations);
+		}
+		for (int i = 0; i < rounds; i++) {
+			report("parse", parse(pipeline, iterations), iterations);
+		}
+	}
+
+	/**
+	 * A GET and a POST pipelined, with the head of the POST in the same read
+	 * as the GET and its body in the reads after, split at every point.
+	 */
+	private static void checkSplitBody()
+			throws IOException, HttpSyntaxException {
+		byte[] body = body();
+		byte[] heads = ("GET /a HTTP/1.1\r\nHost: x\r\n\r\n"
+				+ "POST /b HTTP/1.1\r\nHost: x\r\nContent-Length: "
+				+ BODY_LENGTH + "\r\n\r\n").getBytes(US_ASCII);
+		for (int split = 1; split <= BODY_LENGTH; split++) {
+			RequestParser parser = new RequestParser();
+			parser.feed(ByteBuffer.wrap(heads));
+			check(parser.next(), HttpMethod.GET, "/a", null);
+			if (parser.next() != null) {
+				throw new AssertionError("POST before its body");
+			}
+			parser.feed(ByteBuffer.wrap(body, 0, split));
+			HttpRequest post = parser.next();
+			if (split < BODY_LENGTH) {
+				if (post != null) {
+					throw new AssertionError("POST before its body");
+				}
+				parser.feed(ByteBuffer.wrap(body, split, BODY_LENGTH - split));
+				post = parser.next();
+			}
+			check(post, HttpMethod.POST, "/b", body);
+			if (parser.hasBufferedBytes()) {
+				throw new AssertionError("bytes left over");
+			}
+		}
+	}
+
+	/**
+	 * A chunked POST, with an extension and a trailer, followed by a GET,
+	 * split into two reads at every point.
+	 */
+	private static void checkChunkedBody()
+			throws IOException, HttpSyntaxException {
+		byte[] body = body();
+		StringBuilder chunks = new StringBuilder();
+		int[] sizes = { 1, 0x10, 0x200, 0x3 };
+		for (int at = 0, i = 0; at < body.length; i++) {
+			int size = Math.min(sizes[i % sizes.length], body.length - at);
+			chunks.append(Integer.toHexString(size))
+					.append(i == 0 ? ";name=value\r\n" : "\r\n")
+					.append(new String(body, at, size, US_ASCII))
+					.append("\r\n");
+			at += size;
+		}
+		String post = "POST /b HTTP/1.1\r\nHost: x\r\n"
+				+ "Transfer-Encoding: chunked\r\n\r\n" + chunks
+				+ "0\r\nExpires: 0\r\n\r\n";
+		byte[] pipeline = (post + "GET /c HTTP/1.1\r\nHost: x\r\n\r\n")
+				.getBytes(US_ASCII);
+		for (int split = 1; split < pipeline.length; split++) {
+			RequestParser parser = new RequestParser();
+			parser.feed(ByteBuffer.wrap(pipeline, 0, split));
+			HttpRequest first = parser.next();
+			if ((first != null) != (split >= post.length())) {
+				throw new AssertionError("POST at " + split);
+			}
+			parser.feed(ByteBuffer.wrap(pipeline, split,
+					pipeline.length - split));
+			if (first == null) {
+				first = parser.next();
+			}
+			check(first, HttpMethod.POST, "/b", body);
+			check(parser.next(), HttpMethod.GET, "/c", null);
+			if (parser.hasBufferedBytes()) {
+				throw new AssertionError("bytes left over");
+			}
+		}
+	}
+
+	/**
+	 * Requests whose length a proxy in front of the server could read
+	 * differently.
+	 */
+	private static void checkAmbiguousFraming() throws IOException {
+		String[] fields = {
+				"Content-Length: 5\r\nContent-Length: 100\r\n",
+				"Content-Length: 5, 100\r\n",
+				"Content-Length: 5\r\nTransfer-Encoding: chunked\r\n",
+				"Transfer-Encoding: chunked\r\nTransfer-Encoding: gzip\r\n",
+				"Transfer-Encoding: gzip, chunked\r\n" };
+		for (String field : fields) {
+			byte[] request = ("POST /a HTTP/1.1\r\nHost: x\r\n" + field
+					+ "\r\n0\r\n\r\n").getBytes(US_ASCII);
+			RequestParser parser = new RequestParser();
+			parser.feed(ByteBuffer.wrap(request));
+			try {
+				parser.next();
+				throw new AssertionError("parsed " + field);
+			} catch (HttpSyntaxException e) {
+				// expected
+			}
+			try {
+				HttpRequest.read(new HttpReader(
+						new ByteArrayInputStream(request)));
+				throw new AssertionError("read " + field);
+			} catch (HttpSyntaxException e) {
+				// expected
+			}
+		}
+		// the same length twice is not ambiguous
+		RequestParser parser = new RequestParser();
+		parser.feed(ByteBuffer.wrap(("POST /b HTTP/1.1\r\nHost: x\r\n"
+				+ "Content-Length: 3\r\nContent-Length: 3\r\n\r\nabc")
+				.getBytes(US_ASCII)));
+		try {
+			check(parser.next(), HttpMethod.POST, "/b",
+					"abc".getBytes(US_ASCII));
+		} catch (HttpSyntaxException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static void checkTooLarge() {
+		String[] fields = {
+				"Content-Length: 101\r\n\r\n",
+				"Transfer-Encoding: chunked\r\n\r\n65\r\n",
+				"Transfer-Encoding: chunked\r\n\r\n1\r\na\r\n64\r\n" };
+		for (String field : fields) {
+			RequestParser parser = new RequestParser(0x400, 100);
+			parser.feed(ByteBuffer.wrap(("POST /a HTTP/1.1\r\nHost: x\r\n"
+					+ field).getBytes(US_ASCII)));
+			try {
+				parser.next();
+				throw new AssertionError("parsed " + field);
+			} catch (HttpSyntaxException e) {
+				if (e.status() != HttpStatus._413_PAYLOAD_TOO_LARGE) {
+					throw new AssertionError(e.status() + " for " + field);
+				}
+			}
+		}
+	}
+
+	private static void check(HttpRequest request, HttpMethod method,
+			String path, byte[] body) throws IOException {
+		if (request == null || request.method() != method
+				|| !request.path().equals(path)) {
+			throw new AssertionError(request);
+		}
+		byte[] content = request.hasContent()
+				? ByteStreams.toByteArray(request.content()) : null;
+		if (!Arrays.equals(body, content)) {
+			throw new AssertionError("body of " + request);
+		}
+	}
+
+	private static byte[] body() {
+		byte[] body = new byte[BODY_LENGTH];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = (byte) ('a' + i % 26);
+		}
+		return body;
+	}
+
+	private static byte[] pipeline() {
+		StringBuilder requests = new StringBuilder();
+		for (int i = 0; i < PIPELINE_LENGTH; i++) {
+			requests.append("GET /static/").append(i)
+					.append(".css HTTP/1.1\r\nHost: localhost\r\n"
+							+ "Accept: text/css,*/*;q=0.1\r\n"
+							+ "Accept-Encoding: gzip, deflate\r\n"
+							+ "Connection: keep-alive\r\n\r\n");
+		}
+		return requests.toString().getBytes(US_ASCII);
+	}
+
+	private static long parse(byte[] pipeline, int iterations)
+			throws HttpSyntaxException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		int count = 0;
+		for (int i = 0; i < iterations; i++) {
+			RequestParser parser = new RequestParser();
+			// in reads the size of a small socket buffer
+			for (int at = 0; at < pipeline.length; at += 0x200) {
+				parser.feed(ByteBuffer.wrap(pipeline, at,
+						Math.min(0x200, pipeline.length - at)));
+				while (parser.next() != null) {
+					count++;
+				}
+			}
+		}
+		if (count != PIPELINE_LENGTH * iterations) {
+			throw new AssertionError(count);
+		}
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	private static void report(String name, long nanos, int iterations) {
+		System.out.printf("%-8s %8.1f ns/request%n", name,
+				(double) nanos / (PIPELINE_LENGTH * iterations));
+	}
+
+}
@@ -0,0 +1,218 @@
+package com.catascopic.gateway;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.common.net.HttpHeaders;
+
+/**
+ * The header fields of a response, in the order they were first set, kept
+ * in a pair of small arrays. Names are compared without regard to case, and
+ * a name may appear more than once if it is {@linkplain #add added}.
+ * <p>
+ * The names that responses commonly use are encoded once, together with the
+ * colon and space that follow them, so encoding a head copies them whole.
+ */
+final class ResponseHeaders {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final int INITIAL_CAPACITY = 8;
+
+	private static final String[] COMMON = {
+			HttpHeaders.ACCEPT_RANGES,
+			HttpHeaders.ACCESS_CONTROL_ALLOW_ORIGIN,
+			HttpHeaders.AGE,
+			HttpHeaders.ALLOW,
+			HttpHeaders.CACHE_CONTROL,
+			HttpHeaders.CONNECTION,
+			HttpHeaders.CONTENT_DISPOSITION,
+			HttpHeaders.CONTENT_ENCODING,
+			HttpHeaders.CONTENT_LENGTH,
+			HttpHeaders.CONTENT_RANGE,
+			HttpHeaders.CONTENT_TYPE,
+			HttpHeaders.DATE,
+			HttpHeaders.ETAG,
+			HttpHeaders.EXPIRES,
+			HttpHeaders.KEEP_ALIVE,
+			HttpHeaders.LAST_MODIFIED,
+			HttpHeaders.LOCATION,
+			HttpHeaders.SEC_WEBSOCKET_ACCEPT,
+			HttpHeaders.SEC_WEBSOCKET_EXTENSIONS,
+			HttpHeaders.SEC_WEBSOCKET_PROTOCOL,
+			HttpHeaders.SERVER,
+			HttpHeaders.SET_COOKIE,
+			HttpHeaders.TRAILER,
+			HttpHeaders.TRANSFER_ENCODING,
+			HttpHeaders.UPGRADE,
+			HttpHeaders.VARY,
+			HttpHeaders.WWW_AUTHENTICATE,
+	};
+
+	// each common name followed by ": "
+	private static final Map<String, byte[]> ENCODED_NAMES = new HashMap<>();
+
+	static {
+		for (String name : COMMON) {
+			ENCODED_NAMES.put(name,
+					(name + ": ").getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	private String[] names = new String[INITIAL_CAPACITY];
+	private String[] values = new String[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * Sets the value of a field, replacing any others with the same name. A
+	 * field that was already present keeps its place.
+	 */
+	void set(String name, String value) {
+		int index = indexOf(name, 0);
+		if (index == -1) {
+			add(name, value);
+			return;
+		}
+		values[index] = value;
+		removeFrom(name, index + 1);
+	}
+
+	/**
+	 * Adds a field, keeping any others with the same name.
+	 */
+	void add(String name, String value) {
+		if (size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		names[size] = name;
+		values[size] = value;
+		size++;
+	}
+
+	/**
+	 * Returns the value of the first field with the given name, or
+	 * {@code null} if there is none.
+	 */
+	String get(String name) {
+		int index = indexOf(name, 0);
+		return index == -1 ? null : values[index];
+	}
+
+	boolean contains(String name) {
+		return indexOf(name, 0) != -1;
+	}
+
+	/**
+	 * Removes every field with the given name, returning the value of the
+	 * first or {@code null} if there was none.
+	 */
+	String remove(String name) {
+		int index = indexOf(name, 0);
+		if (index == -1) {
+			return null;
+		}
+		String value = values[index];
+		removeFrom(name, index);
+		return value;
+	}
+
+	int size() {
+		return size;
+	}
+
+	String name(int index) {
+		return names[index];
+	}
+
+	String value(int index) {
+		return values[index];
+	}
+
+	private int indexOf(String name, int from) {
+		for (int i = from; i < size; i++) {
+			String candidate = names[i];
+			if (candidate == name || candidate.equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void removeFrom(String name, int from) {
+		int kept = from;
+		for (int i = from; i < size; i++) {
+			if (names[i] != name && !names[i].equalsIgnoreCase(name)) {
+				names[kept] = names[i];
+				values[kept] = values[i];
+				kept++;
+			}
+		}
+		Arrays.fill(names, kept, size, null);
+		Arrays.fill(values, kept, size, null);
+		size = kept;
+	}
+
+	/**
+	 * Returns the number of bytes that {@link #encode} writes.
+	 */
+	int encodedLength(HttpStatus status) {
+		int length = status.statusLine().length + CRLF.length;
+		for (int i = 0; i < size; i++) {
+			byte[] name = ENCODED_NAMES.get(names[i]);
+			length += name != null ? name.length : names[i].length() + 2;
+			length += values[i].length() + CRLF.length;
+		}
+		return length;
+	}
+
+	/**
+	 * Writes the status line, the fields and the blank line that ends a
+	 * head. Characters that are not ASCII are written as {@code ?}.
+	 */
+	void encode(HttpStatus status, ByteBuffer dst) {
+		dst.put(status.statusLine());
+		for (int i = 0; i < size; i++) {
+			byte[] name = ENCODED_NAMES.get(names[i]);
+			if (name != null) {
+				dst.put(name);
+			} else {
+				putAscii(dst, names[i]);
+				dst.put((byte) ':').put((byte) ' ');
+			}
+			// the Date a response was created with is copied ready encoded
+			byte[] date = names[i] == HttpHeaders.DATE
+					? DateHeader.bytes(values[i])
+					: null;
+			if (date != null) {
+				dst.put(date);
+			} else {
+				putAscii(dst, values[i]);
+			}
+			dst.put(CRLF);
+		}
+		dst.put(CRLF);
+	}
+
+	private static void putAscii(ByteBuffer dst, String text) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			dst.put(c < 0x80 ? (byte) c : (byte) '?');
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(names[i]).append('=').append(values[i]);
+		}
+		return builder.append('}').toString();
+	}
+
+}
@@ -0,0 +1,464 @@
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * The routes declared in a {@code gateway.json} file:
+ *
+ * <pre>
+ * {
+ *   "lookup" : [{ "path" : "!!!", "file" : "ExclamationMarks.txt" }],
+ *   "match" : [{ "pattern" : ".*\\.jpe?g", "handler" : "gateway.ImageHandler" }],
+ *   "default" : { "file" : "Not Found.html" }
+ * }
+ * </pre>
+ *
+ * Paths are matched without their leading slash. A {@code lookup} route
+ * matches one path exactly and is found in a hash map. The {@code match}
+ * patterns are regular expressions that must match the whole path, and the
+ * first of them that matches wins. They are combined into one alternation,
+ * so a path is matched against all of them in one call, except for patterns
+ * that refer back to their own groups, which are matched on their own in
+ * their turn. Patterns that end in a literal character are also filed by
+ * that character, so that a path is only matched against the patterns that
+ * can end the way it does.
+ * <p>
+ * Every route is served by a {@link Handler} created when the table is
+ * loaded: a {@code file}, relative to the directory of the configuration, or
+ * an instance of a {@code handler} class with a public no-argument
+ * constructor. A route whose handler cannot be created is reported and left
+ * out, so that one missing class does not take down every other route.
+ */
+public final class RouteTable {
+
+	private static final String LOOKUP = "lookup";
+	private static final String MATCH = "match";
+	private static final String DEFAULT = "default";
+	private static final String PATH = "path";
+	private static final String PATTERN = "pattern";
+	private static final String FILE = "file";
+	private static final String HANDLER = "handler";
+
+	public static final RouteTable EMPTY = new RouteTable(
+			ImmutableMap.<String, Handler> of(), MatchRules.NONE, null);
+
+	private final ImmutableMap<String, Handler> lookup;
+	private final MatchRules match;
+	private final Handler defaultHandler;
+
+	private RouteTable(ImmutableMap<String, Handler> lookup, MatchRules match,
+			Handler defaultHandler) {
+		this.lookup = lookup;
+		this.match = match;
+		this.defaultHandler = defaultHandler;
+	}
+
+	/**
+	 * Reads a configuration file. A route whose handler class is missing,
+	 * broken or not a {@link Handler} is reported and left out.
+	 *
+	 * @param files
+	 *            serves the {@code file} routes
+	 * @throws IllegalArgumentException
+	 *             if the file is not a valid table, or a pattern in it is
+	 *             invalid
+	 */
+	public static RouteTable load(Path config, RegularFileHandler files)
+			throws IOException {
+		Path dir = config.toAbsolutePath().getParent();
+		try (Reader reader = Files.newBufferedReader(config,
+				StandardCharsets.UTF_8)) {
+			return read(new JsonReader(reader), dir, files);
+		} catch (IllegalStateException e) {
+			// JSON of the wrong shape, such as an array where an object goes
+			throw new IllegalArgumentException(config + ": " + e.getMessage(),
+					e);
+		}
+	}
+
+	/**
+	 * Returns the handler of a path, or {@code null} if no route matches it.
+	 */
+	public Handler route(String path) {
+		if (path.startsWith("/")) {
+			path = path.substring(1);
+		}
+		Handler handler = lookup.get(path);
+		if (handler == null) {
+			handler = match.match(path);
+		}
+		return handler;
+	}
+
+	/**
+	 * Returns the handler of paths that nothing else serves, or {@code null}
+	 * if there is none.
+	 */
+	public Handler defaultHandler() {
+		return defaultHandler;
+	}
+
+	private static RouteTable read(JsonReader json, Path dir,
+			RegularFileHandler files) throws IOException {
+		ImmutableMap.Builder<String, Handler> lookup = ImmutableMap.builder();
+		List<String> patterns = new ArrayList<>();
+		List<Handler> handlers = new ArrayList<>();
+		Handler defaultHandler = null;
+		json.beginObject();
+		while (json.hasNext()) {
+			switch (json.nextName()) {
+			case LOOKUP:
+				json.beginArray();
+				while (json.hasNext()) {
+					Map<String, String> route = readObject(json);
+					String path = required(route, PATH);
+					Handler handler = loadHandler(route, dir, files);
+					if (handler != null) {
+						lookup.put(path, handler);
+					}
+				}
+				json.endArray();
+				break;
+			case MATCH:
+				json.beginArray();
+				while (json.hasNext()) {
+					Map<String, String> route = readObject(json);
+					String pattern = required(route, PATTERN);
+					Handler handler = loadHandler(route, dir, files);
+					if (handler != null) {
+						patterns.add(pattern);
+						handlers.add(handler);
+					}
+				}
+				json.endArray();
+				break;
+			case DEFAULT:
+				Map<String, String> route = readObject(json);
+				defaultHandler = route.containsKey(FILE)
+						? notFound(dir.resolve(route.get(FILE)))
+						: loadHandler(route, dir, files);
+				break;
+			default:
+				json.skipValue();
+			}
+		}
+		json.endObject();
+		return new RouteTable(lookup.build(),
+				new MatchRules(patterns, handlers), defaultHandler);
+	}
+
+	private static Map<String, String> readObject(JsonReader json)
+			throws IOException {
+		Map<String, String> object = new HashMap<>();
+		json.beginObject();
+		while (json.hasNext()) {
+			object.put(json.nextName(), json.nextString());
+		}
+		json.endObject();
+		return object;
+	}
+
+	private static String required(Map<String, String> route, String key) {
+		String value = route.get(key);
+		if (value == null) {
+			throw new IllegalArgumentException(
+					"route without a " + key + ": " + route);
+		}
+		return value;
+	}
+
+	/**
+	 * Returns the handler of a route, or {@code null} if it cannot be
+	 * created, which is reported.
+	 */
+	private static Handler loadHandler(Map<String, String> route, Path dir,
+			RegularFileHandler files) {
+		try {
+			return handler(route, dir, files);
+		} catch (RuntimeException | LinkageError e) {
+			// a missing or broken class, or one that is not a handler
+			System.err.println("skipping route " + route + ": " + e);
+			return null;
+		}
+	}
+
+	private static Handler handler(Map<String, String> route, Path dir,
+			final RegularFileHandler files) {
+		String file = route.get(FILE);
+		if (file != null) {
+			final Path path = dir.resolve(file);
+			return new Handler() {
+
+				@Override
+				public HttpResponse get(Iterator<String> ignored,
+						HttpRequest request) throws IOException {
+					return files.get(path, request);
+				}
+			};
+		}
+		String className = required(route, HANDLER);
+		// created once here, then shared by every request
+		Supplier<Object> supplier = HttpDateTimeFormat.forName(className);
+		Object handler = supplier.get();
+		if (!(handler instanceof Handler)) {
+			throw new IllegalArgumentException("not a handler: " + className);
+		}
+		return (Handler) handler;
+	}
+
+	/**
+	 * Returns a handler that answers {@code 404 Not Found} with the content of
+	 * a file.
+	 */
+	private static Handler notFound(final Path file) {
+		return new Handler() {
+
+			@Override
+			public HttpResponse get(Iterator<String> path,
+					HttpRequest request) throws IOException {
+				if (!Files.isRegularFile(file)) {
+					return _404Handler.INSTANCE.get(path, request);
+				}
+				return new HttpResponse().setStatus(HttpStatus._404_NOT_FOUND)
+						.setContentType(MediaTypes.forFile(file))
+						.setContent(file);
+			}
+		};
+	}
+
+	/**
+	 * The {@code match} routes, in order.
+	 */
+	private static final class MatchRules {
+
+		static final MatchRules NONE = new MatchRules(
+				new ArrayList<String>(), new ArrayList<Handler>());
+
+		// the rules that can match a path ending in a given character
+		private final Map<Character, Alternation> byLastChar = new HashMap<>();
+		// the rules whose last character is not known
+		private final Alternation anyLastChar;
+
+		MatchRules(List<String> patterns, List<Handler> handlers) {
+			int size = patterns.size();
+			Character[] lastChars = new Character[size];
+			for (int i = 0; i < size; i++) {
+				// fail on an invalid pattern now rather than in the union
+				Pattern.compile(patterns.get(i));
+				lastChars[i] = lastLiteral(patterns.get(i));
+			}
+			anyLastChar = alternation(patterns, handlers, lastChars, null);
+			for (Character c : lastChars) {
+				if (c != null && !byLastChar.containsKey(c)) {
+					byLastChar.put(c,
+							alternation(patterns, handlers, lastChars, c));
+				}
+			}
+		}
+
+		Handler match(String path) {
+			if (path.isEmpty()) {
+				return anyLastChar == null ? null : anyLastChar.match(path);
+			}
+			Alternation alternation =
+					byLastChar.get(path.charAt(path.length() - 1));
+			if (alternation == null) {
+				alternation = anyLastChar;
+			}
+			return alternation == null ? null : alternation.match(path);
+		}
+
+		/**
+		 * Combines, in order, the rules that end in the given character or in
+		 * one that is not known.
+		 */
+		private static Alternation alternation(List<String> patterns,
+				List<Handler> handlers, Character[] lastChars, Character c) {
+			List<String> selected = new ArrayList<>();
+			List<Handler> selectedHandlers = new ArrayList<>();
+			for (int i = 0; i < patterns.size(); i++) {
+				if (lastChars[i] == null || lastChars[i].equals(c)) {
+					selected.add(patterns.get(i));
+					selectedHandlers.add(handlers.get(i));
+				}
+			}
+			return selected.isEmpty()
+					? null
+					: new Alternation(selected, selectedHandlers);
+		}
+
+		/**
+		 * Returns the literal character a pattern must end with, or
+		 * {@code null} if it could end with more than one.
+		 */
+		private static Character lastLiteral(String pattern) {
+			if (pattern.contains("(?") || pattern.contains("|")) {
+				// flags such as (?i) change what a character matches, and an
+				// alternative may end differently
+				return null;
+			}
+			Character last = null;
+			int i = 0;
+			while (i < pattern.length()) {
+				char c = pattern.charAt(i++);
+				if (c != '\\') {
+					// a character before it that is optional only affects what
+					// comes before the last character
+					last = Character.isLetterOrDigit(c) || c == '/' || c == '-'
+							|| c == '_' || c == '~' || c == '!' ? c : null;
+				} else if (!Character.isLetterOrDigit(pattern.charAt(i))) {
+					// an escaped symbol stands for itself
+					last = pattern.charAt(i++);
+				} else {
+					// a class, a boundary, a backreference, a quotation or a
+					// character given by its code
+					i = endOfEscape(pattern, i);
+					last = null;
+				}
+			}
+			return last;
+		}
+
+		/**
+		 * Returns where an escape ends, given the index of the letter or
+		 * digit after its backslash. An escape that is not known is taken to
+		 * end after that character.
+		 */
+		private static int endOfEscape(String pattern, int i) {
+			char c = pattern.charAt(i++);
+			switch (c) {
+			case 'x':
+			case 'p':
+			case 'P':
+			case 'N':
+				if (pattern.startsWith("{", i)) {
+					return pattern.indexOf('}', i) + 1;
+				}
+				return c == 'x' ? i + 2 : i + 1;
+			case 'u':
+				return i + 4;
+			case 'c':
+				return i + 1;
+			case 'k':
+				return pattern.indexOf('>', i) + 1;
+			case 'Q':
+				int quoteEnd = pattern.indexOf("\\E", i);
+				return quoteEnd == -1 ? pattern.length() : quoteEnd + 2;
+			default:
+				// the digits of an octal code or a group number
+				while (Character.isDigit(c) && i < pattern.length()
+						&& Character.isDigit(pattern.charAt(i))) {
+					i++;
+				}
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * Patterns combined as {@code (p1)|(p2)|...}, so that the regular
+	 * expression engine tries them in order in one call, and the group that
+	 * took part tells which one matched. Wrapping a pattern in a group
+	 * renumbers its own groups and puts its names alongside those of the
+	 * others, so a pattern with a backreference or a named group, or one that
+	 * could swallow what follows it, is matched alone, in its turn.
+	 */
+	private static final class Alternation {
+
+		// a backreference, a named group, an unclosed quotation or comments
+		private static final Pattern NOT_JOINABLE = Pattern.compile(
+				"\\\\[1-9k]|\\(\\?<[^=!]|\\\\Q(?!.*\\\\E)|\\(\\?[a-zA-Z-]*x");
+
+		private final Segment[] segments;
+
+		Alternation(List<String> patterns, List<Handler> handlers) {
+			List<Segment> segments = new ArrayList<>();
+			StringBuilder union = new StringBuilder();
+			List<Handler> groups = new ArrayList<>();
+			for (int i = 0; i < patterns.size(); i++) {
+				String rule = patterns.get(i);
+				if (NOT_JOINABLE.matcher(rule).find()) {
+					if (!groups.isEmpty()) {
+						segments.add(new Segment(union.toString(), groups));
+						union.setLength(0);
+						groups.clear();
+					}
+					segments.add(new Segment(rule,
+							Collections.singletonList(handlers.get(i))));
+					continue;
+				}
+				if (groups.isEmpty()) {
+					groups.add(null);
+				} else {
+					union.append('|');
+				}
+				union.append('(').append(rule).append(')');
+				groups.add(handlers.get(i));
+				int inner = Pattern.compile(rule).matcher("").groupCount();
+				for (int j = 0; j < inner; j++) {
+					groups.add(null);
+				}
+			}
+			if (!groups.isEmpty()) {
+				segments.add(new Segment(union.toString(), groups));
+			}
+			this.segments = segments.toArray(new Segment[segments.size()]);
+		}
+
+		Handler match(String path) {
+			for (Segment segment : segments) {
+				Handler handler = segment.match(path);
+				if (handler != null) {
+					return handler;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * A run of joined patterns, or a pattern matched alone.
+	 */
+	private static final class Segment {
+
+		private final Pattern pattern;
+		// the handler of each group that begins a rule, or null; a pattern
+		// matched alone is the whole of group 0
+		private final Handler[] groups;
+
+		Segment(String pattern, List<Handler> groups) {
+			this.pattern = Pattern.compile(pattern);
+			this.groups = groups.toArray(new Handler[groups.size()]);
+		}
+
+		Handler match(String path) {
+			Matcher matcher = pattern.matcher(path);
+			if (!matcher.matches()) {
+				return null;
+			}
+			for (int i = 0; i < groups.length; i++) {
+				if (groups[i] != null && matcher.start(i) != -1) {
+					return groups[i];
+				}
+			}
+			throw new AssertionError(path);
+		}
+	}
+
+}
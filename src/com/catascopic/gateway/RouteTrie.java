@@ -0,0 +1,277 @@
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The files of a served directory, arranged by request path segment. Aliases,
+ * hidden names and the default {@code .html} extension are applied when the
+ * trie is built, so that resolving a request path is a walk through maps
+ * without touching the file system.
+ * <p>
+ * A trie is immutable. When a directory changes, {@link #rebuild(Path)}
+ * returns a new trie that shares every node outside of the path to that
+ * directory with this one.
+ */
+public final class RouteTrie {
+
+	public static final String DEFAULT_EXTENSION = ".html";
+	public static final String GATEWAY_EXTENSION = ".gateway";
+
+	// deep enough for any real site, shallow enough to stop symbolic link loops
+	private static final int MAX_DEPTH = 32;
+
+	private final Path root;
+	private final Map<String, String> aliases;
+	private final Predicate<String> hidden;
+	private final Node rootNode;
+
+	private RouteTrie(Path root, Map<String, String> aliases,
+			Predicate<String> hidden, Node rootNode) {
+		this.root = root;
+		this.aliases = aliases;
+		this.hidden = hidden;
+		this.rootNode = rootNode;
+	}
+
+	/**
+	 * Scans a directory and everything under it.
+	 *
+	 * @param aliases
+	 *            names that stand for other names in the same directory
+	 * @param hidden
+	 *            names that are never served, unless through an alias
+	 */
+	public static RouteTrie build(Path root, Map<String, String> aliases,
+			Predicate<String> hidden) throws IOException {
+		RouteTrie trie = new RouteTrie(root, aliases, hidden, null);
+		return trie.withRoot(trie.scan(root, null, 0));
+	}
+
+	public Path root() {
+		return root;
+	}
+
+	/**
+	 * What a request path resolves to.
+	 */
+	public static final class Route {
+
+		private final Path file;
+		private final boolean gateway;
+
+		Route(Path file, boolean gateway) {
+			this.file = file;
+			this.gateway = gateway;
+		}
+
+		public Path file() {
+			return file;
+		}
+
+		/**
+		 * Returns whether the file is a {@code .gateway} stub, which handles
+		 * the rest of the path, rather than a file to serve.
+		 */
+		public boolean isGateway() {
+			return gateway;
+		}
+
+		@Override
+		public String toString() {
+			return (gateway ? "gateway " : "file ") + file;
+		}
+	}
+
+	/**
+	 * Resolves a request path. Each segment but the last names a directory,
+	 * or is empty and names the same directory, and the last names a file, or
+	 * a file with the default extension.
+	 * Failing that, any segment may name a {@code .gateway} stub, in which case
+	 * the iterator is left at the segments that follow it.
+	 *
+	 * @return the route, or {@code null} if nothing is there
+	 */
+	public Route lookup(Iterator<String> path) {
+		Node node = rootNode;
+		while (path.hasNext()) {
+			String part = path.next();
+			if (path.hasNext()) {
+				if (part.isEmpty()) {
+					// as in a leading or doubled slash
+					continue;
+				}
+				Node child = node.directories.get(part);
+				if (child != null) {
+					node = child;
+					continue;
+				}
+			} else {
+				Route file = node.files.get(part);
+				if (file != null) {
+					return file;
+				}
+			}
+			return node.gateways.get(part);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a trie in which a directory has been scanned again. Its
+	 * subdirectories that still exist are not scanned again; new ones are
+	 * scanned in full. If the directory is not in this trie, because it is
+	 * outside of the root, hidden or too deep, this trie is returned.
+	 */
+	public RouteTrie rebuild(Path dir) throws IOException {
+		Path relative = root.relativize(dir);
+		if (relative.startsWith("..")) {
+			return this;
+		}
+		int depth = relative.toString().isEmpty() ? 0 : relative.getNameCount();
+		if (depth > MAX_DEPTH) {
+			return this;
+		}
+		Node[] nodes = new Node[depth + 1];
+		nodes[0] = rootNode;
+		for (int i = 0; i < depth; i++) {
+			nodes[i + 1] = nodes[i].rawDirectories
+					.get(relative.getName(i).toString());
+			if (nodes[i + 1] == null) {
+				// a parent has not noticed this directory yet, or it is gone
+				return this;
+			}
+		}
+		Node node = scan(dir, nodes[depth], depth);
+		for (int i = depth - 1; i >= 0; i--) {
+			node = nodes[i].withDirectory(relative.getName(i).toString(), node);
+		}
+		return withRoot(node);
+	}
+
+	private RouteTrie withRoot(Node rootNode) {
+		return new RouteTrie(root, aliases, hidden, rootNode);
+	}
+
+	/**
+	 * Scans one directory. Subdirectories already in the previous node of the
+	 * directory are reused as they are.
+	 */
+	private Node scan(Path dir, Node previous, int depth) throws IOException {
+		Map<String, Node> directories = new HashMap<>();
+		Map<String, Route> files = new HashMap<>();
+		Map<String, Route> defaults = new HashMap<>();
+		Map<String, Route> gateways = new HashMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(path,
+							BasicFileAttributes.class);
+				} catch (NoSuchFileException e) {
+					// a broken link, or deleted since it was listed
+					continue;
+				}
+				String name = path.getFileName().toString();
+				if (attributes.isDirectory()) {
+					if (depth < MAX_DEPTH) {
+						Node child = previous == null
+								? null
+								: previous.rawDirectories.get(name);
+						directories.put(name,
+								child != null ? child : scan(path, null, depth + 1));
+					}
+				} else if (attributes.isRegularFile()) {
+					Route route = new Route(path, false);
+					files.put(name, route);
+					if (name.endsWith(DEFAULT_EXTENSION)) {
+						defaults.put(trim(name, DEFAULT_EXTENSION), route);
+					} else if (name.endsWith(GATEWAY_EXTENSION)) {
+						gateways.put(trim(name, GATEWAY_EXTENSION),
+								new Route(path, true));
+					}
+				}
+			}
+		} catch (NoSuchFileException | NotDirectoryException e) {
+			// deleted while it was being scanned; its parent will notice
+		}
+		// a file of the exact name comes before one with the default extension
+		for (Map.Entry<String, Route> entry : defaults.entrySet()) {
+			if (!files.containsKey(entry.getKey())) {
+				files.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return new Node(ImmutableMap.copyOf(directories),
+				ImmutableMap.copyOf(files), ImmutableMap.copyOf(gateways));
+	}
+
+	private static String trim(String name, String extension) {
+		return name.substring(0, name.length() - extension.length());
+	}
+
+	/**
+	 * A directory. The raw maps hold every name in it; the others are what
+	 * requests can reach once aliases and hidden names are applied.
+	 */
+	private final class Node {
+
+		final ImmutableMap<String, Node> rawDirectories;
+		final ImmutableMap<String, Route> rawFiles;
+		final ImmutableMap<String, Route> rawGateways;
+		final ImmutableMap<String, Node> directories;
+		final ImmutableMap<String, Route> files;
+		final ImmutableMap<String, Route> gateways;
+
+		Node(ImmutableMap<String, Node> rawDirectories,
+				ImmutableMap<String, Route> rawFiles,
+				ImmutableMap<String, Route> rawGateways) {
+			this.rawDirectories = rawDirectories;
+			this.rawFiles = rawFiles;
+			this.rawGateways = rawGateways;
+			this.directories = visible(rawDirectories);
+			this.files = visible(rawFiles);
+			this.gateways = visible(rawGateways);
+		}
+
+		Node withDirectory(String name, Node child) {
+			Map<String, Node> directories = new HashMap<>(rawDirectories);
+			directories.put(name, child);
+			return new Node(ImmutableMap.copyOf(directories), rawFiles,
+					rawGateways);
+		}
+
+		private <V> ImmutableMap<String, V> visible(
+				ImmutableMap<String, V> raw) {
+			if (aliases.isEmpty() && raw.isEmpty()) {
+				return raw;
+			}
+			Map<String, V> visible = new HashMap<>();
+			for (Map.Entry<String, V> entry : raw.entrySet()) {
+				// only names without an alias can be hidden
+				String name = entry.getKey();
+				if (!aliases.containsKey(name) && !hidden.apply(name)) {
+					visible.put(name, entry.getValue());
+				}
+			}
+			for (Map.Entry<String, String> alias : aliases.entrySet()) {
+				V target = raw.get(alias.getValue());
+				if (target != null) {
+					visible.put(alias.getKey(), target);
+				}
+			}
+			return ImmutableMap.copyOf(visible);
+		}
+	}
+
+}
@@ -1,49 +1,214 @@
-package com.catascopic.gateway;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-
-public class Server {
-
-	public static void main(String[] args) throws IOException {
-		new Thread(new Runnable() {
-
-			@Override
-			public void run() {
-				ServerSocket server;
-				try {
-					server = new ServerSocket(3637);
-				} catch (IOException e) {
-					return;
-				}
-				for (;;) {
-					try {
-						final Socket client = server.accept();
-						new Thread(new Runnable() {
-
-							@Override
-							public void run() {
-								try {
-									client.close();
-								} catch (IOException e) {
-
-								}
-							}
-
-						}).start();
-					} catch (IOException e) {
-						// continue
-					}
-				}
-			}
-		}).start();
-
-		InputStream inputStream = new Socket("127.0.0.1", 3637).getInputStream();
-		for (;;) {
-
-		}
-	}
-
-}
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A blocking HTTP server that reads and answers the requests of each
+ * connection on a task of its executor.
+ */
+public class Server implements Acceptor {
+
+	// how long to wait before accepting again after accepting failed
+	private static final long ACCEPT_RETRY_MILLIS = 100;
+
+	private final InetSocketAddress address;
+	private final ExecutorService executor;
+	private final Handler handler;
+	private final Set<Socket> connections =
+			Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private int idleTimeoutMillis = HttpConnection.DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private int maxRequests = HttpConnection.DEFAULT_MAX_REQUESTS;
+	private ServerSocketChannel server;
+	private volatile boolean closed; // = false
+
+	public Server(InetSocketAddress address, ExecutorService executor,
+			Handler handler) {
+		this.address = address;
+		this.executor = executor;
+		this.handler = handler;
+	}
+
+	/**
+	 * Returns whether the runtime supports virtual threads, which it does
+	 * from Java 21.
+	 */
+	public static boolean supportsVirtualThreads() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns an executor that runs each task on a new virtual thread.
+	 *
+	 * @throws IllegalStateException
+	 *             if the runtime does not support virtual threads
+	 */
+	public static ExecutorService virtualThreadExecutor() {
+		// looked up reflectively so that the rest of the server still builds
+		// and runs on runtimes older than Java 21
+		Method factory;
+		try {
+			factory = Executors.class.getMethod(
+					"newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(
+					"virtual threads are not supported by this runtime", e);
+		}
+		try {
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Returns an executor with a fixed number of platform threads.
+	 * Connections beyond that number wait until a thread is free.
+	 */
+	public static ExecutorService platformThreadExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * @see HttpConnection#setIdleTimeout(int)
+	 */
+	public Server setIdleTimeout(int millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("idle timeout: " + millis);
+		}
+		this.idleTimeoutMillis = millis;
+		return this;
+	}
+
+	/**
+	 * @see HttpConnection#setMaxRequests(int)
+	 */
+	public Server setMaxRequests(int maxRequests) {
+		if (maxRequests < 1) {
+			throw new IllegalArgumentException("max requests: " + maxRequests);
+		}
+		this.maxRequests = maxRequests;
+		return this;
+	}
+
+	/**
+	 * Accepts connections until the server is closed. A connection that
+	 * fails as it is accepted is closed, and accepting goes on; if accepting
+	 * itself fails, as it does when there are no file descriptors left, it
+	 * is tried again after a pause.
+	 */
+	@Override
+	public void run() throws IOException {
+		// sockets of a channel can send files with FileChannel.transferTo
+		server = ServerSocketChannel.open();
+		server.bind(address);
+		while (!closed) {
+			final Socket socket;
+			try {
+				socket = server.accept().socket();
+			} catch (ClosedChannelException e) {
+				break;
+			} catch (IOException e) {
+				System.err.println("accepting: " + e);
+				pauseAccepting();
+				continue;
+			}
+			try {
+				socket.setTcpNoDelay(true);
+			} catch (IOException e) {
+				// the client may have reset the connection already
+				System.err.println("accepting " + socket + ": " + e);
+				closeQuietly(socket);
+				continue;
+			}
+			connections.add(socket);
+			try {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						serve(socket);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				connections.remove(socket);
+				socket.close();
+			}
+		}
+	}
+
+	private void pauseAccepting() throws IOException {
+		try {
+			Thread.sleep(ACCEPT_RETRY_MILLIS);
+		} catch (InterruptedException e) {
+			close();
+			throw new InterruptedIOException();
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+	}
+
+	private void serve(Socket socket) {
+		try {
+			new HttpConnection(socket, handler)
+					.setIdleTimeout(idleTimeoutMillis)
+					.setMaxRequests(maxRequests)
+					.run();
+		} finally {
+			connections.remove(socket);
+		}
+	}
+
+	/**
+	 * Answers a request with the handler, or with a
+	 * {@code 500 Internal Server Error} if the handler fails.
+	 */
+	static HttpResponse respond(Handler handler, HttpRequest request) {
+		try {
+			return handler.get(request.pathSegments(), request);
+		} catch (IOException | RuntimeException e) {
+			return HttpResponse.plainText(
+					HttpStatus._500_INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		executor.shutdownNow();
+		if (server != null) {
+			server.close();
+		}
+		for (Socket socket : connections) {
+			socket.close();
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+}
@@ -1,32 +1,37 @@
-package com.catascopic.gateway;
-
-import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-
-public class TestServer {
-
-	public static void main(String[] args) throws IOException {
-		ServerSocket serverSocket = new ServerSocket(8080);
-
-		Socket accept = serverSocket.accept();
-		for (;;) {
-			for (;;) {
-				HttpRequest request = HttpRequest.read(accept.getInputStream());
-				HttpResponse response = new HttpResponse();
-				Path file = Paths.get("." + request.path());
-				new RegularFileHandler().get(file, request, response);
-				System.out.println(request);
-				if (request.hasContent()) {
-					System.out.println(request.readContent());
-				}
-				System.out.println(response);
-				
-				response.send(accept.getOutputStream());
-			}
-		}
-	}
-
-}
+package com.catascopic.gateway;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+
+public class TestServer {
+
+	public static void main(String[] args) throws IOException {
+		ServerSocket serverSocket = new ServerSocket(8080);
+
+		final RegularFileHandler fileHandler = new RegularFileHandler();
+		Handler handler = new Handler() {
+
+			@Override
+			public HttpResponse get(Iterator<String> path, HttpRequest request)
+					throws IOException {
+				Path file = Paths.get("." + request.path());
+				HttpResponse response = fileHandler.get(file, request);
+				System.out.println(request);
+				if (request.hasContent()) {
+					System.out.println(request.readContent());
+				}
+				System.out.println(response);
+				return response;
+			}
+		};
+		for (;;) {
+			Socket accept = serverSocket.accept();
+			new HttpConnection(accept, handler).setIdleTimeout(5000).run();
+		}
+	}
+
+}
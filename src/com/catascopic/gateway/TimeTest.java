@@ -1,25 +1,137 @@
-package com.catascopic.gateway;
-
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
-import com.google.common.base.Stopwatch;
-
-public class TimeTest {
-
-	public static void main(String[] args) throws IOException {
-		Stopwatch stopwatch = Stopwatch.createStarted();
-		for (int i = 0; i < 10000; i++) {
-			try (InputStream in = new FileInputStream("lines.txt")) {
-				HttpReader http = new HttpReader(in);
-				String line;
-				do {
-					line = http.readLine();
-				} while (!line.isEmpty());
-			}
-		}
-		System.out.println(stopwatch);
-	}
-
-}
+package com.catascopic.gateway;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares reading request heads a byte at a time, line by line through the
+ * buffered {@link HttpReader}, and with {@link HttpReader#readHead()}.
+ * <p>
+ * Usage: {@code TimeTest [iterations] [rounds]}
+ */
+public class TimeTest {
+
+	private static final String HEAD = "GET /images/post-it.png?size=large&v=3 HTTP/1.1\r\n"
+			+ "Host: localhost:8080\r\n"
+			+ "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n"
+			+ "Accept: image/avif,image/webp,*/*\r\n"
+			+ "Accept-Language: en-US,en;q=0.5\r\n"
+			+ "Accept-Encoding: gzip, deflate, br\r\n"
+			+ "Connection: keep-alive\r\n"
+			+ "Referer: http://localhost:8080/index.html\r\n"
+			+ "Cookie: session=0123456789abcdef; theme=dark\r\n"
+			+ "If-Modified-Since: Sat, 29 Oct 1994 19:43:31 GMT\r\n"
+			+ "Cache-Control: max-age=0\r\n"
+			+ "\r\n";
+
+	private static final int REQUESTS_PER_STREAM = 16;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		byte[] input = repeat(HEAD.getBytes(StandardCharsets.US_ASCII),
+				REQUESTS_PER_STREAM);
+
+		// warm up
+		for (int i = 0; i < rounds; i++) {
+			unbuffered(input, iterations);
+			readLine(input, iterations);
+			readHead(input, iterations);
+		}
+		for (int i = 0; i < rounds; i++) {
+			report("byte-at-a-time", unbuffered(input, iterations), iterations);
+			report("readLine", readLine(input, iterations), iterations);
+			report("readHead", readHead(input, iterations), iterations);
+		}
+	}
+
+	private static long unbuffered(byte[] input, int iterations)
+			throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		for (int i = 0; i < iterations; i++) {
+			InputStream in = new ByteArrayInputStream(input);
+			for (int j = 0; j < REQUESTS_PER_STREAM; j++) {
+				String line;
+				do {
+					line = readLineUnbuffered(in);
+				} while (!line.isEmpty());
+			}
+		}
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	private static long readLine(byte[] input, int iterations)
+			throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		for (int i = 0; i < iterations; i++) {
+			HttpReader http = new HttpReader(new ByteArrayInputStream(input));
+			for (int j = 0; j < REQUESTS_PER_STREAM; j++) {
+				String line;
+				do {
+					line = http.readLine();
+				} while (!line.isEmpty());
+			}
+		}
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	private static long readHead(byte[] input, int iterations)
+			throws IOException, HttpSyntaxException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		int fields = 0;
+		for (int i = 0; i < iterations; i++) {
+			HttpReader http = new HttpReader(new ByteArrayInputStream(input));
+			for (int j = 0; j < REQUESTS_PER_STREAM; j++) {
+				fields += http.readHead().fieldCount();
+			}
+		}
+		if (fields == 0) {
+			throw new AssertionError();
+		}
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The original implementation of {@link HttpReader#readLine()}, kept as a
+	 * baseline.
+	 */
+	private static String readLineUnbuffered(InputStream in)
+			throws IOException {
+		StringBuilder builder = new StringBuilder();
+		for (;;) {
+			int b = in.read();
+			switch (b) {
+			case '\r':
+				if (in.read() != '\n') {
+					throw new IOException();
+				}
+				return builder.toString();
+			case -1:
+				throw new EOFException();
+			default:
+				builder.append((char) b);
+			}
+		}
+	}
+
+	private static void report(String name, long nanos, int iterations) {
+		System.out.printf("%-16s %8.1f ns/request%n", name,
+				(double) nanos / ((long) iterations * REQUESTS_PER_STREAM));
+	}
+
+	private static byte[] repeat(byte[] bytes, int times) {
+		byte[] result = new byte[bytes.length * times];
+		for (int i = 0; i < times; i++) {
+			System.arraycopy(bytes, 0, result, i * bytes.length, bytes.length);
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,148 @@
+package com.catascopic.gateway;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory and everything under it, and reports which
+ * directories changed. Events that arrive close together are reported
+ * together, once per directory.
+ */
+public class TreeWatcher implements Runnable, Closeable {
+
+	// how long to wait for more events before reporting a change
+	private static final long SETTLE_MILLIS = 50;
+
+	public interface Listener {
+
+		/**
+		 * Called when entries of a directory were created, deleted or
+		 * modified.
+		 */
+		void changed(Path dir);
+
+		/**
+		 * Called when events were lost, so anything may have changed.
+		 */
+		void overflowed();
+	}
+
+	private final Path root;
+	private final Listener listener;
+	private final WatchService watcher;
+
+	public TreeWatcher(Path root, Listener listener) throws IOException {
+		this.root = root;
+		this.listener = listener;
+		this.watcher = root.getFileSystem().newWatchService();
+		register(root);
+	}
+
+	/**
+	 * Starts watching on a daemon thread.
+	 */
+	public TreeWatcher start(String name) {
+		Thread thread = new Thread(this, name);
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	@Override
+	public void run() {
+		try {
+			for (;;) {
+				WatchKey key = watcher.take();
+				Set<Path> changed = new LinkedHashSet<>();
+				boolean overflowed = false;
+				while (key != null) {
+					overflowed |= poll(key, changed);
+					key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				try {
+					if (overflowed) {
+						listener.overflowed();
+					} else {
+						for (Path dir : changed) {
+							listener.changed(dir);
+						}
+					}
+				} catch (RuntimeException e) {
+					// one bad change must not stop the watching of later ones
+					System.err.println("watching " + root + ": " + e);
+				}
+			}
+		} catch (ClosedWatchServiceException | InterruptedException e) {
+			// closed
+		}
+	}
+
+	private boolean poll(WatchKey key, Set<Path> changed) {
+		Path dir = (Path) key.watchable();
+		boolean overflowed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				overflowed = true;
+				continue;
+			}
+			changed.add(dir);
+			Path child = dir.resolve((Path) event.context());
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+				try {
+					register(child);
+				} catch (IOException e) {
+					// gone again already
+				}
+			}
+		}
+		if (!key.reset()) {
+			// the directory is gone; its parent reports that
+			key.cancel();
+		}
+		return overflowed;
+	}
+
+	private void register(Path start) throws IOException {
+		Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attributes) throws IOException {
+				dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	public Path root() {
+		return root;
+	}
+
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+	}
+
+}
@@ -1,112 +1,168 @@
-package com.catascopic.gateway;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
-
-import com.google.common.collect.ImmutableListMultimap;
-import com.google.common.collect.ListMultimap;
-
-public final class UriParser {
-	private UriParser() {}
-
-	public static List<String> parse(String query) {
-		List<String> parts = new ArrayList<>();
-		StringBuilder builder = new StringBuilder();
-		int i = 0;
-		while (i < query.length()) {
-			char c = query.charAt(i);
-			switch (c) {
-			case '/':
-				parts.add(builder.toString());
-				builder = new StringBuilder();
-				i++;
-				break;
-			case '%':
-				builder.append((char) Integer.parseInt(
-						query.substring(i + 1, i + 3), 16));
-				i += 3;
-				break;
-			default:
-				builder.append(c);
-				i++;
-			}
-		}
-		if (builder.length() > 0) {
-			parts.add(builder.toString());
-		}
-		return parts;
-	}
-
-	public static Map<String, String> toMap(String query) {
-		// So we don't crash on duplicate keys
-		final Map<String, String> map = new LinkedHashMap<>();
-		parse(query, new MapBuilder() {
-
-			@Override
-			public void put(String key, String value) {
-				// TODO: we can do this more cleanly with java 8
-				String prev = map.put(key, value);
-				if (prev != null) {
-					// whoops, put it back
-					map.put(key, prev);
-				}
-			}
-		});
-		return Collections.unmodifiableMap(map);
-	}
-
-	public static ListMultimap<String, String> toMultimap(String query) {
-		final ImmutableListMultimap.Builder<String, String> builder =
-				ImmutableListMultimap.builder();
-		parse(query, new MapBuilder() {
-
-			@Override
-			public void put(String key, String value) {
-				builder.put(key, value);
-			}
-		});
-		return builder.build();
-	}
-
-	private static void parse(String query, MapBuilder builder) {
-		StringBuilder key = new StringBuilder();
-		StringBuilder value = new StringBuilder();
-		StringBuilder current = key;
-		int i = 0;
-		while (i < query.length()) {
-			char c = query.charAt(i);
-			switch (c) {
-			case '=':
-				current = value;
-				break;
-			case '&':
-				builder.put(key.toString(), value.toString());
-				key = new StringBuilder();
-				value = new StringBuilder();
-				current = key;
-				break;
-			case '+':
-				current.append(' ');
-				break;
-			case '%':
-				current.append((char) Integer.parseInt(
-						query.substring(i + 1, i + 3), 16));
-				i += 2;
-				break;
-			default:
-				current.append(c);
-				i++;
-			}
-		}
-		builder.put(key.toString(), value.toString());
-	}
-
-	private interface MapBuilder {
-
-		void put(String key, String value);
-	}
-
-}
+package com.catascopic.gateway;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.UnmodifiableIterator;
+
+public final class UriParser {
+	private UriParser() {}
+
+	/**
+	 * Splits a path into its decoded segments. A leading slash gives an empty
+	 * first segment, and a trailing one gives no segment.
+	 */
+	public static List<String> parse(String path) {
+		return Lists.newArrayList(segments(path));
+	}
+
+	/**
+	 * Returns the decoded segments of a path, each decoded only when the
+	 * iterator reaches it, as {@link #parse(String)} would list them.
+	 */
+	public static Iterator<String> segments(String path) {
+		return new SegmentIterator(path);
+	}
+
+	private static final class SegmentIterator
+			extends UnmodifiableIterator<String> {
+
+		private final String path;
+		private int position;
+
+		SegmentIterator(String path) {
+			this.path = path;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < path.length();
+		}
+
+		@Override
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int start = position;
+			int end = path.indexOf('/', start);
+			if (end == -1) {
+				end = path.length();
+				position = end;
+			} else {
+				position = end + 1;
+			}
+			return decode(path, start, end, false);
+		}
+	}
+
+	/**
+	 * Decodes part of a URI component. Escapes are decoded as UTF-8, as are
+	 * characters above {@code 0x7F}, which stand for the bytes of a request
+	 * read as ISO-8859-1. Malformed escapes are left as they are, and invalid
+	 * UTF-8 becomes U+FFFD.
+	 *
+	 * @param plusAsSpace
+	 *            whether {@code +} stands for a space, as in a query
+	 */
+	static String decode(String s, int start, int end, boolean plusAsSpace) {
+		int i = start;
+		while (i < end) {
+			char c = s.charAt(i);
+			if (c == '%' || c > 0x7F || plusAsSpace && c == '+') {
+				break;
+			}
+			i++;
+		}
+		if (i == end) {
+			// nothing to decode
+			return s.substring(start, end);
+		}
+		// at most three bytes for each character that is left
+		byte[] bytes = new byte[(i - start) + (end - i) * 3];
+		int length = 0;
+		for (int j = start; j < i; j++) {
+			bytes[length++] = (byte) s.charAt(j);
+		}
+		boolean ascii = true;
+		while (i < end) {
+			char c = s.charAt(i++);
+			if (c == '%' && i + 1 < end) {
+				int high = Character.digit(s.charAt(i), 16);
+				int low = Character.digit(s.charAt(i + 1), 16);
+				if (high != -1 && low != -1) {
+					int b = high << 4 | low;
+					bytes[length++] = (byte) b;
+					ascii &= b < 0x80;
+					i += 2;
+					continue;
+				}
+			}
+			if (c == '+' && plusAsSpace) {
+				bytes[length++] = ' ';
+			} else if (c <= 0xFF) {
+				bytes[length++] = (byte) c;
+				ascii &= c < 0x80;
+			} else {
+				// not from the request bytes; encode it as it is
+				length = encodeUtf8(c, bytes, length);
+				ascii = false;
+			}
+		}
+		return ascii
+				? new String(bytes, 0, length, StandardCharsets.ISO_8859_1)
+				: new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private static int encodeUtf8(char c, byte[] bytes, int index) {
+		if (c < 0x800) {
+			bytes[index++] = (byte) (0xC0 | c >> 6);
+		} else {
+			bytes[index++] = (byte) (0xE0 | c >> 12);
+			bytes[index++] = (byte) (0x80 | c >> 6 & 0x3F);
+		}
+		bytes[index++] = (byte) (0x80 | c & 0x3F);
+		return index;
+	}
+
+	/**
+	 * Returns the parameters of a query string. Only the first value of a
+	 * parameter that is repeated is kept.
+	 */
+	public static Map<String, String> toMap(String query) {
+		return toMap(new QueryString(query));
+	}
+
+	static Map<String, String> toMap(QueryString query) {
+		Map<String, String> map = new LinkedHashMap<>();
+		for (int i = 0; i < query.size(); i++) {
+			String name = query.name(i);
+			if (!map.containsKey(name)) {
+				map.put(name, query.value(i));
+			}
+		}
+		return Collections.unmodifiableMap(map);
+	}
+
+	public static ListMultimap<String, String> toMultimap(String query) {
+		return toMultimap(new QueryString(query));
+	}
+
+	static ListMultimap<String, String> toMultimap(QueryString query) {
+		ImmutableListMultimap.Builder<String, String> builder =
+				ImmutableListMultimap.builder();
+		for (int i = 0; i < query.size(); i++) {
+			builder.put(query.name(i), query.value(i));
+		}
+		return builder.build();
+	}
+
+}
@@ -0,0 +1,165 @@
+package com.catascopic.gateway;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares the original path decoder, which built a {@link StringBuilder}
+ * per segment and parsed each escape from a substring, with
+ * {@link UriParser#parse(String)} and {@link UriParser#segments(String)}, on
+ * long paths full of escapes, after checking that both decode them as they
+ * should.
+ * <p>
+ * Usage: {@code UriParserTest [iterations] [rounds]}
+ */
+public class UriParserTest {
+
+	private static final String[] PATHS = {
+			"/files/%E6%96%87%E6%9B%B8/%E5%A0%B1%E5%91%8A%E6%9B%B8%202019"
+					+ "/%E6%9C%80%E7%B5%82%E7%89%88%20(1).pdf",
+			"/search/caf%C3%A9%20cr%C3%A8me%20br%C3%BBl%C3%A9e/page/12"
+					+ "/sort%3Drelevance%26order%3Ddesc/%F0%9F%8D%B0.html",
+			"/a%20very%20long%20segment%20with%20many%20spaces%20in%20it"
+					+ "%20that%20goes%20on%20and%20on%20and%20on%20and%20on"
+					+ "/another%2Fsegment%2Fwith%2Fslashes/%25percent%25",
+			"/static/js/vendor/jquery-3.7.1.min.js/plain/ascii/path/with"
+					+ "/no/escapes/at/all/index.html" };
+
+	// the segments of the first three paths, as they should be decoded
+	private static final String[][] DECODED = {
+			{ "", "files", "\u6587\u66F8", "\u5831\u544A\u66F8 2019",
+					"\u6700\u7D42\u7248 (1).pdf" },
+			{ "", "search", "caf\u00E9 cr\u00E8me br\u00FBl\u00E9e", "page",
+					"12", "sort=relevance&order=desc", "\uD83C\uDF70.html" },
+			{ "", "a very long segment with many spaces in it that goes on"
+					+ " and on and on and on", "another/segment/with/slashes",
+					"%percent%" } };
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		checkDecoding();
+
+		// warm up
+		for (int i = 0; i < rounds; i++) {
+			original(iterations);
+			parse(iterations);
+			segments(iterations);
+		}
+		for (int i = 0; i < rounds; i++) {
+			report("original", original(iterations), iterations);
+			report("parse", parse(iterations), iterations);
+			report("segments", segments(iterations), iterations);
+		}
+	}
+
+	/**
+	 * Checks that both decoders of {@link UriParser} decode multibyte UTF-8,
+	 * including a character outside of the BMP, and escaped delimiters.
+	 */
+	private static void checkDecoding() {
+		for (int i = 0; i < DECODED.length; i++) {
+			List<String> expected = Arrays.asList(DECODED[i]);
+			if (!UriParser.parse(PATHS[i]).equals(expected)) {
+				throw new AssertionError("parse " + PATHS[i]);
+			}
+			List<String> segments = new ArrayList<>();
+			Iterator<String> iterator = UriParser.segments(PATHS[i]);
+			while (iterator.hasNext()) {
+				segments.add(iterator.next());
+			}
+			if (!segments.equals(expected)) {
+				throw new AssertionError("segments " + PATHS[i]);
+			}
+		}
+	}
+
+	private static long original(int iterations) {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		int count = 0;
+		for (int i = 0; i < iterations; i++) {
+			for (String path : PATHS) {
+				count += parseOriginal(path).size();
+			}
+		}
+		check(count);
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	private static long parse(int iterations) {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		int count = 0;
+		for (int i = 0; i < iterations; i++) {
+			for (String path : PATHS) {
+				count += UriParser.parse(path).size();
+			}
+		}
+		check(count);
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	private static long segments(int iterations) {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		int count = 0;
+		for (int i = 0; i < iterations; i++) {
+			for (String path : PATHS) {
+				Iterator<String> segments = UriParser.segments(path);
+				while (segments.hasNext()) {
+					count += segments.next().length();
+				}
+			}
+		}
+		check(count);
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The original implementation of {@link UriParser#parse(String)}, kept as
+	 * a baseline.
+	 */
+	private static List<String> parseOriginal(String query) {
+		List<String> parts = new ArrayList<>();
+		StringBuilder builder = new StringBuilder();
+		int i = 0;
+		while (i < query.length()) {
+			char c = query.charAt(i);
+			switch (c) {
+			case '/':
+				parts.add(builder.toString());
+				builder = new StringBuilder();
+				i++;
+				break;
+			case '%':
+				builder.append((char) Integer.parseInt(
+						query.substring(i + 1, i + 3), 16));
+				i += 3;
+				break;
+			default:
+				builder.append(c);
+				i++;
+			}
+		}
+		if (builder.length() > 0) {
+			parts.add(builder.toString());
+		}
+		return parts;
+	}
+
+	private static void check(int count) {
+		if (count == 0) {
+			throw new AssertionError();
+		}
+	}
+
+	private static void report(String name, long nanos, int iterations) {
+		System.out.printf("%-9s %8.1f ns/path%n", name,
+				(double) nanos / ((long) iterations * PATHS.length));
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.catascopic.gateway.websocket;
+
+import static com.catascopic.gateway.websocket.Frames.BINARY;
+import static com.catascopic.gateway.websocket.Frames.TEXT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * A set of connections that are sent the same messages. Each message is
+ * encoded into a frame once, and every member writes that one frame, so
+ * sending to thousands of connections costs little more than queueing it
+ * for each.
+ * <p>
+ * A member that falls behind, with more than a set number of bytes of
+ * broadcasts still to write, either misses messages until it catches up or
+ * is disconnected, as the {@link SlowConsumerPolicy} says, so that it can
+ * neither hold up the others nor make the server buffer without bound.
+ * <p>
+ * Members may join, leave and be sent to from any thread. A member that
+ * closes is dropped from the group at the next broadcast.
+ */
+public final class BroadcastGroup {
+
+	public enum SlowConsumerPolicy {
+		/**
+		 * The member misses the message, and stays in the group.
+		 */
+		DROP,
+		/**
+		 * The member is removed from the group and its connection is closed
+		 * without a closing handshake.
+		 */
+		DISCONNECT
+	}
+
+	private final Set<BroadcastMember> members = Sets.newConcurrentHashSet();
+	private final long maxBacklog;
+	private final SlowConsumerPolicy policy;
+	private final Executor writer;
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong disconnected = new AtomicLong();
+
+	/**
+	 * Creates a group in which blocking connections are written to by the
+	 * thread that broadcasts, so one whose client does not read holds up
+	 * the broadcast. Non-blocking connections are always written to by their
+	 * selector threads.
+	 *
+	 * @param maxBacklog
+	 *            the most bytes of broadcasts that a member may have yet to
+	 *            write before it is treated as slow
+	 */
+	public BroadcastGroup(long maxBacklog, SlowConsumerPolicy policy) {
+		this(maxBacklog, policy, MoreExecutors.directExecutor());
+	}
+
+	/**
+	 * @param writer
+	 *            the executor that blocking connections are written to by;
+	 *            each connection uses one thread of it at a time, and one
+	 *            whose client stops reading holds that thread until it
+	 *            closes
+	 */
+	public BroadcastGroup(long maxBacklog, SlowConsumerPolicy policy,
+			Executor writer) {
+		this.maxBacklog = maxBacklog;
+		this.policy = policy;
+		this.writer = writer;
+	}
+
+	/**
+	 * Adds a connection to the group.
+	 *
+	 * @return false if it was already a member
+	 * @throws IllegalArgumentException
+	 *             if the session is not one of this package's connections
+	 */
+	public boolean join(WebsocketSession session) {
+		if (!(session instanceof BroadcastMember)) {
+			throw new IllegalArgumentException("cannot broadcast to " + session);
+		}
+		return members.add((BroadcastMember) session);
+	}
+
+	/**
+	 * Removes a connection from the group. Frames already queued for it are
+	 * still written.
+	 *
+	 * @return false if it was not a member
+	 */
+	public boolean leave(WebsocketSession session) {
+		return members.remove(session);
+	}
+
+	public int size() {
+		return members.size();
+	}
+
+	/**
+	 * Sends a text message to every member.
+	 *
+	 * @return the number of members it was queued for
+	 */
+	public int broadcast(String message) {
+		return broadcast(TEXT, message.getBytes(UTF_8));
+	}
+
+	/**
+	 * Sends a binary message to every member. The array is copied, and may be
+	 * reused once this returns.
+	 *
+	 * @return the number of members it was queued for
+	 */
+	public int broadcast(byte[] message) {
+		return broadcast(BINARY, message);
+	}
+
+	private int broadcast(int opcode, byte[] payload) {
+		SharedFrame frame = SharedFrame.encode(opcode, payload);
+		int sent = 0;
+		try {
+			for (BroadcastMember member : members) {
+				if (member.offer(frame, maxBacklog, writer)) {
+					sent++;
+				} else if (!member.isOpen()) {
+					members.remove(member);
+				} else if (policy == SlowConsumerPolicy.DISCONNECT) {
+					members.remove(member);
+					disconnected.incrementAndGet();
+					closeQuietly(member);
+				} else {
+					dropped.incrementAndGet();
+				}
+			}
+		} finally {
+			frame.release();
+		}
+		return sent;
+	}
+
+	/**
+	 * Returns the number of times a message was not sent to a slow member.
+	 */
+	public long dropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of slow members that were disconnected.
+	 */
+	public long disconnected() {
+		return disconnected.get();
+	}
+
+	private static void closeQuietly(BroadcastMember member) {
+		try {
+			member.close();
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("BroadcastGroup[%d members, %d dropped,"
+				+ " %d disconnected]", size(), dropped(), disconnected());
+	}
+
+}
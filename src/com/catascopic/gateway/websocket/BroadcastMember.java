@@ -0,0 +1,26 @@
+package com.catascopic.gateway.websocket;
+
+import java.util.concurrent.Executor;
+
+/**
+ * A connection that a {@link BroadcastGroup} can queue shared frames for.
+ * Each keeps count of the bytes of shared frames that it has yet to write.
+ */
+interface BroadcastMember extends WebsocketSession {
+
+	/**
+	 * Queues a frame after everything already sent, unless the connection is
+	 * closed or the frames it has yet to write would come to more than the
+	 * given number of bytes. A queued frame is retained until it has been
+	 * written or the connection closes.
+	 *
+	 * @param writer
+	 *            runs writes, for a connection that has no thread of its own
+	 *            to write with
+	 * @return false if the frame was not queued
+	 */
+	boolean offer(SharedFrame frame, long maxBacklog, Executor writer);
+
+	boolean isOpen();
+
+}
@@ -0,0 +1,658 @@
+package com.catascopic.gateway.websocket;
+
+import static com.catascopic.gateway.websocket.Frames.BINARY;
+import static com.catascopic.gateway.websocket.Frames.CLOSE;
+import static com.catascopic.gateway.websocket.Frames.MAX_CONTROL_PAYLOAD;
+import static com.catascopic.gateway.websocket.Frames.NO_STATUS_CODE;
+import static com.catascopic.gateway.websocket.Frames.PING;
+import static com.catascopic.gateway.websocket.Frames.PONG;
+import static com.catascopic.gateway.websocket.Frames.TEXT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.catascopic.gateway.BufferPool;
+import com.catascopic.gateway.ChannelServer;
+import com.catascopic.gateway.HttpReader;
+import com.catascopic.gateway.HttpStatus;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * A connection of a {@link WebsocketChannelServer}. Bytes are decoded on the
+ * selector thread that owns the connection, and every event is handed to
+ * the listener through an executor that runs them one at a time, in order.
+ * Frames sent from other threads are queued and written by the selector
+ * thread.
+ */
+final class ChannelWebsocket implements BroadcastMember, FrameDecoder.Handler,
+		MessageReader.Handler {
+
+	private static final int INITIAL_HANDSHAKE_SIZE = 0x400;
+	private static final int MAX_HANDSHAKE_SIZE = 0x2000;
+	// the size of the events that the listener has yet to handle, past which
+	// the connection is not read from
+	private static final long MAX_PENDING_EVENT_BYTES = 0x100000;
+	// frames up to this size are copied into the buffer of their head
+	private static final int COPY_THRESHOLD = 0x2000;
+	private static final int INTERNAL_ERROR = 1011;
+
+	private final WebsocketChannelServer server;
+	private final ChannelServer<ChannelWebsocket>.Connection connection;
+	private final Executor events;
+	private WebsocketListener listener; // = null
+	// the listener, if it is given messages in parts
+	private StreamingWebsocketListener streamingListener; // = null
+	// permessage-deflate, if it was agreed; the senders compress while
+	// holding it
+	private volatile Compression compression; // = null
+
+	// only used by the selector thread
+	private byte[] handshake = new byte[INITIAL_HANDSHAKE_SIZE];
+	private int handshakeCount; // = 0
+	// created once the listener is known
+	private FrameDecoder decoder; // = null
+	private MessageReader reader; // = null
+	// whether the rest of the input is ignored
+	private boolean inputClosed; // = false
+	private boolean closeDispatched; // = false
+
+	private final Queue<Frame> outbound = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final AtomicBoolean closeSent = new AtomicBoolean();
+	private final AtomicLong pendingEventBytes = new AtomicLong();
+	private final AtomicLong sharedBacklog = new AtomicLong();
+	private volatile boolean open = true;
+
+	private final Runnable flush = new Runnable() {
+
+		@Override
+		public void run() {
+			flushScheduled.set(false);
+			flushOutbound();
+		}
+	};
+
+	private final Runnable resumeReads = new Runnable() {
+
+		@Override
+		public void run() {
+			if (pendingEventBytes.get() <= MAX_PENDING_EVENT_BYTES) {
+				connection.resumeReads();
+			}
+		}
+	};
+
+	ChannelWebsocket(WebsocketChannelServer server,
+			ChannelServer<ChannelWebsocket>.Connection connection,
+			Executor executor) {
+		this.server = server;
+		this.connection = connection;
+		this.events = MoreExecutors.newSequentialExecutor(executor);
+	}
+
+	void read(ByteBuffer data) throws IOException {
+		if (handshake != null) {
+			ByteBuffer rest = readHandshake(data);
+			if (rest == null) {
+				return;
+			}
+			decode(rest);
+		}
+		decode(data);
+	}
+
+	private void decode(ByteBuffer data) throws IOException {
+		if (inputClosed) {
+			return;
+		}
+		try {
+			decoder.feed(data, this);
+		} catch (WebsocketProtocolException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Gathers the upgrade request and answers it. Bytes past the most that a
+	 * request may take are left in the buffer.
+	 *
+	 * @return the bytes after the request that were gathered with it, or
+	 *         {@code null} if the request is not complete or was refused
+	 */
+	private ByteBuffer readHandshake(ByteBuffer data) throws IOException {
+		int count = Math.min(data.remaining(),
+				MAX_HANDSHAKE_SIZE - handshakeCount);
+		if (handshakeCount + count > handshake.length) {
+			handshake = Arrays.copyOf(handshake, MAX_HANDSHAKE_SIZE);
+		}
+		int from = Math.max(0, handshakeCount - 3);
+		data.get(handshake, handshakeCount, count);
+		handshakeCount += count;
+		int end = headEnd(handshake, from, handshakeCount);
+		if (end == -1) {
+			if (handshakeCount == MAX_HANDSHAKE_SIZE) {
+				refuse(HttpStatus._400_BAD_REQUEST);
+			}
+			return null;
+		}
+		Handshake request;
+		try {
+			request = Handshake.read(new HttpReader(
+					new ByteArrayInputStream(handshake, 0, end)));
+		} catch (WebsocketException e) {
+			refuse(HttpStatus._400_BAD_REQUEST);
+			return null;
+		}
+		listener = server.createListener(request.uri(), request.headers());
+		if (listener == null) {
+			refuse(HttpStatus._404_NOT_FOUND);
+			return null;
+		}
+		if (listener instanceof StreamingWebsocketListener) {
+			streamingListener = (StreamingWebsocketListener) listener;
+		}
+		long maxMessageSize = listener.maxMessageSize();
+		decoder = new FrameDecoder(maxMessageSize);
+		reader = new MessageReader(this, streamingListener != null,
+				maxMessageSize);
+		compression = request.negotiate(
+				server.compression(request.uri(), request.headers()));
+		if (compression != null) {
+			decoder.allowCompressed();
+			reader.setCompression(compression);
+		}
+		connection.write(ByteBuffer.wrap(request.accept(compression)));
+		ByteBuffer rest = ByteBuffer.wrap(handshake, end, handshakeCount - end);
+		handshake = null;
+		dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onOpen(ChannelWebsocket.this);
+			}
+		}, 0);
+		return rest;
+	}
+
+	private static int headEnd(byte[] buf, int from, int to) {
+		for (int i = from; i + 3 < to; i++) {
+			if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r'
+					&& buf[i + 3] == '\n') {
+				return i + 4;
+			}
+		}
+		return -1;
+	}
+
+	private void refuse(HttpStatus status) throws IOException {
+		inputClosed = true;
+		handshake = null;
+		connection.write(ByteBuffer.wrap(Handshake.refuse(status)));
+		connection.closeAfterWrites();
+	}
+
+	@Override
+	public void frame(boolean fin, boolean compressed, int opcode,
+			ByteBuffer payload) throws IOException {
+		if (inputClosed) {
+			return;
+		}
+		switch (opcode) {
+		case PING:
+			handlePing(toByteArray(payload));
+			break;
+		case PONG:
+			final byte[] pong = toByteArray(payload);
+			dispatch(new Runnable() {
+
+				@Override
+				public void run() {
+					listener.onPong(pong);
+				}
+			}, pong.length);
+			break;
+		case CLOSE:
+			handleClose(toByteArray(payload));
+			break;
+		default:
+			reader.frame(fin, compressed, opcode, payload);
+		}
+	}
+
+	@Override
+	public void text(final String message) {
+		dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onText(message);
+			}
+		}, message.length());
+	}
+
+	/**
+	 * Hands on a binary message in a pooled buffer, which is released once
+	 * the listener returns. A message that is only valid until the next read
+	 * is copied into one first.
+	 */
+	@Override
+	public void binary(ByteBuffer message, boolean pooled) {
+		final ByteBuffer buffer = pooled ? message : copy(message);
+		dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onBinary(buffer.asReadOnlyBuffer());
+			}
+		}, buffer.remaining(), buffer);
+	}
+
+	@Override
+	public void textPart(final String part, final boolean last) {
+		dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				streamingListener.onTextPart(part, last);
+			}
+		}, part.length());
+	}
+
+	/**
+	 * Hands on a part of a binary message in a pooled copy, as the part is
+	 * only valid until the next read, which is released once the listener
+	 * returns.
+	 */
+	@Override
+	public void binaryPart(ByteBuffer part, final boolean last) {
+		final ByteBuffer copy = copy(part);
+		dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				streamingListener.onBinaryPart(copy.asReadOnlyBuffer(), last);
+			}
+		}, copy.remaining(), copy);
+	}
+
+	private static ByteBuffer copy(ByteBuffer bytes) {
+		ByteBuffer copy = BufferPool.HEAP.acquire(bytes.remaining());
+		copy.put(bytes);
+		copy.flip();
+		return copy;
+	}
+
+	private static byte[] toByteArray(ByteBuffer payload) {
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		return bytes;
+	}
+
+	private void handlePing(final byte[] payload) {
+		if (!closeSent.get()) {
+			queue(PONG, false, payload, 0, payload.length, false);
+		}
+		dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onPing(payload);
+			}
+		}, payload.length);
+	}
+
+	private void handleClose(byte[] payload) throws IOException {
+		int length = payload.length;
+		final int code;
+		final String reason;
+		if (length >= 2) {
+			code = ((payload[0] & 0xFF) << Byte.SIZE) | (payload[1] & 0xFF);
+			reason = new String(payload, 2, length - 2, UTF_8);
+		} else if (length == 1) {
+			throw new WebsocketProtocolException("bad close payload");
+		} else {
+			code = NO_STATUS_CODE;
+			reason = "";
+		}
+		inputClosed = true;
+		if (closeSent.compareAndSet(false, true)) {
+			byte[] echo = length >= 2 ? Frames.closePayload(code, "")
+					: new byte[0];
+			queue(CLOSE, false, echo, 0, echo.length, false);
+		}
+		// the connection may close at once, which must not be reported as
+		// an abnormal closure
+		closeDispatched = true;
+		dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onClose(code, reason);
+			}
+		}, length);
+		closeAfterFlush();
+	}
+
+	private void fail(final WebsocketProtocolException e) {
+		inputClosed = true;
+		if (closeSent.compareAndSet(false, true)) {
+			byte[] payload = Frames.closePayload(e.closeCode(),
+					e.getMessage() == null ? "" : e.getMessage());
+			queue(CLOSE, false, payload, 0, payload.length, false);
+		}
+		dispatch(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.onError(e);
+			}
+		}, 0);
+		closeAfterFlush();
+	}
+
+	private void closeAfterFlush() {
+		flushOutbound();
+		try {
+			connection.closeAfterWrites();
+		} catch (IOException e) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Called on the selector thread once the connection is closed.
+	 */
+	void closed() {
+		open = false;
+		if (reader != null) {
+			reader.release();
+		}
+		Compression compression = this.compression;
+		if (compression != null) {
+			synchronized (compression) {
+				compression.release();
+			}
+		}
+		releaseOutbound();
+		if (listener != null && !closeDispatched) {
+			closeDispatched = true;
+			dispatch(new Runnable() {
+
+				@Override
+				public void run() {
+					listener.onClose(Frames.ABNORMAL_CLOSURE, "");
+				}
+			}, 0);
+		}
+	}
+
+	/**
+	 * Hands an event to the listener, and stops reading from the connection
+	 * while the listener is too far behind.
+	 */
+	private void dispatch(Runnable event, long size) {
+		dispatch(event, size, null);
+	}
+
+	/**
+	 * @param pooled
+	 *            a buffer that the event uses, to be released once it has
+	 *            run, or {@code null}
+	 */
+	private void dispatch(final Runnable event, final long size,
+			final ByteBuffer pooled) {
+		if (pendingEventBytes.addAndGet(size) > MAX_PENDING_EVENT_BYTES) {
+			connection.suspendReads();
+		}
+		try {
+			events.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						event.run();
+					} catch (RuntimeException e) {
+						listener.onError(e);
+						sendCloseQuietly(INTERNAL_ERROR);
+					} finally {
+						if (pooled != null) {
+							BufferPool.HEAP.release(pooled);
+						}
+						long pending = pendingEventBytes.addAndGet(-size);
+						if (pending <= MAX_PENDING_EVENT_BYTES
+								&& pending + size > MAX_PENDING_EVENT_BYTES) {
+							connection.execute(resumeReads);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// the listener is gone with its executor
+			if (pooled != null) {
+				BufferPool.HEAP.release(pooled);
+			}
+			pendingEventBytes.addAndGet(-size);
+			connection.close();
+		}
+	}
+
+	private void sendCloseQuietly(int code) {
+		try {
+			sendClose(code, "");
+		} catch (IOException e) {
+			// already closed
+		}
+	}
+
+	// Write methods
+
+	@Override
+	public void send(String message) throws IOException {
+		byte[] bytes = message.getBytes(UTF_8);
+		checkOpen();
+		sendMessage(TEXT, bytes, false);
+	}
+
+	@Override
+	public void send(byte[] message) throws IOException {
+		checkOpen();
+		sendMessage(BINARY, message, true);
+	}
+
+	private void sendMessage(int opcode, byte[] payload, boolean copy) {
+		Compression compression = this.compression;
+		if (compression == null
+				|| !compression.shouldCompress(payload.length)) {
+			queue(opcode, false, payload, 0, payload.length, copy);
+			return;
+		}
+		synchronized (compression) {
+			// compressed in the order queued, as each depends on the last
+			ByteBuffer compressed =
+					compression.compress(payload, 0, payload.length);
+			try {
+				queue(opcode, true, compressed.array(),
+						compressed.arrayOffset(), compressed.remaining(), true);
+			} finally {
+				BufferPool.HEAP.release(compressed);
+			}
+		}
+	}
+
+	@Override
+	public void sendPing(byte[] payload) throws IOException {
+		if (payload.length > MAX_CONTROL_PAYLOAD) {
+			throw new IllegalArgumentException("ping too long");
+		}
+		checkOpen();
+		queue(PING, false, payload, 0, payload.length, true);
+	}
+
+	@Override
+	public void sendClose(int code, String reason) throws IOException {
+		if (!open) {
+			throw new WebsocketException("closed");
+		}
+		if (closeSent.compareAndSet(false, true)) {
+			byte[] payload = Frames.closePayload(code, reason);
+			queue(CLOSE, false, payload, 0, payload.length, false);
+		}
+	}
+
+	/**
+	 * Closes the connection without a closing handshake.
+	 */
+	@Override
+	public void close() {
+		connection.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				connection.close();
+			}
+		});
+	}
+
+	@Override
+	public boolean offer(SharedFrame frame, long maxBacklog, Executor writer) {
+		if (!isOpen()) {
+			return false;
+		}
+		int length = frame.length();
+		if (sharedBacklog.addAndGet(length) > maxBacklog) {
+			sharedBacklog.addAndGet(-length);
+			return false;
+		}
+		frame.retain();
+		enqueue(new Frame(frame));
+		return true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open && !closeSent.get();
+	}
+
+	private void checkOpen() throws WebsocketException {
+		if (!isOpen()) {
+			throw new WebsocketException("closed");
+		}
+	}
+
+	/**
+	 * Encodes a frame and queues it to be written by the selector thread.
+	 *
+	 * @param copy
+	 *            whether the payload belongs to the caller, so that it must
+	 *            be copied rather than written from
+	 */
+	private void queue(int opcode, boolean compressed, byte[] payload,
+			int off, int len, boolean copy) {
+		int headLength = Frames.headLength(len);
+		ByteBuffer head;
+		ByteBuffer body;
+		if (headLength + len <= COPY_THRESHOLD) {
+			head = BufferPool.DIRECT.acquire(headLength + len);
+			Frames.putHead(head, true, compressed, opcode, len);
+			head.put(payload, off, len);
+			body = null;
+		} else {
+			head = BufferPool.DIRECT.acquire(headLength);
+			Frames.putHead(head, true, compressed, opcode, len);
+			body = copy
+					? ByteBuffer.wrap(Arrays.copyOfRange(payload, off, off + len))
+					: ByteBuffer.wrap(payload, off, len);
+		}
+		head.flip();
+		enqueue(new Frame(head, body));
+	}
+
+	private void enqueue(Frame frame) {
+		outbound.add(frame);
+		if (flushScheduled.compareAndSet(false, true)) {
+			connection.execute(flush);
+		}
+	}
+
+	/**
+	 * Hands every queued frame to the connection. Only called on the selector
+	 * thread.
+	 */
+	private void flushOutbound() {
+		if (!connection.isOpen()) {
+			releaseOutbound();
+			return;
+		}
+		Frame frame;
+		while ((frame = outbound.poll()) != null) {
+			try {
+				if (frame.shared != null) {
+					connection.write(frame.shared.view(),
+							sharedWritten(frame.shared));
+				} else {
+					connection.write(BufferPool.DIRECT, frame.head, frame.body);
+				}
+			} catch (IOException e) {
+				connection.close();
+				releaseOutbound();
+				return;
+			}
+		}
+	}
+
+	private void releaseOutbound() {
+		Frame frame;
+		while ((frame = outbound.poll()) != null) {
+			if (frame.shared != null) {
+				releaseShared(frame.shared);
+			} else {
+				BufferPool.DIRECT.release(frame.head);
+			}
+		}
+	}
+
+	private Runnable sharedWritten(final SharedFrame frame) {
+		return new Runnable() {
+
+			@Override
+			public void run() {
+				releaseShared(frame);
+			}
+		};
+	}
+
+	private void releaseShared(SharedFrame frame) {
+		sharedBacklog.addAndGet(-frame.length());
+		frame.release();
+	}
+
+	private static final class Frame {
+
+		final ByteBuffer head;
+		final ByteBuffer body;
+		// a frame shared with other connections, in place of head and body
+		final SharedFrame shared;
+
+		Frame(ByteBuffer head, ByteBuffer body) {
+			this.head = head;
+			this.body = body;
+			this.shared = null;
+		}
+
+		Frame(SharedFrame shared) {
+			this.head = null;
+			this.body = null;
+			this.shared = shared;
+		}
+	}
+
+}
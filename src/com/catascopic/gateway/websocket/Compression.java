@@ -0,0 +1,214 @@
+package com.catascopic.gateway.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.catascopic.gateway.BufferPool;
+
+/**
+ * The permessage-deflate extension as agreed with one client: compresses the
+ * messages that the server sends and decompresses those it receives.
+ * <p>
+ * Messages must be compressed in the order they are sent and decompressed
+ * in the order they are received, so each direction must be used by one
+ * thread at a time. A message is decompressed a piece at a time as it
+ * arrives, so that it never needs to be held whole.
+ */
+final class Compression {
+
+	// the end of an empty stored block, which a flush ends with, and which is
+	// left off the end of each message (RFC 7692 section 7.2.1)
+	private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+	private static final int INVALID_PAYLOAD = 1007;
+
+	private final PerMessageDeflate settings;
+	private final String response;
+	// null if each message is compressed on its own
+	private Deflater deflater;
+	// null if each message was compressed on its own
+	private Inflater inflater;
+
+	// the inflater of the message being decompressed, or null
+	private Inflater messageInflater; // = null
+	private boolean lastPiece; // = false
+	private boolean tailGiven; // = false
+	// whether the message being decompressed has ended its stream
+	private boolean ended; // = false
+	// a copy of a piece that is not in an array
+	private byte[] input = new byte[0];
+
+	Compression(PerMessageDeflate settings, boolean serverNoContextTakeover,
+			boolean clientNoContextTakeover, String response) {
+		this.settings = settings;
+		this.response = response;
+		if (!serverNoContextTakeover) {
+			deflater = settings.acquireDeflater();
+		}
+		if (!clientNoContextTakeover) {
+			inflater = settings.acquireInflater();
+		}
+	}
+
+	/**
+	 * Returns the value of the {@code Sec-WebSocket-Extensions} header that
+	 * accepts the extension.
+	 */
+	String response() {
+		return response;
+	}
+
+	/**
+	 * Returns whether a message of the given length is worth compressing.
+	 */
+	boolean shouldCompress(int length) {
+		return length >= settings.minSize();
+	}
+
+	/**
+	 * Compresses a message.
+	 *
+	 * @return a pooled heap buffer, flipped, which the caller releases
+	 */
+	ByteBuffer compress(byte[] message, int off, int len) {
+		Deflater deflater = this.deflater;
+		if (deflater == null) {
+			deflater = settings.acquireDeflater();
+		}
+		ByteBuffer out = BufferPool.HEAP.acquire(len / 2 + 0x40);
+		out.limit(out.capacity());
+		try {
+			deflater.setInput(message, off, len);
+			for (;;) {
+				int count = deflater.deflate(out.array(),
+						out.arrayOffset() + out.position(), out.remaining(),
+						Deflater.SYNC_FLUSH);
+				out.position(out.position() + count);
+				if (out.hasRemaining()) {
+					// everything is flushed once there is room to spare
+					break;
+				}
+				out = grow(out, out.capacity() * 2);
+			}
+		} finally {
+			if (this.deflater == null) {
+				settings.release(deflater);
+			}
+		}
+		out.position(out.position() - TAIL.length);
+		out.flip();
+		return out;
+	}
+
+	/**
+	 * Gives the decompressor the next piece of a message, which must be
+	 * consumed by calls to {@link #inflate} before the next is given.
+	 *
+	 * @param last
+	 *            whether this is the last piece of the message
+	 */
+	void setInput(ByteBuffer piece, boolean last) {
+		if (messageInflater == null) {
+			messageInflater = inflater != null
+					? inflater : settings.acquireInflater();
+		}
+		lastPiece = last;
+		if (ended) {
+			return;
+		}
+		int length = piece.remaining();
+		if (piece.hasArray()) {
+			messageInflater.setInput(piece.array(),
+					piece.arrayOffset() + piece.position(), length);
+		} else {
+			if (input.length < length) {
+				input = new byte[Math.max(length, input.length * 2)];
+			}
+			piece.duplicate().get(input, 0, length);
+			messageInflater.setInput(input, 0, length);
+		}
+	}
+
+	/**
+	 * Decompresses the piece given to {@link #setInput} into the remaining
+	 * space of a heap buffer.
+	 *
+	 * @return true if the buffer was filled, so that there may be more to
+	 *         come, or false if the piece has been consumed
+	 * @throws WebsocketProtocolException
+	 *             if the message is not valid DEFLATE data
+	 */
+	boolean inflate(ByteBuffer out) throws WebsocketProtocolException {
+		Inflater inflater = messageInflater;
+		try {
+			while (!ended) {
+				if (!out.hasRemaining()) {
+					return true;
+				}
+				int count = inflater.inflate(out.array(),
+						out.arrayOffset() + out.position(), out.remaining());
+				out.position(out.position() + count);
+				if (inflater.finished()) {
+					// the client ended the stream, and begins a new one with
+					// the next message; the rest of this one is ignored
+					inflater.reset();
+					ended = true;
+				} else if (inflater.needsDictionary()) {
+					throw new WebsocketProtocolException(INVALID_PAYLOAD,
+							"bad compressed data");
+				} else if (inflater.needsInput()) {
+					if (!lastPiece || tailGiven) {
+						break;
+					}
+					inflater.setInput(TAIL);
+					tailGiven = true;
+				}
+			}
+		} catch (DataFormatException e) {
+			throw new WebsocketProtocolException(INVALID_PAYLOAD,
+					"bad compressed data: " + e.getMessage());
+		}
+		if (lastPiece) {
+			endMessage();
+		}
+		return false;
+	}
+
+	private void endMessage() {
+		if (messageInflater != inflater) {
+			settings.release(messageInflater);
+		}
+		messageInflater = null;
+		tailGiven = false;
+		ended = false;
+	}
+
+	private static ByteBuffer grow(ByteBuffer buffer, int size) {
+		ByteBuffer larger = BufferPool.HEAP.acquire(size);
+		larger.limit(larger.capacity());
+		buffer.flip();
+		larger.put(buffer);
+		BufferPool.HEAP.release(buffer);
+		return larger;
+	}
+
+	/**
+	 * Returns the compressors of the connection to the pool. The connection
+	 * must be done with it.
+	 */
+	void release() {
+		if (messageInflater != null) {
+			endMessage();
+		}
+		if (deflater != null) {
+			settings.release(deflater);
+			deflater = null;
+		}
+		if (inflater != null) {
+			settings.release(inflater);
+			inflater = null;
+		}
+	}
+
+}
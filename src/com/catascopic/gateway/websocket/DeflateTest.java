@@ -0,0 +1,123 @@
+package com.catascopic.gateway.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.catascopic.gateway.BufferPool;
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares the size of small, similar JSON messages, like those of a chat or
+ * a feed of prices, sent as they are, compressed with context takeover and
+ * compressed with no context takeover, and the time it takes to compress and
+ * decompress them. Each compressed message is decompressed and checked
+ * against the original.
+ * <p>
+ * Usage: {@code DeflateTest [messages] [rounds]}
+ */
+public class DeflateTest {
+
+	private static final String[] USERS =
+			{ "alice", "bob", "carol", "dave", "eve" };
+	private static final String[] WORDS = { "hello", "there", "price",
+			"update", "market", "order", "filled", "cancel", "the", "of" };
+
+	public static void main(String[] args) throws Exception {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		byte[][] messages = messages(new Random(1), count);
+		long plain = 0;
+		for (byte[] message : messages) {
+			plain += message.length;
+		}
+		PerMessageDeflate settings =
+				PerMessageDeflate.builder().setMinSize(0).build();
+		String takeover = PerMessageDeflate.EXTENSION_NAME;
+		String noTakeover = PerMessageDeflate.EXTENSION_NAME + "; "
+				+ PerMessageDeflate.SERVER_NO_CONTEXT_TAKEOVER + "; "
+				+ PerMessageDeflate.CLIENT_NO_CONTEXT_TAKEOVER;
+
+		// warm up
+		for (int i = 0; i < rounds; i++) {
+			run(settings, takeover, messages);
+			run(settings, noTakeover, messages);
+		}
+		System.out.printf("%-14s %6.1f bytes/message%n", "none",
+				(double) plain / count);
+		for (int i = 0; i < rounds; i++) {
+			report("takeover", run(settings, takeover, messages), count);
+			report("no takeover", run(settings, noTakeover, messages), count);
+		}
+	}
+
+	/**
+	 * @return the compressed size and the nanoseconds spent compressing and
+	 *         decompressing
+	 */
+	private static long[] run(PerMessageDeflate settings, String offer,
+			byte[][] messages) throws WebsocketProtocolException {
+		// one for each end, as a message is compressed by one context and
+		// decompressed by another
+		Compression sender =
+				settings.negotiate(Collections.singletonList(offer));
+		Compression receiver =
+				settings.negotiate(Collections.singletonList(offer));
+		ByteBuffer decompressed = ByteBuffer.allocate(0x10000);
+		long size = 0;
+		long compressNanos = 0;
+		long decompressNanos = 0;
+		Stopwatch stopwatch = Stopwatch.createUnstarted();
+		for (byte[] message : messages) {
+			stopwatch.reset().start();
+			ByteBuffer compressed =
+					sender.compress(message, 0, message.length);
+			compressNanos += stopwatch.elapsed(TimeUnit.NANOSECONDS);
+			size += compressed.remaining();
+
+			stopwatch.reset().start();
+			decompressed.clear();
+			receiver.setInput(compressed, true);
+			boolean filled = receiver.inflate(decompressed);
+			decompressNanos += stopwatch.elapsed(TimeUnit.NANOSECONDS);
+			decompressed.flip();
+			byte[] result = new byte[decompressed.remaining()];
+			decompressed.get(result);
+			if (filled || !Arrays.equals(message, result)) {
+				throw new AssertionError(new String(message,
+						StandardCharsets.UTF_8));
+			}
+			BufferPool.HEAP.release(compressed);
+		}
+		sender.release();
+		receiver.release();
+		return new long[] { size, compressNanos, decompressNanos };
+	}
+
+	private static byte[][] messages(Random random, int count) {
+		byte[][] messages = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			StringBuilder text = new StringBuilder();
+			for (int j = 4 + random.nextInt(8); j > 0; j--) {
+				text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			String json = "{\"type\":\"message\",\"room\":\"general\",\"user\":\""
+					+ USERS[random.nextInt(USERS.length)] + "\",\"seq\":" + i
+					+ ",\"time\":" + (1500000000000L + i * 137L)
+					+ ",\"text\":\"" + text.toString().trim() + "\"}";
+			messages[i] = json.getBytes(StandardCharsets.UTF_8);
+		}
+		return messages;
+	}
+
+	private static void report(String name, long[] result, int count) {
+		System.out.printf("%-14s %6.1f bytes/message %8.0f ns compress"
+				+ " %8.0f ns decompress%n", name, (double) result[0] / count,
+				(double) result[1] / count, (double) result[2] / count);
+	}
+
+}
@@ -0,0 +1,356 @@
+package com.catascopic.gateway.websocket;
+
+import static com.catascopic.gateway.websocket.Frames.CONTINUATION;
+import static com.catascopic.gateway.websocket.Frames.FIN_BIT;
+import static com.catascopic.gateway.websocket.Frames.LARGE_LENGTH_BYTES;
+import static com.catascopic.gateway.websocket.Frames.LARGE_LENGTH_CODE;
+import static com.catascopic.gateway.websocket.Frames.LENGTH_MASK;
+import static com.catascopic.gateway.websocket.Frames.MASK_BIT;
+import static com.catascopic.gateway.websocket.Frames.MASK_LENGTH;
+import static com.catascopic.gateway.websocket.Frames.MAX_CONTROL_PAYLOAD;
+import static com.catascopic.gateway.websocket.Frames.MAX_HEAD_SIZE;
+import static com.catascopic.gateway.websocket.Frames.MID_LENGTH_BYTES;
+import static com.catascopic.gateway.websocket.Frames.MID_LENGTH_CODE;
+import static com.catascopic.gateway.websocket.Frames.OPCODE_MASK;
+import static com.catascopic.gateway.websocket.Frames.RSV1_BIT;
+import static com.catascopic.gateway.websocket.Frames.RSV_BITS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes the frames that a client sends from bytes that arrive in arbitrary
+ * pieces, as they do from a non-blocking channel.
+ * <p>
+ * A frame that lies wholly in the bytes given to {@link #feed} is decoded
+ * where it is: its head is parsed from the buffer, and its payload is
+ * unmasked in place and handed on without being copied. The payload of a
+ * data frame that is split between reads is unmasked in place too, and
+ * handed on in pieces as it arrives, so that however large a frame is, none
+ * of it is buffered. Only heads and control frames, which are small, are
+ * gathered when they are split. Unmasking XORs eight bytes at a time.
+ */
+final class FrameDecoder {
+
+	/**
+	 * Receives each frame.
+	 */
+	interface Handler {
+
+		/**
+		 * Called with each frame, or with each piece of a data frame that
+		 * is split between reads. The pieces of a frame are handed on as if
+		 * they were frames of a fragmented message: all but the first are
+		 * continuations, and only the last has the fin bit of the frame.
+		 *
+		 * @param compressed
+		 *            whether RSV1 is set, which marks the first frame of a
+		 *            compressed message
+		 * @param payload
+		 *            the unmasked payload, from its position to its limit,
+		 *            which is only valid for the duration of the call
+		 */
+		void frame(boolean fin, boolean compressed, int opcode,
+				ByteBuffer payload) throws IOException;
+	}
+
+	private static final int MESSAGE_TOO_BIG = 1009;
+	private static final int WORD_SIZE = 8;
+
+	private final long maxPayloadSize;
+
+	// the head of a frame that is split between reads
+	private final byte[] head = new byte[MAX_HEAD_SIZE];
+	private final ByteBuffer headBuffer = ByteBuffer.wrap(head);
+	private int headCount; // = 0
+	// the length of the current head, which is known once its second byte
+	// has been read
+	private int headLength = 2;
+
+	// RSV1 is allowed once compression has been agreed
+	private int allowedRsvBits; // = 0
+
+	private boolean fin;
+	private boolean compressed;
+	private int opcode;
+	// the mask, with its first byte in the high bits
+	private int mask;
+	// whether the head of a frame has been read, but not all of its payload
+	private boolean inPayload; // = false
+	private long payloadLength;
+	private long payloadRead;
+	// the payload of a control frame that is split between reads
+	private final ByteBuffer control =
+			ByteBuffer.allocate(MAX_CONTROL_PAYLOAD);
+
+	/**
+	 * @param maxPayloadSize
+	 *            the largest payload to accept; a frame that claims to be
+	 *            larger is refused as soon as its head is read
+	 */
+	FrameDecoder(long maxPayloadSize) {
+		this.maxPayloadSize = maxPayloadSize;
+	}
+
+	/**
+	 * Allows RSV1, which marks the first frame of a compressed message.
+	 */
+	void allowCompressed() {
+		allowedRsvBits = RSV1_BIT;
+	}
+
+	/**
+	 * Decodes all remaining bytes of the buffer, handing on every frame and
+	 * piece of a frame that they hold. The payloads of data frames are
+	 * unmasked in place.
+	 */
+	void feed(ByteBuffer data, Handler handler) throws IOException {
+		for (;;) {
+			if (!inPayload) {
+				if (headCount == 0 && decodeWhole(data, handler)) {
+					continue;
+				}
+				if (!readHead(data)) {
+					return;
+				}
+			}
+			boolean more = Frames.isControl(opcode)
+					? readControl(data, handler)
+					: readPiece(data, handler);
+			if (!more) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Decodes a frame that lies wholly in the buffer.
+	 *
+	 * @return false if the buffer does not hold a whole frame, in which case
+	 *         nothing has been read from it
+	 */
+	private boolean decodeWhole(ByteBuffer data, Handler handler)
+			throws IOException {
+		int position = data.position();
+		int available = data.limit() - position;
+		if (available < 2) {
+			return false;
+		}
+		int length = headLength(data.get(position + 1));
+		if (available < length) {
+			return false;
+		}
+		long payloadSize = parseHead(data, position, length);
+		if (available - length < payloadSize) {
+			return false;
+		}
+		int start = position + length;
+		int end = start + (int) payloadSize;
+		unmask(data, start, end, mask, 0);
+		int limit = data.limit();
+		data.position(start);
+		data.limit(end);
+		try {
+			handler.frame(fin, compressed, opcode, data);
+		} finally {
+			data.limit(limit);
+			data.position(end);
+		}
+		return true;
+	}
+
+	/**
+	 * Gathers the head of the next frame, and once it is complete, prepares
+	 * to gather its payload.
+	 *
+	 * @return true if the head is complete
+	 */
+	private boolean readHead(ByteBuffer data)
+			throws WebsocketProtocolException {
+		while (headCount < headLength) {
+			if (!data.hasRemaining()) {
+				return false;
+			}
+			int count = Math.min(data.remaining(), headLength - headCount);
+			data.get(head, headCount, count);
+			headCount += count;
+			if (headCount == 2) {
+				headLength = headLength(head[1]);
+			}
+		}
+		payloadLength = parseHead(headBuffer, 0, headLength);
+		payloadRead = 0;
+		inPayload = true;
+		headCount = 0;
+		headLength = 2;
+		return true;
+	}
+
+	/**
+	 * Hands on as much of the payload of a data frame as the buffer holds.
+	 *
+	 * @return false if the buffer is used up before the payload
+	 */
+	private boolean readPiece(ByteBuffer data, Handler handler)
+			throws IOException {
+		long left = payloadLength - payloadRead;
+		if (left > 0 && !data.hasRemaining()) {
+			return false;
+		}
+		int count = (int) Math.min(data.remaining(), left);
+		int start = data.position();
+		int end = start + count;
+		// only the low bits of the offset matter
+		unmask(data, start, end, mask, (int) payloadRead);
+		boolean first = payloadRead == 0;
+		payloadRead += count;
+		boolean last = payloadRead == payloadLength;
+		if (last) {
+			inPayload = false;
+		}
+		int limit = data.limit();
+		data.limit(end);
+		try {
+			handler.frame(fin && last, compressed && first,
+					first ? opcode : CONTINUATION, data);
+		} finally {
+			data.limit(limit);
+			data.position(end);
+		}
+		return true;
+	}
+
+	/**
+	 * Gathers the payload of a control frame, and hands it on once it is
+	 * complete.
+	 *
+	 * @return false if the buffer is used up before the payload
+	 */
+	private boolean readControl(ByteBuffer data, Handler handler)
+			throws IOException {
+		int start = control.position();
+		int count = (int) Math.min(data.remaining(), payloadLength - start);
+		int limit = data.limit();
+		data.limit(data.position() + count);
+		control.put(data);
+		data.limit(limit);
+		unmask(control, start, start + count, mask, start);
+		if (control.position() < payloadLength) {
+			return false;
+		}
+		control.flip();
+		inPayload = false;
+		try {
+			handler.frame(fin, compressed, opcode, control);
+		} finally {
+			control.clear();
+		}
+		return true;
+	}
+
+	/**
+	 * Parses and checks a whole head, setting the fields of the frame.
+	 *
+	 * @return the length of the payload
+	 */
+	private long parseHead(ByteBuffer src, int at, int length)
+			throws WebsocketProtocolException {
+		int finOpcode = src.get(at) & 0xFF;
+		int second = src.get(at + 1) & 0xFF;
+		if ((finOpcode & RSV_BITS & ~allowedRsvBits) != 0) {
+			throw new WebsocketProtocolException("reserved bits set");
+		}
+		boolean fin = (finOpcode & FIN_BIT) != 0;
+		boolean compressed = (finOpcode & RSV1_BIT) != 0;
+		int opcode = finOpcode & OPCODE_MASK;
+		if (compressed
+				&& (opcode == CONTINUATION || Frames.isControl(opcode))) {
+			throw new WebsocketProtocolException("RSV1 on " + opcode);
+		}
+		long payloadSize = second & LENGTH_MASK;
+		int maskAt = at + length - MASK_LENGTH;
+		if (payloadSize >= MID_LENGTH_CODE) {
+			payloadSize = 0;
+			for (int i = at + 2; i < maskAt; i++) {
+				payloadSize = payloadSize << Byte.SIZE | (src.get(i) & 0xFF);
+			}
+			if (payloadSize < 0) {
+				// the most significant bit must be 0
+				throw new WebsocketProtocolException("bad length");
+			}
+		}
+		if (Frames.isControl(opcode)
+				&& (!fin || payloadSize > MAX_CONTROL_PAYLOAD)) {
+			throw new WebsocketProtocolException("bad control frame");
+		}
+		if (payloadSize > maxPayloadSize) {
+			throw new WebsocketProtocolException(MESSAGE_TOO_BIG,
+					"frame too big: " + payloadSize);
+		}
+		this.fin = fin;
+		this.compressed = compressed;
+		this.opcode = opcode;
+		this.mask = (src.get(maskAt) & 0xFF) << 24
+				| (src.get(maskAt + 1) & 0xFF) << 16
+				| (src.get(maskAt + 2) & 0xFF) << 8
+				| (src.get(maskAt + 3) & 0xFF);
+		return payloadSize;
+	}
+
+	/**
+	 * Returns the length of a head from its second byte, refusing an unmasked
+	 * frame without waiting for the rest of it.
+	 */
+	private static int headLength(byte second)
+			throws WebsocketProtocolException {
+		if ((second & MASK_BIT) == 0) {
+			throw new WebsocketProtocolException("unmasked frame");
+		}
+		switch (second & LENGTH_MASK) {
+		case MID_LENGTH_CODE:
+			return 2 + MID_LENGTH_BYTES + MASK_LENGTH;
+		case LARGE_LENGTH_CODE:
+			return 2 + LARGE_LENGTH_BYTES + MASK_LENGTH;
+		default:
+			return 2 + MASK_LENGTH;
+		}
+	}
+
+	/**
+	 * XORs bytes of a buffer with a mask in place.
+	 *
+	 * @param from
+	 *            the index of the first byte
+	 * @param to
+	 *            the index after the last byte
+	 * @param mask
+	 *            the mask, with its first byte in the high bits
+	 * @param offset
+	 *            the index of the first byte in the payload, which decides
+	 *            which byte of the mask it lines up with
+	 */
+	static void unmask(ByteBuffer buffer, int from, int to, int mask,
+			int offset) {
+		// the mask as it lines up with the first byte
+		int aligned = Integer.rotateLeft(mask,
+				(offset & (MASK_LENGTH - 1)) * Byte.SIZE);
+		int i = from;
+		if (to - from >= WORD_SIZE) {
+			long word = (aligned & 0xFFFFFFFFL) << 32 | (aligned & 0xFFFFFFFFL);
+			if (buffer.order() == ByteOrder.LITTLE_ENDIAN) {
+				word = Long.reverseBytes(word);
+			}
+			for (; i + WORD_SIZE <= to; i += WORD_SIZE) {
+				buffer.putLong(i, buffer.getLong(i) ^ word);
+			}
+		}
+		// whole words keep the mask aligned
+		for (; i < to; i++) {
+			int shift = (MASK_LENGTH - 1 - ((i - from) & (MASK_LENGTH - 1)))
+					* Byte.SIZE;
+			buffer.put(i, (byte) (buffer.get(i) ^ (aligned >>> shift)));
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.catascopic.gateway.websocket;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares decoding masked binary frames the way {@link Websocket} used to,
+ * a byte of the head at a time from a stream and unmasking a byte at a time,
+ * with {@link FrameDecoder}, both fed in reads the size of a socket buffer
+ * and fed all at once. The unmasking of {@link FrameDecoder} is checked
+ * against the plain loop first.
+ * <p>
+ * Usage: {@code FrameDecoderTest [iterations] [rounds]}
+ */
+public class FrameDecoderTest {
+
+	private static final int FRAME_SIZE = 0x10000;
+	private static final int FRAMES_PER_STREAM = 64;
+	private static final int READ_SIZE = 0x4000;
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		checkUnmask();
+		byte[] input = frames(new Random(1));
+		byte[] work = new byte[input.length];
+
+		// warm up
+		for (int i = 0; i < rounds; i++) {
+			stream(input, iterations);
+			decoder(input, work, READ_SIZE, iterations);
+			decoder(input, work, input.length, iterations);
+		}
+		for (int i = 0; i < rounds; i++) {
+			report("stream", stream(input, iterations), iterations);
+			report("decoder 16K", decoder(input, work, READ_SIZE, iterations),
+					iterations);
+			report("decoder whole",
+					decoder(input, work, input.length, iterations), iterations);
+		}
+	}
+
+	private static long stream(byte[] input, int iterations)
+			throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		long sum = 0;
+		for (int i = 0; i < iterations; i++) {
+			// copied like the decoder's input, to be fair
+			byte[] copy = input.clone();
+			DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(copy));
+			for (int j = 0; j < FRAMES_PER_STREAM; j++) {
+				sum += readFrameUnbuffered(in).length;
+			}
+		}
+		check(sum, iterations);
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	private static long decoder(byte[] input, byte[] work, int readSize,
+			int iterations) throws IOException {
+		Stopwatch stopwatch = Stopwatch.createStarted();
+		final long[] sum = new long[1];
+		FrameDecoder.Handler handler = new FrameDecoder.Handler() {
+
+			@Override
+			public void frame(boolean fin, boolean compressed, int opcode,
+					ByteBuffer payload) {
+				sum[0] += payload.remaining();
+			}
+		};
+		for (int i = 0; i < iterations; i++) {
+			System.arraycopy(input, 0, work, 0, input.length);
+			FrameDecoder decoder = new FrameDecoder(Frames.MAX_MESSAGE_SIZE);
+			for (int at = 0; at < work.length; at += readSize) {
+				decoder.feed(ByteBuffer.wrap(work, at,
+						Math.min(readSize, work.length - at)), handler);
+			}
+		}
+		check(sum[0], iterations);
+		return stopwatch.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * The original implementation of reading a frame in {@link Websocket},
+	 * kept as a baseline.
+	 */
+	private static byte[] readFrameUnbuffered(DataInputStream in)
+			throws IOException {
+		in.read(); // fin and opcode
+		int length = in.read() & 0x7F;
+		if (length == 126) {
+			length = in.read() << 8 | in.read();
+		} else if (length == 127) {
+			length = (int) readLong(in);
+		}
+		byte[] mask = new byte[4];
+		for (int i = 0; i < 4; i++) {
+			mask[i] = (byte) in.read();
+		}
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		for (int i = 0; i < length; i++) {
+			payload[i] ^= mask[i % 4];
+		}
+		return Arrays.copyOf(payload, length);
+	}
+
+	private static long readLong(InputStream in) throws IOException {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = value << 8 | in.read();
+		}
+		return value;
+	}
+
+	private static void checkUnmask() {
+		Random random = new Random(2);
+		for (int i = 0; i < 1000; i++) {
+			byte[] bytes = new byte[random.nextInt(100)];
+			random.nextBytes(bytes);
+			int from = bytes.length == 0 ? 0 : random.nextInt(bytes.length);
+			int to = from + random.nextInt(bytes.length - from + 1);
+			int offset = random.nextInt(8);
+			int mask = random.nextInt();
+			byte[] expected = bytes.clone();
+			for (int j = from; j < to; j++) {
+				int shift = (3 - (offset + j - from) % 4) * 8;
+				expected[j] ^= mask >>> shift;
+			}
+			FrameDecoder.unmask(ByteBuffer.wrap(bytes), from, to, mask, offset);
+			if (!Arrays.equals(expected, bytes)) {
+				throw new AssertionError("unmask " + from + " " + to + " "
+						+ offset);
+			}
+		}
+	}
+
+	private static byte[] frames(Random random) {
+		// a length of 0x10000 takes the eight byte form
+		ByteBuffer result = ByteBuffer.allocate(
+				(2 + 8 + 4 + FRAME_SIZE) * FRAMES_PER_STREAM);
+		byte[] mask = new byte[4];
+		byte[] payload = new byte[FRAME_SIZE];
+		for (int i = 0; i < FRAMES_PER_STREAM; i++) {
+			random.nextBytes(mask);
+			random.nextBytes(payload);
+			result.put((byte) (Frames.FIN_BIT | Frames.BINARY))
+					.put((byte) (Frames.MASK_BIT | Frames.LARGE_LENGTH_CODE))
+					.putLong(FRAME_SIZE).put(mask).put(payload);
+		}
+		return result.array();
+	}
+
+	private static void check(long sum, int iterations) {
+		if (sum != (long) FRAME_SIZE * FRAMES_PER_STREAM * iterations) {
+			throw new AssertionError(sum);
+		}
+	}
+
+	private static void report(String name, long nanos, int iterations) {
+		double bytes = (double) FRAME_SIZE * FRAMES_PER_STREAM * iterations;
+		System.out.printf("%-16s %8.1f MB/s%n", name,
+				bytes / (1 << 20) / (nanos / 1e9));
+	}
+
+}
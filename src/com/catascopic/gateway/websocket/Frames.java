@@ -0,0 +1,128 @@
+package com.catascopic.gateway.websocket;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The layout of a frame (RFC 6455 section 5.2), shared by the blocking and
+ * non-blocking engines.
+ */
+final class Frames {
+
+	// Opcodes
+	static final int CONTINUATION = 0x0;
+	static final int TEXT = 0x1;
+	static final int BINARY = 0x2;
+	static final int CLOSE = 0x8;
+	static final int PING = 0x9;
+	static final int PONG = 0xA;
+
+	static final int FIN_BIT = 0x80;
+	static final int RSV_BITS = 0x70;
+	// set on the first frame of a compressed message
+	static final int RSV1_BIT = 0x40;
+	static final int OPCODE_MASK = 0xF;
+	static final int MASK_BIT = 0x80;
+	static final int LENGTH_MASK = 0x7F;
+	// control opcodes have the high bit set
+	private static final int CONTROL_BIT = 0x8;
+
+	static final int MASK_LENGTH = 4;
+
+	// In case of small length, the code is the length.
+	static final int MID_LENGTH_CODE = 126;
+	static final int LARGE_LENGTH_CODE = 127;
+
+	// No extra bytes used for small message
+	static final int MID_LENGTH_BYTES = 2;
+	static final int LARGE_LENGTH_BYTES = 8;
+
+	static final int SMALL_MESSAGE_MAX_SIZE = 125;
+	static final int MID_MESSAGE_MAX_SIZE = 65535;
+
+	/**
+	 * The most that the fin/opcode byte, the length and the mask take.
+	 */
+	static final int MAX_HEAD_SIZE = 2 + LARGE_LENGTH_BYTES + MASK_LENGTH;
+
+	/**
+	 * The largest payload of a control frame.
+	 */
+	static final int MAX_CONTROL_PAYLOAD = SMALL_MESSAGE_MAX_SIZE;
+
+	/**
+	 * The largest message that is accepted, whole or in fragments, unless
+	 * the listener says otherwise.
+	 */
+	static final int MAX_MESSAGE_SIZE = 0x1000000;
+
+	static final int NO_STATUS_CODE = 1005;
+	static final int ABNORMAL_CLOSURE = 1006;
+
+	private Frames() {}
+
+	static boolean isControl(int opcode) {
+		return (opcode & CONTROL_BIT) != 0;
+	}
+
+	/**
+	 * Returns the length of the head of an unmasked frame, as a server sends.
+	 */
+	static int headLength(long payloadLength) {
+		if (payloadLength <= SMALL_MESSAGE_MAX_SIZE) {
+			return 2;
+		}
+		if (payloadLength <= MID_MESSAGE_MAX_SIZE) {
+			return 2 + MID_LENGTH_BYTES;
+		}
+		return 2 + LARGE_LENGTH_BYTES;
+	}
+
+	/**
+	 * Writes the head of an unmasked frame.
+	 */
+	static void putHead(ByteBuffer dst, boolean fin, int opcode,
+			long payloadLength) {
+		putHead(dst, fin, false, opcode, payloadLength);
+	}
+
+	/**
+	 * Writes the head of an unmasked frame, which may be the first frame of
+	 * a compressed message.
+	 */
+	static void putHead(ByteBuffer dst, boolean fin, boolean compressed,
+			int opcode, long payloadLength) {
+		dst.put((byte) ((fin ? FIN_BIT : 0) | (compressed ? RSV1_BIT : 0)
+				| opcode));
+		int lengthBytes;
+		if (payloadLength <= SMALL_MESSAGE_MAX_SIZE) {
+			dst.put((byte) payloadLength);
+			lengthBytes = 0;
+		} else if (payloadLength <= MID_MESSAGE_MAX_SIZE) {
+			dst.put((byte) MID_LENGTH_CODE);
+			lengthBytes = MID_LENGTH_BYTES;
+		} else {
+			dst.put((byte) LARGE_LENGTH_CODE);
+			lengthBytes = LARGE_LENGTH_BYTES;
+		}
+		for (int i = lengthBytes - 1; i >= 0; i--) {
+			dst.put((byte) (payloadLength >> (Byte.SIZE * i)));
+		}
+	}
+
+	/**
+	 * Returns the payload of a close frame, cutting the reason short if it
+	 * does not fit in a control frame.
+	 */
+	static byte[] closePayload(int code, String reason) {
+		byte[] reasonBytes = reason.getBytes(UTF_8);
+		int reasonLength = Math.min(reasonBytes.length, MAX_CONTROL_PAYLOAD - 2);
+		byte[] payload = new byte[2 + reasonLength];
+		payload[0] = (byte) (code >> Byte.SIZE);
+		payload[1] = (byte) code;
+		System.arraycopy(reasonBytes, 0, payload, 2, reasonLength);
+		return payload;
+	}
+
+}
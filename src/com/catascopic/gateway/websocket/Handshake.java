@@ -0,0 +1,117 @@
+package com.catascopic.gateway.websocket;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+
+import com.catascopic.gateway.HttpReader;
+import com.catascopic.gateway.HttpStatus;
+import com.catascopic.gateway.HttpSyntaxException;
+import com.catascopic.gateway.RequestHead;
+import com.catascopic.gateway.RequestHeaders;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.net.HttpHeaders;
+
+/**
+ * The opening handshake (RFC 6455 section 4.2): the upgrade request a client
+ * sends and the reply that accepts it.
+ */
+final class Handshake {
+
+	private static final BaseEncoding BASE64 = BaseEncoding.base64();
+	private static final String WEBSOCKET_GUID =
+			"258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final String CRLF = "\r\n";
+	private static final String WEBSOCKET = "websocket";
+
+	private final String uri;
+	private final RequestHeaders headers;
+	private final String key;
+
+	private Handshake(String uri, RequestHeaders headers, String key) {
+		this.uri = uri;
+		this.headers = headers;
+		this.key = key;
+	}
+
+	/**
+	 * Reads an upgrade request.
+	 *
+	 * @throws WebsocketException
+	 *             if the request is malformed or is not an upgrade request
+	 */
+	static Handshake read(HttpReader in) throws IOException {
+		RequestHead head;
+		try {
+			head = in.readHead();
+		} catch (HttpSyntaxException e) {
+			throw new WebsocketException("malformed upgrade request", e);
+		}
+		RequestHeaders headers = head.headers();
+		String upgrade = headers.get(HttpHeaders.UPGRADE);
+		String key = headers.get(HttpHeaders.SEC_WEBSOCKET_KEY);
+		if (!head.method().equals("GET") || upgrade == null
+				|| !upgrade.equalsIgnoreCase(WEBSOCKET) || key == null) {
+			throw new WebsocketException("not an upgrade request");
+		}
+		return new Handshake(head.target(), headers, key);
+	}
+
+	String uri() {
+		return uri;
+	}
+
+	RequestHeaders headers() {
+		return headers;
+	}
+
+	/**
+	 * Agrees to permessage-deflate if the client offers it.
+	 *
+	 * @param settings
+	 *            the settings of the server, or null if it does not
+	 *            compress
+	 * @return the compression of the connection, or null if there is none
+	 */
+	Compression negotiate(PerMessageDeflate settings) {
+		if (settings == null) {
+			return null;
+		}
+		return settings.negotiate(
+				headers.getAll(HttpHeaders.SEC_WEBSOCKET_EXTENSIONS));
+	}
+
+	/**
+	 * Returns the reply that accepts the upgrade.
+	 *
+	 * @param compression
+	 *            the compression that was agreed, or null
+	 */
+	byte[] accept(Compression compression) {
+		String acceptKey = BASE64.encode(Hashing.sha1()
+				.hashString(key + WEBSOCKET_GUID, US_ASCII).asBytes());
+		String reply = "HTTP/1.1 " + HttpStatus._101_SWITCHING_PROTOCOLS + CRLF
+				+ HttpHeaders.UPGRADE + ": websocket" + CRLF
+				+ HttpHeaders.CONNECTION + ": Upgrade" + CRLF
+				+ HttpHeaders.SEC_WEBSOCKET_ACCEPT + ": " + acceptKey + CRLF;
+		if (compression != null) {
+			reply += HttpHeaders.SEC_WEBSOCKET_EXTENSIONS + ": "
+					+ compression.response() + CRLF;
+		}
+		return (reply + CRLF).getBytes(US_ASCII);
+	}
+
+	/**
+	 * Returns a reply that refuses a request, after which the connection is
+	 * closed.
+	 */
+	static byte[] refuse(HttpStatus status) {
+		String reply = "HTTP/1.1 " + status + CRLF
+				+ HttpHeaders.CONTENT_LENGTH + ": 0" + CRLF
+				+ HttpHeaders.CONNECTION + ": close" + CRLF
+				+ CRLF;
+		return reply.getBytes(US_ASCII);
+	}
+
+}
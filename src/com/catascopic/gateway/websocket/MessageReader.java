@@ -0,0 +1,235 @@
+package com.catascopic.gateway.websocket;
+
+import static com.catascopic.gateway.websocket.Frames.BINARY;
+import static com.catascopic.gateway.websocket.Frames.CONTINUATION;
+import static com.catascopic.gateway.websocket.Frames.TEXT;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import com.catascopic.gateway.BufferPool;
+
+/**
+ * Puts the data frames of a connection back together into messages, from
+ * the frames and pieces of frames that a {@link FrameDecoder} hands on.
+ * Compressed messages are decompressed and text is checked to be UTF-8 as
+ * each piece arrives, and a message that grows past the largest allowed is
+ * refused as soon as it does.
+ * <p>
+ * A reader either gathers each message whole, or, for a listener that
+ * streams, hands on each piece as it is decoded, so that a message of any
+ * size takes no more memory than a piece of it.
+ */
+final class MessageReader {
+
+	/**
+	 * Receives messages or parts of messages.
+	 */
+	interface Handler {
+
+		/**
+		 * Called with a whole text message, if the reader gathers messages.
+		 */
+		void text(String message) throws IOException;
+
+		/**
+		 * Called with a whole binary message, if the reader gathers
+		 * messages.
+		 *
+		 * @param pooled
+		 *            whether the message is in a pooled heap buffer, which
+		 *            the handler releases; if not, it is in a frame that
+		 *            arrived whole, and is only valid for the duration of the
+		 *            call
+		 */
+		void binary(ByteBuffer message, boolean pooled) throws IOException;
+
+		/**
+		 * Called with each part of a text message, if the reader streams.
+		 * Each part ends on a whole character.
+		 */
+		void textPart(String part, boolean last) throws IOException;
+
+		/**
+		 * Called with each part of a binary message, if the reader streams,
+		 * in a buffer that is only valid for the duration of the call.
+		 */
+		void binaryPart(ByteBuffer part, boolean last) throws IOException;
+	}
+
+	private static final int MESSAGE_TOO_BIG = 1009;
+	// the size of the pieces that a compressed message is decompressed in
+	private static final int INFLATE_SIZE = 0x4000;
+
+	private final Handler handler;
+	private final boolean streaming;
+	private final long maxMessageSize;
+	private Compression compression; // = null
+
+	private boolean inProgress; // = false
+	private int type;
+	private boolean compressed;
+	private long size;
+	private final Utf8Decoder utf8 = new Utf8Decoder();
+	// the message being gathered, unless the reader streams
+	private StringBuilder text; // = null
+	private ByteBuffer message; // = null
+
+	/**
+	 * @param streaming
+	 *            whether to hand on the parts of each message, rather than
+	 *            gather it
+	 * @param maxMessageSize
+	 *            the largest message to accept, after it is decompressed
+	 */
+	MessageReader(Handler handler, boolean streaming, long maxMessageSize) {
+		this.handler = handler;
+		this.streaming = streaming;
+		// a gathered message must fit in an array
+		this.maxMessageSize = streaming ? maxMessageSize
+				: Math.min(maxMessageSize, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Decompresses the messages that are marked as compressed.
+	 */
+	void setCompression(Compression compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Takes a text, binary or continuation frame, or a piece of one.
+	 */
+	void frame(boolean fin, boolean compressed, int opcode,
+			ByteBuffer payload) throws IOException {
+		switch (opcode) {
+		case CONTINUATION:
+			if (!inProgress) {
+				throw new WebsocketProtocolException("unstarted continuation");
+			}
+			break;
+		case TEXT:
+		case BINARY:
+			if (inProgress) {
+				throw new WebsocketProtocolException("message in progress");
+			}
+			inProgress = true;
+			type = opcode;
+			this.compressed = compressed;
+			size = 0;
+			break;
+		default:
+			throw new WebsocketProtocolException("bad opcode: " + opcode);
+		}
+		if (fin) {
+			inProgress = false;
+		}
+		if (this.compressed) {
+			inflate(payload, fin);
+		} else {
+			append(payload, fin);
+		}
+	}
+
+	private void inflate(ByteBuffer payload, boolean last)
+			throws IOException {
+		compression.setInput(payload, last);
+		ByteBuffer out = BufferPool.HEAP.acquire(INFLATE_SIZE);
+		try {
+			boolean more;
+			do {
+				out.clear();
+				more = compression.inflate(out);
+				out.flip();
+				append(out, last && !more);
+			} while (more);
+		} finally {
+			BufferPool.HEAP.release(out);
+		}
+	}
+
+	private void append(ByteBuffer bytes, boolean last) throws IOException {
+		int length = bytes.remaining();
+		size += length;
+		if (size > maxMessageSize) {
+			throw new WebsocketProtocolException(MESSAGE_TOO_BIG,
+					"message too big");
+		}
+		if (type == TEXT) {
+			CharBuffer chars = utf8.decode(bytes, last);
+			if (streaming) {
+				if (chars.hasRemaining() || last) {
+					handler.textPart(chars.toString(), last);
+				}
+			} else {
+				if (last && text == null) {
+					// the message is in one piece
+					handler.text(chars.toString());
+					return;
+				}
+				if (text == null) {
+					text = new StringBuilder(chars.remaining());
+				}
+				text.append(chars.array(),
+						chars.arrayOffset() + chars.position(),
+						chars.remaining());
+				if (last) {
+					String whole = text.toString();
+					text = null;
+					handler.text(whole);
+				}
+			}
+		} else if (streaming) {
+			if (length > 0 || last) {
+				handler.binaryPart(bytes, last);
+			}
+		} else if (last && message == null) {
+			// the message is in one piece, which is handed on as it is
+			handler.binary(bytes, false);
+		} else {
+			gather(bytes);
+			if (last) {
+				ByteBuffer whole = message;
+				message = null;
+				whole.flip();
+				handler.binary(whole, true);
+			}
+		}
+	}
+
+	/**
+	 * Copies bytes into the message, which grows as needed.
+	 */
+	private void gather(ByteBuffer bytes) {
+		if (message == null) {
+			// a message that is not finished is given room to grow
+			message = BufferPool.HEAP.acquire(inProgress
+					? bytes.remaining() * 2 : bytes.remaining());
+			message.limit(message.capacity());
+		} else if (bytes.remaining() > message.remaining()) {
+			ByteBuffer larger = BufferPool.HEAP.acquire((int) Math.min(
+					Math.max(size, message.capacity() * 2L), maxMessageSize));
+			larger.limit(larger.capacity());
+			message.flip();
+			larger.put(message);
+			BufferPool.HEAP.release(message);
+			message = larger;
+		}
+		message.put(bytes);
+	}
+
+	/**
+	 * Releases the message that was being gathered when the connection
+	 * closed.
+	 */
+	void release() {
+		if (message != null) {
+			BufferPool.HEAP.release(message);
+			message = null;
+		}
+		text = null;
+		utf8.reset();
+	}
+
+}
@@ -0,0 +1,305 @@
+package com.catascopic.gateway.websocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+/**
+ * Settings for the permessage-deflate extension (RFC 7692), which compresses
+ * each message with DEFLATE, and the negotiation of it with a client.
+ * <p>
+ * A connection that keeps its compression context between messages, as is
+ * the default, compresses small, repetitive messages best, but holds a
+ * {@link Deflater} and an {@link Inflater} for as long as it is open. With
+ * no context takeover, each message is compressed on its own, and the
+ * connection borrows them from a pool only while it compresses or
+ * decompresses, so the memory that idle connections take is bounded.
+ * <p>
+ * The {@link Deflater} of the JDK always uses a window of 15 bits, so an
+ * offer that asks the server for a smaller window is declined; the window
+ * of the client can be limited with {@link Builder#setClientMaxWindowBits}.
+ * One settings object should be shared by every connection that uses it,
+ * as the pools belong to it.
+ */
+public final class PerMessageDeflate {
+
+	static final String EXTENSION_NAME = "permessage-deflate";
+
+	static final String SERVER_NO_CONTEXT_TAKEOVER =
+			"server_no_context_takeover";
+	static final String CLIENT_NO_CONTEXT_TAKEOVER =
+			"client_no_context_takeover";
+	static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+	static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+	private static final ImmutableSet<String> PARAMETERS = ImmutableSet.of(
+			SERVER_NO_CONTEXT_TAKEOVER, CLIENT_NO_CONTEXT_TAKEOVER,
+			SERVER_MAX_WINDOW_BITS, CLIENT_MAX_WINDOW_BITS);
+
+	static final int MIN_WINDOW_BITS = 9;
+	static final int MAX_WINDOW_BITS = 15;
+
+	private static final int MAX_POOLED = 64;
+
+	private static final Splitter OFFERS =
+			Splitter.on(',').trimResults().omitEmptyStrings();
+	private static final Splitter PARAMS = Splitter.on(';').trimResults();
+	private static final Joiner RESPONSE = Joiner.on("; ");
+	private static final CharMatcher QUOTE = CharMatcher.is('"');
+
+	private final int level;
+	private final boolean serverNoContextTakeover;
+	private final boolean clientNoContextTakeover;
+	private final int clientMaxWindowBits;
+	private final int minSize;
+
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger deflaterCount = new AtomicInteger();
+	private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger inflaterCount = new AtomicInteger();
+
+	private PerMessageDeflate(Builder builder) {
+		this.level = builder.level;
+		this.serverNoContextTakeover = builder.serverNoContextTakeover;
+		this.clientNoContextTakeover = builder.clientNoContextTakeover;
+		this.clientMaxWindowBits = builder.clientMaxWindowBits;
+		this.minSize = builder.minSize;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public static final class Builder {
+
+		private int level = Deflater.DEFAULT_COMPRESSION;
+		private boolean serverNoContextTakeover; // = false
+		private boolean clientNoContextTakeover; // = false
+		private int clientMaxWindowBits = MAX_WINDOW_BITS;
+		private int minSize = 0x40;
+
+		private Builder() {}
+
+		/**
+		 * Sets the compression level, from 0 to 9, as for {@link Deflater}.
+		 */
+		public Builder setLevel(int level) {
+			if (level != Deflater.DEFAULT_COMPRESSION
+					&& (level < Deflater.NO_COMPRESSION
+							|| level > Deflater.BEST_COMPRESSION)) {
+				throw new IllegalArgumentException("level: " + level);
+			}
+			this.level = level;
+			return this;
+		}
+
+		/**
+		 * Compresses each message that the server sends on its own.
+		 */
+		public Builder setServerNoContextTakeover() {
+			this.serverNoContextTakeover = true;
+			return this;
+		}
+
+		/**
+		 * Asks clients to compress each message on their own, so that the
+		 * server decompresses each on its own.
+		 */
+		public Builder setClientNoContextTakeover() {
+			this.clientNoContextTakeover = true;
+			return this;
+		}
+
+		/**
+		 * Limits the window that clients that support it compress with.
+		 */
+		public Builder setClientMaxWindowBits(int bits) {
+			if (bits < MIN_WINDOW_BITS || bits > MAX_WINDOW_BITS) {
+				throw new IllegalArgumentException("window bits: " + bits);
+			}
+			this.clientMaxWindowBits = bits;
+			return this;
+		}
+
+		/**
+		 * Sets the smallest message that is compressed. Smaller ones are sent
+		 * as they are, which the extension allows.
+		 */
+		public Builder setMinSize(int minSize) {
+			this.minSize = minSize;
+			return this;
+		}
+
+		public PerMessageDeflate build() {
+			return new PerMessageDeflate(this);
+		}
+	}
+
+	int minSize() {
+		return minSize;
+	}
+
+	/**
+	 * Accepts the first offer of the extension that the server can agree to.
+	 *
+	 * @param extensions
+	 *            the values of the {@code Sec-WebSocket-Extensions} headers
+	 * @return the compression of the connection, or null if there was no
+	 *         acceptable offer
+	 */
+	Compression negotiate(List<String> extensions) {
+		for (String header : extensions) {
+			for (String offer : OFFERS.split(header)) {
+				Compression compression = accept(offer);
+				if (compression != null) {
+					return compression;
+				}
+			}
+		}
+		return null;
+	}
+
+	private Compression accept(String offer) {
+		Map<String, String> params = parse(offer);
+		if (params == null) {
+			return null;
+		}
+		String serverBits = params.get(SERVER_MAX_WINDOW_BITS);
+		if (serverBits != null
+				&& windowBits(serverBits) != MAX_WINDOW_BITS) {
+			// too small for Deflater, or malformed
+			return null;
+		}
+		int clientBits = MAX_WINDOW_BITS;
+		if (params.containsKey(CLIENT_MAX_WINDOW_BITS)) {
+			String value = params.get(CLIENT_MAX_WINDOW_BITS);
+			if (!value.isEmpty()) {
+				clientBits = windowBits(value);
+				if (clientBits == -1) {
+					return null;
+				}
+			}
+			clientBits = Math.min(clientBits, clientMaxWindowBits);
+		}
+		boolean serverReset = serverNoContextTakeover
+				|| params.containsKey(SERVER_NO_CONTEXT_TAKEOVER);
+		boolean clientReset = clientNoContextTakeover
+				|| params.containsKey(CLIENT_NO_CONTEXT_TAKEOVER);
+
+		List<String> response = new ArrayList<>();
+		response.add(EXTENSION_NAME);
+		if (serverReset) {
+			response.add(SERVER_NO_CONTEXT_TAKEOVER);
+		}
+		if (clientReset) {
+			response.add(CLIENT_NO_CONTEXT_TAKEOVER);
+		}
+		if (clientBits < MAX_WINDOW_BITS) {
+			response.add(CLIENT_MAX_WINDOW_BITS + '=' + clientBits);
+		}
+		return new Compression(this, serverReset, clientReset,
+				RESPONSE.join(response));
+	}
+
+	/**
+	 * Parses the parameters of an offer.
+	 *
+	 * @return the parameters, with an empty value for those without one, or
+	 *         null if the offer is not of this extension or is malformed
+	 */
+	private static Map<String, String> parse(String offer) {
+		Map<String, String> params = Maps.newHashMap();
+		boolean first = true;
+		for (String param : PARAMS.split(offer)) {
+			if (first) {
+				if (!param.equalsIgnoreCase(EXTENSION_NAME)) {
+					return null;
+				}
+				first = false;
+				continue;
+			}
+			int equals = param.indexOf('=');
+			String name;
+			String value;
+			if (equals == -1) {
+				name = param;
+				value = "";
+			} else {
+				name = param.substring(0, equals).trim();
+				value = QUOTE.trimFrom(param.substring(equals + 1).trim());
+			}
+			if (!PARAMETERS.contains(name) || params.put(name, value) != null) {
+				// unknown or repeated
+				return null;
+			}
+			if (name.endsWith("_no_context_takeover") && !value.isEmpty()) {
+				return null;
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * @return the size of a window, or -1 if it is malformed or out of range
+	 */
+	private static int windowBits(String value) {
+		if (value.isEmpty() || value.length() > 2
+				|| !CharMatcher.inRange('0', '9').matchesAllOf(value)) {
+			return -1;
+		}
+		int bits = Integer.parseInt(value);
+		return bits >= MIN_WINDOW_BITS - 1 && bits <= MAX_WINDOW_BITS
+				? bits : -1;
+	}
+
+	Deflater acquireDeflater() {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			// raw DEFLATE, without the zlib header and checksum
+			return new Deflater(level, true);
+		}
+		deflaterCount.decrementAndGet();
+		return deflater;
+	}
+
+	void release(Deflater deflater) {
+		deflater.reset();
+		if (deflaterCount.incrementAndGet() <= MAX_POOLED) {
+			deflaters.add(deflater);
+		} else {
+			deflaterCount.decrementAndGet();
+			deflater.end();
+		}
+	}
+
+	Inflater acquireInflater() {
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			return new Inflater(true);
+		}
+		inflaterCount.decrementAndGet();
+		return inflater;
+	}
+
+	void release(Inflater inflater) {
+		inflater.reset();
+		if (inflaterCount.incrementAndGet() <= MAX_POOLED) {
+			inflaters.add(inflater);
+		} else {
+			inflaterCount.decrementAndGet();
+			inflater.end();
+		}
+	}
+
+}
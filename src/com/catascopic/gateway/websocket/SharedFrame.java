@@ -0,0 +1,72 @@
+package com.catascopic.gateway.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.catascopic.gateway.BufferPool;
+
+/**
+ * A whole frame, encoded once to be written to many connections. Its bytes
+ * are in a pooled direct buffer, which each connection writes through its
+ * own view, and which is released once every holder has released it.
+ */
+final class SharedFrame {
+
+	private final ByteBuffer buffer;
+	private final AtomicInteger references = new AtomicInteger(1);
+	// a copy for connections that write to streams, made when first needed
+	private volatile byte[] array; // = null
+
+	private SharedFrame(ByteBuffer buffer) {
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Encodes a frame, which the caller holds until it calls
+	 * {@link #release()}.
+	 */
+	static SharedFrame encode(int opcode, byte[] payload) {
+		ByteBuffer buffer = BufferPool.DIRECT.acquire(
+				Frames.headLength(payload.length) + payload.length);
+		Frames.putHead(buffer, true, opcode, payload.length);
+		buffer.put(payload);
+		buffer.flip();
+		return new SharedFrame(buffer);
+	}
+
+	int length() {
+		return buffer.limit();
+	}
+
+	/**
+	 * Returns a view of the frame with its own position, which is only valid
+	 * while the frame is held.
+	 */
+	ByteBuffer view() {
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Returns the frame as an array, which must not be modified.
+	 */
+	byte[] array() {
+		byte[] bytes = array;
+		if (bytes == null) {
+			bytes = new byte[length()];
+			buffer.duplicate().get(bytes);
+			array = bytes;
+		}
+		return bytes;
+	}
+
+	void retain() {
+		references.incrementAndGet();
+	}
+
+	void release() {
+		if (references.decrementAndGet() == 0) {
+			BufferPool.DIRECT.release(buffer);
+		}
+	}
+
+}
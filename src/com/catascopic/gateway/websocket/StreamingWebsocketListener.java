@@ -0,0 +1,53 @@
+package com.catascopic.gateway.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A listener that is given each message in parts, as its frames arrive,
+ * rather than whole. However large a message is, no more of it is held than
+ * the part being handed on, so large transfers take constant memory; the
+ * largest message accepted is still set by {@link #maxMessageSize()}.
+ * <p>
+ * Parts follow no particular boundaries: a frame may be split into several
+ * parts, and a part may be empty. Text is decoded as it arrives, and each
+ * part ends on a whole character. A message that turns out to be invalid
+ * partway through ends with {@link #onError} rather than a last part.
+ */
+public abstract class StreamingWebsocketListener extends WebsocketListener {
+
+	/**
+	 * Called with each part of a text message.
+	 *
+	 * @param last
+	 *            whether this is the end of the message
+	 */
+	protected void onTextPart(String part, boolean last) {}
+
+	/**
+	 * Called with each part of a binary message, as a read-only buffer that
+	 * is only valid for the duration of the call.
+	 *
+	 * @param last
+	 *            whether this is the end of the message
+	 */
+	protected void onBinaryPart(ByteBuffer part, boolean last) {}
+
+	/**
+	 * Not called, as messages are given in parts to {@link #onTextPart}.
+	 */
+	@Override
+	protected final void onText(String text) {}
+
+	/**
+	 * Not called, as messages are given in parts to {@link #onBinaryPart}.
+	 */
+	@Override
+	protected final void onBinary(ByteBuffer message) {}
+
+	/**
+	 * Not called, as messages are given in parts to {@link #onBinaryPart}.
+	 */
+	@Override
+	protected final void onBinary(byte[] bytes) {}
+
+}
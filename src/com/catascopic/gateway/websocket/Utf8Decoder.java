@@ -0,0 +1,88 @@
+package com.catascopic.gateway.websocket;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * Decodes the UTF-8 of a text message as it arrives in pieces, which may
+ * split a character between them. Text messages must be valid UTF-8 (RFC
+ * 6455 section 8.1), so malformed bytes are refused as soon as they are
+ * seen, rather than replaced.
+ */
+final class Utf8Decoder {
+
+	private static final int INVALID_PAYLOAD = 1007;
+	private static final int MAX_CHARACTER_BYTES = 4;
+
+	// reports malformed input, as a new decoder does by default
+	private final CharsetDecoder decoder = UTF_8.newDecoder();
+	// the first bytes of a character that is split between pieces
+	private final ByteBuffer partial = ByteBuffer.allocate(MAX_CHARACTER_BYTES);
+	private CharBuffer chars = CharBuffer.allocate(0x400);
+
+	/**
+	 * Decodes a piece of a message, keeping the bytes of a character that it
+	 * ends partway through for the next.
+	 *
+	 * @param last
+	 *            whether this is the last piece of the message
+	 * @return the characters decoded, which are only valid until the next
+	 *         call
+	 * @throws WebsocketProtocolException
+	 *             if the bytes are not valid UTF-8, or the message ends
+	 *             partway through a character
+	 */
+	CharBuffer decode(ByteBuffer bytes, boolean last)
+			throws WebsocketProtocolException {
+		// no character takes more chars than it takes bytes
+		int most = partial.position() + bytes.remaining();
+		if (most > chars.capacity()) {
+			chars = CharBuffer.allocate(Math.max(most, chars.capacity() * 2));
+		}
+		chars.clear();
+		// a byte at a time, until the split character is whole
+		while (partial.position() > 0 && bytes.hasRemaining()) {
+			partial.put(bytes.get());
+			partial.flip();
+			check(decoder.decode(partial, chars, false));
+			partial.compact();
+		}
+		check(decoder.decode(bytes, chars, last));
+		if (last) {
+			if (partial.position() > 0) {
+				throw invalid();
+			}
+			check(decoder.flush(chars));
+			decoder.reset();
+		} else {
+			partial.put(bytes);
+		}
+		chars.flip();
+		return chars;
+	}
+
+	/**
+	 * Forgets a message that was not finished.
+	 */
+	void reset() {
+		decoder.reset();
+		partial.clear();
+	}
+
+	private static void check(CoderResult result)
+			throws WebsocketProtocolException {
+		if (result.isError()) {
+			throw invalid();
+		}
+	}
+
+	private static WebsocketProtocolException invalid() {
+		return new WebsocketProtocolException(INVALID_PAYLOAD,
+				"invalid UTF-8");
+	}
+
+}
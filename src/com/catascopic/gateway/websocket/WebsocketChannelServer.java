@@ -0,0 +1,74 @@
+package com.catascopic.gateway.websocket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+import com.catascopic.gateway.ChannelServer;
+import com.catascopic.gateway.RequestHeaders;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * A WebSocket server on {@link ChannelServer}, for many long-lived
+ * connections on a few threads. Frames are decoded on the selector threads as
+ * bytes arrive, and the listener of each connection is called on the given
+ * executor, one event at a time and in order, so that a slow listener only
+ * holds up its own connection. A connection is not read from while its
+ * listener is far behind.
+ */
+public abstract class WebsocketChannelServer
+		extends ChannelServer<ChannelWebsocket> {
+
+	private final Executor listenerExecutor;
+
+	/**
+	 * Creates a server whose listeners are called on the selector threads,
+	 * so they must not block.
+	 */
+	public WebsocketChannelServer(InetSocketAddress address, int selectorCount)
+			throws IOException {
+		this(address, selectorCount, MoreExecutors.directExecutor());
+	}
+
+	public WebsocketChannelServer(InetSocketAddress address, int selectorCount,
+			Executor listenerExecutor) throws IOException {
+		super(address, selectorCount);
+		this.listenerExecutor = listenerExecutor;
+	}
+
+	/**
+	 * Creates the listener for a new connection, or returns {@code null} to
+	 * refuse it. This is called on a selector thread, so it must not block.
+	 */
+	protected abstract WebsocketListener createListener(String uri,
+			RequestHeaders headers);
+
+	/**
+	 * Returns the settings to compress a new connection with, if its client
+	 * offers permessage-deflate, or {@code null} to not compress it, as is
+	 * the default. This is called on a selector thread.
+	 */
+	protected PerMessageDeflate compression(String uri,
+			RequestHeaders headers) {
+		return null;
+	}
+
+	@Override
+	protected final ChannelWebsocket open(Connection connection) {
+		return new ChannelWebsocket(this, connection, listenerExecutor);
+	}
+
+	@Override
+	protected final void read(Connection connection, ChannelWebsocket websocket,
+			ByteBuffer data) throws IOException {
+		websocket.read(data);
+	}
+
+	@Override
+	protected final void closed(Connection connection,
+			ChannelWebsocket websocket) {
+		websocket.closed();
+	}
+
+}
@@ -1,8 +1,33 @@
 package com.catascopic.gateway.websocket;
 
+import java.nio.ByteBuffer;
+
 public abstract class WebsocketListener {
 
-	protected void onOpen(Websocket websocket) {}
+	protected void onOpen(WebsocketSession session) {}
+
+	/**
+	 * Returns the largest message, in bytes once decompressed, that the
+	 * connection accepts; a larger one closes it with 1009. This is called
+	 * once, when the connection opens. As each message is held whole before
+	 * it is handed on, the default is 16 MiB; a
+	 * {@link StreamingWebsocketListener} can accept much larger messages, as
+	 * it never holds one.
+	 */
+	protected long maxMessageSize() {
+		return Frames.MAX_MESSAGE_SIZE;
+	}
+
+	/**
+	 * Called with a binary message as a read-only view of the buffer it was
+	 * read into, which is only valid for the duration of the call. By
+	 * default, the message is copied and passed to {@link #onBinary(byte[])}.
+	 */
+	protected void onBinary(ByteBuffer message) {
+		byte[] bytes = new byte[message.remaining()];
+		message.get(bytes);
+		onBinary(bytes);
+	}
 
 	protected void onBinary(byte[] bytes) {}
 
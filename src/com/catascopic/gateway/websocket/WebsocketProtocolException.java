@@ -1,25 +1,50 @@
-package com.catascopic.gateway.websocket;
-
-import java.io.IOException;
-
-public class WebsocketProtocolException extends IOException {
-
-	private static final long serialVersionUID = 1L;
-
-	public WebsocketProtocolException() {
-		super();
-	}
-
-	public WebsocketProtocolException(String message, Throwable cause) {
-		super(message, cause);
-	}
-
-	public WebsocketProtocolException(String message) {
-		super(message);
-	}
-
-	public WebsocketProtocolException(Throwable cause) {
-		super(cause);
-	}
-
-}
+package com.catascopic.gateway.websocket;
+
+import java.io.IOException;
+
+public class WebsocketProtocolException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int PROTOCOL_ERROR = 1002;
+
+	private final int closeCode;
+
+	public WebsocketProtocolException() {
+		super();
+		this.closeCode = PROTOCOL_ERROR;
+	}
+
+	public WebsocketProtocolException(String message, Throwable cause) {
+		super(message, cause);
+		this.closeCode = PROTOCOL_ERROR;
+	}
+
+	public WebsocketProtocolException(String message) {
+		super(message);
+		this.closeCode = PROTOCOL_ERROR;
+	}
+
+	public WebsocketProtocolException(Throwable cause) {
+		super(cause);
+		this.closeCode = PROTOCOL_ERROR;
+	}
+
+	/**
+	 * @param closeCode
+	 *            the status code to close the connection with, if it is not
+	 *            a plain protocol error
+	 */
+	public WebsocketProtocolException(int closeCode, String message) {
+		super(message);
+		this.closeCode = closeCode;
+	}
+
+	/**
+	 * Returns the status code to close the connection with.
+	 */
+	public int closeCode() {
+		return closeCode;
+	}
+
+}
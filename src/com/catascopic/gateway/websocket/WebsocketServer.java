@@ -1,83 +1,58 @@
-package com.catascopic.gateway.websocket;
-
-import static java.nio.charset.StandardCharsets.US_ASCII;
-
-import java.io.Closeable;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
-
-import com.catascopic.gateway.HttpReader;
-import com.catascopic.gateway.HttpStatus;
-import com.google.common.base.Splitter;
-import com.google.common.hash.Hashing;
-import com.google.common.io.BaseEncoding;
-import com.google.common.net.HttpHeaders;
-
-public abstract class WebsocketServer implements Closeable {
-
-	private final ServerSocket server;
-
-	public WebsocketServer(int port) throws IOException {
-		server = new ServerSocket(port);
-	}
-
-	private static final BaseEncoding BASE64 = BaseEncoding.base64();
-	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
-	private static final String CRLF = "\r\n";
-	private static final String WEBSOCKET_KEY = "Sec-WebSocket-Key";
-
-	public final Websocket accept() throws IOException {
-		Socket socket = server.accept();
-		HttpReader in = new HttpReader(socket.getInputStream());
-		String requestLine = in.readLine();
-		Map<String, String> headers = readHeaders(in);
-		String requestUri = Splitter.on(' ').splitToList(requestLine).get(1);
-		String key = headers.get(WEBSOCKET_KEY);
-		if (key == null) {
-			throw new IOException("No websocket accept key found.");
-		}
-		String acceptKey =
-				BASE64.encode(Hashing.sha1().hashString(key + WEBSOCKET_GUID, US_ASCII).asBytes());
-		String reply = "HTTP/1.1 " + HttpStatus._101_SWITCHING_PROTOCOLS + CRLF
-				+ HttpHeaders.UPGRADE + ": websocket" + CRLF
-				+ HttpHeaders.CONNECTION + ": Upgrade" + CRLF
-				+ "Sec-WebSocket-Accept: " + acceptKey + CRLF
-				+ CRLF;
-		OutputStream out = socket.getOutputStream();
-		out.write(reply.getBytes(US_ASCII));
-		out.flush();
-		return createWebsocket(socket, requestUri, headers);
-	}
-
-	protected abstract Websocket createWebsocket(Socket socket, String uri,
-			Map<String, String> headers) throws IOException;
-
-	@Override
-	public void close() throws IOException {
-		server.close();
-	}
-
-	public boolean isClosed() {
-		return server.isClosed();
-	}
-
-	private static Map<String, String> readHeaders(HttpReader in) throws IOException {
-		Map<String, String> headers = new LinkedHashMap<>();
-		Splitter headerSplitter = Splitter.on(':').trimResults();
-		for (;;) {
-			String line = in.readLine();
-			if (line.isEmpty()) {
-				break;
-			}
-			List<String> header = headerSplitter.splitToList(line);
-			headers.put(header.get(0), header.get(1));
-		}
-		return headers;
-	}
-
-}
+package com.catascopic.gateway.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import com.catascopic.gateway.HttpReader;
+import com.catascopic.gateway.RequestHeaders;
+
+public abstract class WebsocketServer implements Closeable {
+
+	private final ServerSocket server;
+
+	public WebsocketServer(int port) throws IOException {
+		server = new ServerSocket(port);
+	}
+
+	public final Websocket accept() throws IOException {
+		Socket socket = server.accept();
+		Handshake handshake = Handshake.read(new HttpReader(socket.getInputStream()));
+		Compression compression = handshake.negotiate(
+				compression(handshake.uri(), handshake.headers()));
+		OutputStream out = socket.getOutputStream();
+		out.write(handshake.accept(compression));
+		out.flush();
+		Websocket websocket =
+				createWebsocket(socket, handshake.uri(), handshake.headers());
+		if (compression != null) {
+			websocket.setCompression(compression);
+		}
+		return websocket;
+	}
+
+	protected abstract Websocket createWebsocket(Socket socket, String uri,
+			RequestHeaders headers) throws IOException;
+
+	/**
+	 * Returns the settings to compress a new connection with, if its client
+	 * offers permessage-deflate, or {@code null} to not compress it, as is
+	 * the default.
+	 */
+	protected PerMessageDeflate compression(String uri,
+			RequestHeaders headers) {
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+
+	public boolean isClosed() {
+		return server.isClosed();
+	}
+
+}
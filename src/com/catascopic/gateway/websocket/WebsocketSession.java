@@ -0,0 +1,23 @@
+package com.catascopic.gateway.websocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The sending side of an open connection, which a {@link WebsocketListener}
+ * is given when the connection opens. Messages may be sent from any thread.
+ */
+public interface WebsocketSession extends Closeable {
+
+	void send(String message) throws IOException;
+
+	void send(byte[] message) throws IOException;
+
+	void sendPing(byte[] payload) throws IOException;
+
+	/**
+	 * Starts the closing handshake. Nothing more may be sent afterwards.
+	 */
+	void sendClose(int code, String reason) throws IOException;
+
+}